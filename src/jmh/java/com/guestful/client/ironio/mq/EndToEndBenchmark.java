@@ -0,0 +1,145 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.json.Json;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonObject;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.ClientRequestContext;
+import javax.ws.rs.client.ClientRequestFilter;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Offer, poll and delete through the whole client and its JAX-RS stack, with the network replaced by a
+ * {@link ClientRequestFilter} aborting each request with a canned IronMQ response.
+ * Scores are in batches per second: multiply by <code>batch</code> for messages per second.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class EndToEndBenchmark {
+
+    @Param({"1", "100"})
+    int batch;
+
+    private Client restClient;
+    private IronQueue queue;
+    private IronSettings settings;
+    private List<JsonObject> messages;
+
+    @Setup
+    public void setUp() {
+        messages = new ArrayList<>(batch);
+        for (int i = 0; i < batch; i++) {
+            messages.add(Json.createObjectBuilder().add("id", "r" + i).add("partySize", i % 8 + 1).build());
+        }
+        restClient = ClientBuilder.newClient();
+        restClient.register(new CannedResponses(messages));
+        IronProject project = new IronClient(restClient).getProject("project", "token");
+        settings = project.getSettings().copy().setPollBatchSize(batch);
+        queue = project.getQueue("benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        restClient.close();
+    }
+
+    @Benchmark
+    public int offerPollDelete() {
+        queue.offer(messages, settings);
+        List<IronMessage> reserved = queue.pollBatch(batch, settings);
+        if (reserved.size() == 1) {
+            reserved.get(0).delete();
+        } else {
+            queue.deleteMessages(reserved);
+        }
+        return reserved.size();
+    }
+
+    /**
+     * Answers the offer, poll and delete requests without sending them
+     */
+    private static final class CannedResponses implements ClientRequestFilter {
+
+        private final String posted;
+        private final String reserved;
+        private final String deleted = Json.createObjectBuilder().add("msg", "Deleted").build().toString();
+
+        CannedResponses(List<JsonObject> messages) {
+            JsonArrayBuilder ids = Json.createArrayBuilder();
+            JsonArrayBuilder reserved = Json.createArrayBuilder();
+            for (int i = 0; i < messages.size(); i++) {
+                String id = String.valueOf(5924625841136130921L + i);
+                ids.add(id);
+                reserved.add(Json.createObjectBuilder()
+                    .add("id", id)
+                    .add("body", messages.get(i).toString())
+                    .add("timeout", IronSettings.DEF_TIMEOUT)
+                    .add("reserved_count", 1));
+            }
+            this.posted = Json.createObjectBuilder().add("ids", ids).add("msg", "Messages put on queue.").build().toString();
+            this.reserved = Json.createObjectBuilder().add("messages", reserved).build().toString();
+        }
+
+        @Override
+        public void filter(ClientRequestContext request) {
+            String entity;
+            switch (request.getMethod()) {
+                case HttpMethod.POST:
+                    entity = posted;
+                    break;
+                case HttpMethod.GET:
+                    entity = reserved;
+                    break;
+                case HttpMethod.DELETE:
+                    entity = deleted;
+                    break;
+                default:
+                    request.abortWith(Response.status(Response.Status.NOT_FOUND).build());
+                    return;
+            }
+            request.abortWith(Response.ok(entity, MediaType.APPLICATION_JSON_TYPE).build());
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.stream.JsonGenerator;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-message serialization costs: building offer request bodies and parsing poll responses.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class MessageBodyBenchmark {
+
+    private static final OutputStream NULL = new OutputStream() {
+        @Override
+        public void write(int b) {
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+        }
+    };
+
+    @Param({"1", "10", "100"})
+    int messages;
+
+    private final IronSettings settings = new IronSettings();
+    private IronLoopback loopback;
+    private IronQueue queue;
+    private List<JsonObject> objects;
+    private List<String> bodies;
+    private byte[] pollResponse;
+
+    @Setup
+    public void setUp() {
+        loopback = new IronLoopback();
+        queue = new IronClient(loopback).getProject("project", "token").getQueue("benchmark");
+        objects = new ArrayList<>(messages);
+        bodies = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            JsonObject reservation = Json.createObjectBuilder()
+                .add("id", "r" + i)
+                .add("restaurant", "Chez Guestful")
+                .add("partySize", i % 8 + 1)
+                .add("status", "CONFIRMED")
+                .add("time", "2014-06-04T19:30:00Z")
+                .build();
+            objects.add(reservation);
+            bodies.add(reservation.toString());
+        }
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = Json.createGenerator(out)) {
+            generator.writeStartObject().writeStartArray("messages");
+            for (int i = 0; i < messages; i++) {
+                generator.writeStartObject()
+                    .write("id", Long.toString(5924625841136130921L + i))
+                    .write("body", bodies.get(i))
+                    .write("timeout", IronSettings.DEF_TIMEOUT)
+                    .write("reserved_count", 1)
+                    .writeEnd();
+            }
+            generator.writeEnd().writeEnd();
+        }
+        pollResponse = out.toByteArray();
+    }
+
+    @TearDown
+    public void tearDown() {
+        loopback.close();
+    }
+
+    /**
+     * Body of {@link IronQueue#offerRaw(java.util.Collection)}: serialized bodies streamed as is
+     */
+    @Benchmark
+    public void offerRawBody() {
+        new MessagesBody(bodies, settings).write(NULL);
+    }
+
+    /**
+     * Body of {@link IronQueue#offer(java.util.Collection)}: JSON-P objects serialized, then streamed
+     */
+    @Benchmark
+    public void offerJsonBody() {
+        List<String> serialized = new ArrayList<>(objects.size());
+        for (JsonObject object : objects) {
+            serialized.add(object.toString());
+        }
+        new MessagesBody(serialized, settings).write(NULL);
+    }
+
+    /**
+     * Poll response parsing, bodies left as strings
+     */
+    @Benchmark
+    public List<IronMessage> pollRaw() {
+        return queue.readMessages(new LoopbackResponse(200, pollResponse), settings);
+    }
+
+    /**
+     * Poll response parsing, bodies parsed as JSON-P objects
+     */
+    @Benchmark
+    public void pollJson(Blackhole blackhole) {
+        for (IronMessage message : queue.readMessages(new LoopbackResponse(200, pollResponse), settings)) {
+            blackhole.consume(message.getBody());
+        }
+    }
+
+}
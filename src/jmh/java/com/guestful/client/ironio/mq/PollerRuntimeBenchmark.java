@@ -0,0 +1,103 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Round trip of a message through one of <code>queues</code> pollers started on an {@link IronPollerRuntime},
+ * all idle in long polls on an {@link IronLoopback} engine.
+ * <p>
+ * The platform thread count is printed after the run: with virtual threads (JDK 21+), it stays around the 4 carrier threads
+ * set below plus the JVM threads; with <code>-p virtual=false</code>, it grows with the number of queues.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 1, jvmArgsAppend = {"-Djdk.virtualThreadScheduler.parallelism=4", "-Djdk.virtualThreadScheduler.maxPoolSize=4"})
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PollerRuntimeBenchmark {
+
+    @Param({"10000"})
+    int queues;
+
+    @Param({"true"})
+    boolean virtual;
+
+    private IronLoopback loopback;
+    private IronPollerRuntime runtime;
+    private IronQueue[] pollers;
+    private final Map<String, CompletableFuture<Void>> waiting = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong();
+
+    @Setup
+    public void setUp() {
+        loopback = new IronLoopback();
+        IronProject project = new IronClient(loopback).getProject("project", "token");
+        project.getSettings().setMessageDelay(0, TimeUnit.SECONDS);
+        runtime = new IronPollerRuntime(8, virtual);
+        pollers = new IronQueue[queues];
+        for (int i = 0; i < queues; i++) {
+            pollers[i] = project.getQueue("tenant-" + i);
+            runtime.poll(pollers[i], message -> {
+                CompletableFuture<Void> handled = waiting.remove(message.getRawBody());
+                if (handled != null) {
+                    handled.complete(null);
+                }
+            });
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.println();
+        System.out.println(runtime + ", platform threads=" + ManagementFactory.getThreadMXBean().getThreadCount());
+        runtime.close();
+        loopback.close();
+    }
+
+    @Benchmark
+    public void roundTrip() throws Exception {
+        String body = "\"" + ids.incrementAndGet() + "\"";
+        CompletableFuture<Void> handled = new CompletableFuture<>();
+        waiting.put(body, handled);
+        pollers[ThreadLocalRandom.current().nextInt(pollers.length)].offerRaw(body);
+        handled.get(10, TimeUnit.SECONDS);
+    }
+
+}
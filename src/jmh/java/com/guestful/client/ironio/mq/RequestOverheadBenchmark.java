@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.ws.rs.client.Invocation;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Fixed costs of a request, paid before any byte is sent: settings copies, request targets, retry wrapper.
+ * Targets are built with the Jersey client of the test classpath.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class RequestOverheadBenchmark {
+
+    private static final String ID = "5924625841136130921";
+
+    private final IronSettings settings = new IronSettings().setPollWait(10, TimeUnit.SECONDS);
+    private final IronRetryBudget budget = new IronRetryBudget();
+    private final Response ok = new LoopbackResponse(200, null);
+    private final Supplier<Response> call = () -> ok;
+    private IronClient client;
+    private IronQueue queue;
+
+    @Setup
+    public void setUp() {
+        client = new IronClient();
+        queue = client.getProject("project", "token").getQueue("benchmark");
+    }
+
+    @TearDown
+    public void tearDown() {
+        client.getClient().close();
+    }
+
+    @Benchmark
+    public IronSettings settingsCopy() {
+        return settings.copy();
+    }
+
+    /**
+     * Poll target as it was built for every request, from the client root
+     */
+    @Benchmark
+    public WebTarget pollTargetFromRoot() {
+        return client.getTarget()
+            .path("projects/project").queryParam("oauth", "token")
+            .path("queues").path("benchmark").path("messages")
+            .queryParam("n", 10).queryParam("wait", 10).queryParam("timeout", 60).queryParam("delete", false);
+    }
+
+    /**
+     * Poll target as it is now: cached by the queue
+     */
+    @Benchmark
+    public IronEndpoint pollEndpoint() {
+        return queue.pollEndpoint(10, settings);
+    }
+
+    /**
+     * Per-message target, built once per message for touch, release and delete
+     */
+    @Benchmark
+    public IronEndpoint touchEndpoint() {
+        return queue.getMessageEndpoint(ID).path("touch");
+    }
+
+    /**
+     * What {@link IronClient#request} does with the endpoint before sending
+     */
+    @Benchmark
+    public Invocation.Builder invocationBuilder() {
+        return queue.pollEndpoint(10, settings).getTarget().request(MediaType.APPLICATION_JSON_TYPE);
+    }
+
+    @Benchmark
+    public Response directCall() {
+        return call.get();
+    }
+
+    /**
+     * Retry wrapper when the first attempt succeeds: compare with {@link #directCall()}
+     */
+    @Benchmark
+    public Response backoffNoFailure() {
+        return new BackoffResponse(settings, budget, call).get();
+    }
+
+}
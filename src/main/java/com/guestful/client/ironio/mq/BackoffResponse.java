@@ -16,22 +16,51 @@
 package com.guestful.client.ironio.mq;
 
 import javax.ws.rs.core.Response;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
+ * Retries a request failing with an error, a 5xx or a 429 status.
+ * <p>
+ * Delays are computed by {@link IronSettings#getBackoffPolicy()}, raised to the <code>Retry-After</code> header of the response if any,
+ * which is capped by {@link IronSettings#getBackoffMaxRetryAfter()} when the operation has no deadline.
+ * No retry is attempted beyond {@link IronSettings#getBackoffRetries()}, after the {@link IronSettings#getBackoffDeadline()} of the operation,
+ * when the {@link IronRetryBudget} of the client is exhausted, or when the circuit of the endpoint is open: the last response is then returned, or the last error thrown.
+ * Callers turn a last 5xx or 429 response into an {@link IronClientException} carrying its status.
+ * <p>
+ * {@link #get()} waits on the calling thread between retries. {@link #async(IronSettings, IronRetryBudget, Listener, ScheduledExecutorService, Supplier)}
+ * schedules retries on a scheduler instead. The optional {@link Listener} is told about each retry.
+ *
  * @author Mathieu Carbou (mathieu.carbou@gmail.com)
  */
 class BackoffResponse implements Supplier<Response> {
 
     private static final Logger LOGGER = Logger.getLogger(BackoffResponse.class.getName());
 
+    private static final int TOO_MANY_REQUESTS = 429;
+
     private final IronSettings settings;
+    private final IronRetryBudget budget;
+    private final Listener onRetry;
     private final Supplier<Response> supplier;
 
-    BackoffResponse(IronSettings settings, Supplier<Response> supplier) {
+    BackoffResponse(IronSettings settings, IronRetryBudget budget, Supplier<Response> supplier) {
+        this(settings, budget, null, supplier);
+    }
+
+    BackoffResponse(IronSettings settings, IronRetryBudget budget, Listener onRetry, Supplier<Response> supplier) {
         this.settings = settings;
+        this.budget = budget;
+        this.onRetry = onRetry;
         this.supplier = supplier;
     }
 
@@ -41,25 +70,29 @@ class BackoffResponse implements Supplier<Response> {
         if (settings.getBackoffInterval() == 0 || settings.getBackoffRetries() == 0) {
             return supplier.get();
         }
+        budget.onRequest();
         // variables to hold consecutive execution states
+        long start = System.nanoTime();
         int retries = 0;
-        long sleep = settings.getBackoffInterval() * 1000;
-        Response response = null;
-        RuntimeException err = null;
-        while (response == null || retries <= settings.getBackoffRetries()) {
+        long sleep = 0;
+        while (true) {
+            Response response = null;
+            RuntimeException err = null;
             try {
                 // try make call
                 if (retries > 0) {
                     LOGGER.finest("backoff() retry=" + retries + "/" + settings.getBackoffRetries());
                 }
                 response = supplier.get();
-                if (response.getStatusInfo().getFamily() != Response.Status.Family.SERVER_ERROR) {
+                if (!isRetryable(response)) {
                     // in case of success, returns response
                     return response;
-                } else {
-                    // otherwise just log the status and reason
-                    LOGGER.finest("backoff() " + response.getStatus() + " " + response.getStatusInfo().getReasonPhrase());
                 }
+                // otherwise just log the status and reason
+                LOGGER.finest("backoff() " + response.getStatus() + " " + response.getStatusInfo().getReasonPhrase());
+            } catch (IronCircuitOpenException e) {
+                // circuit open: fail fast
+                throw e;
             } catch (RuntimeException e) {
                 // capture processing errors if any
                 LOGGER.log(Level.WARNING, "backoff() err: " + e.getMessage(), e);
@@ -67,29 +100,162 @@ class BackoffResponse implements Supplier<Response> {
             }
             // here we have an err or a status 500
             retries++;
-            if (retries <= settings.getBackoffRetries()) {
-                // if we can retry, sleep
-                try {
-                    LOGGER.finest("backoff() sleep=" + sleep);
-                    Thread.sleep(sleep);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    LOGGER.finest("backoff() sleep interrupted");
-                    throw new IronException(e.getMessage(), e);
+            sleep = nextDelay(settings, budget, retries, sleep, response, start);
+            if (sleep < 0) {
+                LOGGER.finest("backoff() no retry left");
+                // we cannot retry anymore
+                if (err != null) {
+                    throw err;
                 }
-                // then prepare next call
-                err = null;
-                response = null;
-                sleep = Math.round(sleep * settings.getBackoffFactor());
+                return response;
+            }
+            if (response != null) {
+                response.close();
+            }
+            if (onRetry != null) {
+                onRetry.onRetry(retries, sleep);
+            }
+            try {
+                LOGGER.finest("backoff() sleep=" + sleep);
+                Thread.sleep(sleep);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.finest("backoff() sleep interrupted");
+                throw new IronException(e.getMessage(), e);
             }
         }
-        LOGGER.finest("backoff() no retry left");
-        // we cannot retry anymore
-        if (err != null) {
-            throw err;
-        } else {
-            throw new IllegalStateException("backoff() no retry left and no response!");
+    }
+
+    /**
+     * Non-blocking variant: same retry rules as {@link #get()}, but each retry is scheduled
+     * on the given scheduler instead of sleeping on the calling thread.
+     */
+    static CompletionStage<Response> async(IronSettings settings, IronRetryBudget budget, Listener onRetry, ScheduledExecutorService scheduler, Supplier<CompletionStage<Response>> supplier) {
+        // if no backoff, directly execute call
+        if (settings.getBackoffInterval() == 0 || settings.getBackoffRetries() == 0) {
+            return supplier.get();
+        }
+        budget.onRequest();
+        CompletableFuture<Response> result = new CompletableFuture<>();
+        attempt(settings, budget, onRetry, scheduler, supplier, result, System.nanoTime(), 0, 0);
+        return result;
+    }
+
+    private static void attempt(IronSettings settings, IronRetryBudget budget, Listener onRetry, ScheduledExecutorService scheduler, Supplier<CompletionStage<Response>> supplier, CompletableFuture<Response> result, long start, int retries, long sleep) {
+        if (retries > 0) {
+            LOGGER.finest("backoff() retry=" + retries + "/" + settings.getBackoffRetries());
+        }
+        CompletionStage<Response> call;
+        try {
+            call = supplier.get();
+        } catch (RuntimeException e) {
+            CompletableFuture<Response> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            call = failed;
         }
+        call.whenComplete((response, throwable) -> {
+            RuntimeException err = null;
+            if (throwable != null) {
+                Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+                err = cause instanceof RuntimeException ? (RuntimeException) cause : new IronException(cause.getMessage(), cause);
+                if (err instanceof IronCircuitOpenException) {
+                    // circuit open: fail fast
+                    result.completeExceptionally(err);
+                    return;
+                }
+                LOGGER.log(Level.WARNING, "backoff() err: " + err.getMessage(), err);
+            } else if (!isRetryable(response)) {
+                // in case of success, returns response
+                result.complete(response);
+                return;
+            } else {
+                // otherwise just log the status and reason
+                LOGGER.finest("backoff() " + response.getStatus() + " " + response.getStatusInfo().getReasonPhrase());
+            }
+            // here we have an err or a status 500
+            long next = nextDelay(settings, budget, retries + 1, sleep, response, start);
+            if (next < 0) {
+                LOGGER.finest("backoff() no retry left");
+                // we cannot retry anymore
+                if (err != null) {
+                    result.completeExceptionally(err);
+                } else {
+                    result.complete(response);
+                }
+                return;
+            }
+            if (response != null) {
+                response.close();
+            }
+            if (onRetry != null) {
+                onRetry.onRetry(retries + 1, next);
+            }
+            LOGGER.finest("backoff() sleep=" + next);
+            try {
+                scheduler.schedule(() -> attempt(settings, budget, onRetry, scheduler, supplier, result, start, retries + 1, next), next, TimeUnit.MILLISECONDS);
+            } catch (RuntimeException e) {
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    private static boolean isRetryable(Response response) {
+        return response.getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR || response.getStatus() == TOO_MANY_REQUESTS;
+    }
+
+    /**
+     * @return the delay in milliseconds before the given retry, or -1 if it must not be attempted
+     */
+    private static long nextDelay(IronSettings settings, IronRetryBudget budget, int retry, long previousDelay, Response response, long start) {
+        if (retry > settings.getBackoffRetries()) {
+            return -1;
+        }
+        long delay = Math.max(0, settings.getBackoffPolicy().delay(settings, retry, previousDelay));
+        if (response != null) {
+            long retryAfter = retryAfter(response);
+            if (settings.getBackoffDeadline() == 0) {
+                // without a deadline, the server would otherwise decide how long the caller waits
+                retryAfter = Math.min(retryAfter, TimeUnit.SECONDS.toMillis(settings.getBackoffMaxRetryAfter()));
+            }
+            delay = Math.max(delay, retryAfter);
+        }
+        if (settings.getBackoffDeadline() > 0
+            && System.nanoTime() - start + TimeUnit.MILLISECONDS.toNanos(delay) > TimeUnit.SECONDS.toNanos(settings.getBackoffDeadline())) {
+            LOGGER.finest("backoff() deadline reached");
+            return -1;
+        }
+        if (!budget.tryRetry()) {
+            LOGGER.finest("backoff() retry budget exhausted");
+            return -1;
+        }
+        return delay;
+    }
+
+    /**
+     * @return the delay in milliseconds requested by the Retry-After header (seconds or HTTP date), 0 if none
+     */
+    private static long retryAfter(Response response) {
+        String value = response.getHeaderString("Retry-After");
+        if (value == null || value.isEmpty()) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toMillis(Long.parseLong(value.trim()));
+        } catch (NumberFormatException ignored) {
+        }
+        try {
+            return Math.max(0, ZonedDateTime.parse(value.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli() - System.currentTimeMillis());
+        } catch (DateTimeParseException e) {
+            return 0;
+        }
+    }
+
+    interface Listener {
+        /**
+         * @param retry       retry number, from 1
+         * @param sleepMillis delay before the retry
+         */
+        void onRetry(int retry, long sleepMillis);
     }
 
 }
@@ -0,0 +1,119 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Deflate envelope of the compressed message bodies: <code>@deflate:&lt;base64 zlib stream&gt;</code>.
+ * <p>
+ * When a preset dictionary is used, the zlib stream carries its Adler-32 checksum, so consumers can tell which dictionary is needed.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class BodyCompression {
+
+    static final String MARKER = "@deflate:";
+
+    private static final int BUFFER_SIZE = 4096;
+
+    private BodyCompression() {
+    }
+
+    /**
+     * @param body String or UTF-8 byte[] body
+     * @return the body enveloped if it is big enough and compression makes it smaller, otherwise the body itself
+     */
+    static Object compress(Object body, IronSettings settings, IronCompressionStats stats) {
+        int threshold = settings.getCompressionThreshold();
+        if (threshold == 0) return body;
+        byte[] bytes = body instanceof byte[] ? (byte[]) body : ((String) body).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < threshold) return body;
+        long start = System.nanoTime();
+        Deflater deflater = new Deflater(settings.getCompressionLevel());
+        try {
+            byte[] dictionary = settings.compressionDictionary();
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            String enveloped = MARKER + Base64.getEncoder().encodeToString(out.toByteArray());
+            long nanos = System.nanoTime() - start;
+            if (enveloped.length() >= bytes.length) {
+                stats.onUncompressible(nanos);
+                return body;
+            }
+            stats.onCompressed(bytes.length, enveloped.length(), nanos);
+            return enveloped;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static boolean isCompressed(String body) {
+        return body != null && body.startsWith(MARKER);
+    }
+
+    static String decompress(String body, IronSettings settings, IronCompressionStats stats) {
+        long start = System.nanoTime();
+        Inflater inflater = new Inflater();
+        try {
+            byte[] input = Base64.getDecoder().decode(body.substring(MARKER.length()));
+            inflater.setInput(input);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(input.length * 3);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                int n = inflater.inflate(buffer);
+                if (n == 0 && inflater.needsDictionary()) {
+                    byte[] dictionary = settings.compressionDictionary();
+                    if (dictionary == null || adler32(dictionary) != inflater.getAdler()) {
+                        throw new IronException("Message body compressed with an unknown dictionary (adler32: " + Integer.toHexString(inflater.getAdler()) + ")");
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (n == 0 && inflater.needsInput()) {
+                    throw new IronException("Truncated compressed message body");
+                }
+                out.write(buffer, 0, n);
+            }
+            String inflated = new String(out.toByteArray(), StandardCharsets.UTF_8);
+            stats.onDecompressed(System.nanoTime() - start);
+            return inflated;
+        } catch (DataFormatException | IllegalArgumentException e) {
+            throw new IronException("Invalid compressed message body: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static int adler32(byte[] bytes) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(bytes, 0, bytes.length);
+        return (int) adler32.getValue();
+    }
+
+}
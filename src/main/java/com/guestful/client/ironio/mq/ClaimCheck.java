@@ -0,0 +1,89 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reference enqueued in place of a payload written to a {@link IronPayloadStore}: <code>@claim:&lt;key&gt;</code>.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class ClaimCheck {
+
+    private static final Logger LOGGER = Logger.getLogger(ClaimCheck.class.getName());
+
+    static final String MARKER = "@claim:";
+
+    private ClaimCheck() {
+    }
+
+    /**
+     * @param body String or UTF-8 byte[] body
+     * @return a reference to the stored body if it is big enough, otherwise the body itself
+     */
+    static Object offload(Object body, IronSettings settings) {
+        int threshold = settings.getClaimCheckThreshold();
+        if (threshold == 0) return body;
+        byte[] bytes = body instanceof byte[] ? (byte[]) body : ((String) body).getBytes(StandardCharsets.UTF_8);
+        if (bytes.length < threshold) return body;
+        IronPayloadStore store = settings.getPayloadStore();
+        if (store == null) {
+            throw new IronException("A payload store is required to send messages bigger than " + threshold + " bytes");
+        }
+        try {
+            return MARKER + store.put(bytes);
+        } catch (IOException e) {
+            throw new IronException("Unable to store payload of " + bytes.length + " bytes in " + store + ": " + e.getMessage(), e);
+        }
+    }
+
+    static boolean isReference(String body) {
+        return body != null && body.startsWith(MARKER);
+    }
+
+    static String resolve(String reference, IronSettings settings) {
+        IronPayloadStore store = settings.getPayloadStore();
+        if (store == null) {
+            throw new IronException("A payload store is required to read message body " + reference);
+        }
+        try {
+            return new String(store.get(reference.substring(MARKER.length())), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IronException("Unable to read payload " + reference + " from " + store + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Removes the stored payload. Failures are only logged: the message is already deleted, or was never enqueued.
+     */
+    static void release(String reference, IronSettings settings) {
+        IronPayloadStore store = settings.getPayloadStore();
+        if (store == null) {
+            LOGGER.warning("No payload store to remove payload " + reference);
+            return;
+        }
+        try {
+            store.remove(reference.substring(MARKER.length()));
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to remove payload " + reference + " from " + store + ": " + e.getMessage(), e);
+        }
+    }
+
+}
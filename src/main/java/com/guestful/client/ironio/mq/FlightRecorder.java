@@ -0,0 +1,251 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import jdk.jfr.Timespan;
+
+import javax.ws.rs.core.Response;
+
+/**
+ * JDK Flight Recorder events of the client: one per request, per retry and per poller phase.
+ * <p>
+ * Events are disabled by default, and requests and poller phases shorter than 20ms are not recorded once enabled,
+ * so that a recording started for something else does not capture every call.
+ * Events are only created when JFR is recording them: otherwise each call site costs a null check.
+ * The <code>jdk.jfr</code> classes are only loaded when the JVM has them (8u262+ or 11+), so the client still runs elsewhere, without events.
+ * Events are passed around as {@link Object} for the same reason.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class FlightRecorder {
+
+    static final String POLL = "poll";
+    static final String HANDLE = "handle";
+    static final String DELETE = "delete";
+
+    private static final boolean AVAILABLE = isAvailable();
+
+    private FlightRecorder() {
+    }
+
+    /**
+     * @return the started request event, or null if not recorded
+     */
+    static Object beginRequest() {
+        return AVAILABLE ? Events.beginRequest() : null;
+    }
+
+    /**
+     * Records a retry of a request and counts it in the request event
+     */
+    static void retry(Object request, String method, IronEndpoint endpoint, int retry, long sleepMillis) {
+        if (AVAILABLE) {
+            Events.retry(request, method, endpoint, retry, sleepMillis);
+        }
+    }
+
+    /**
+     * @param response null if the request failed with an error
+     */
+    static void endRequest(Object request, String method, IronEndpoint endpoint, Object message, Response response) {
+        if (request != null) {
+            Events.endRequest(request, method, endpoint, message, response);
+        }
+    }
+
+    /**
+     * @return the started poller event, or null if not recorded
+     */
+    static Object beginPhase() {
+        return AVAILABLE ? Events.beginPhase() : null;
+    }
+
+    /**
+     * @param phase {@link #POLL}, {@link #HANDLE} or {@link #DELETE}
+     * @param id    message id, null for polls
+     */
+    static void endPhase(Object event, IronQueue queue, String phase, int messages, String id) {
+        if (event != null) {
+            Events.endPhase(event, queue, phase, messages, id);
+        }
+    }
+
+    private static boolean isAvailable() {
+        try {
+            Class.forName("jdk.jfr.Event", false, FlightRecorder.class.getClassLoader());
+            return true;
+        } catch (ClassNotFoundException | LinkageError e) {
+            return false;
+        }
+    }
+
+    /**
+     * Only loaded when JFR is available
+     */
+    private static final class Events {
+
+        static Object beginRequest() {
+            RequestEvent event = new RequestEvent();
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.begin();
+            return event;
+        }
+
+        static void retry(Object request, String method, IronEndpoint endpoint, int retry, long sleepMillis) {
+            if (request != null) {
+                ((RequestEvent) request).retries = retry;
+            }
+            RetryEvent event = new RetryEvent();
+            if (event.shouldCommit()) {
+                event.method = method;
+                event.project = project(endpoint);
+                event.queue = endpoint.getQueueName();
+                event.path = endpoint.getTemplate();
+                event.retry = retry;
+                event.sleep = sleepMillis;
+                event.commit();
+            }
+        }
+
+        static void endRequest(Object request, String method, IronEndpoint endpoint, Object message, Response response) {
+            RequestEvent event = (RequestEvent) request;
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = method;
+                event.project = project(endpoint);
+                event.queue = endpoint.getQueueName();
+                event.path = endpoint.getTemplate();
+                event.status = response == null ? 0 : response.getStatus();
+                event.requestBytes = message instanceof MessagesBody ? ((MessagesBody) message).getPayloadBytes() : -1;
+                event.responseBytes = response == null ? -1 : response.getLength();
+                event.commit();
+            }
+        }
+
+        static Object beginPhase() {
+            PollerEvent event = new PollerEvent();
+            if (!event.isEnabled()) {
+                return null;
+            }
+            event.begin();
+            return event;
+        }
+
+        static void endPhase(Object e, IronQueue queue, String phase, int messages, String id) {
+            PollerEvent event = (PollerEvent) e;
+            event.end();
+            if (event.shouldCommit()) {
+                event.project = queue.getProject().getId();
+                event.queue = queue.getName();
+                event.phase = phase;
+                event.messages = messages;
+                event.messageId = id;
+                event.commit();
+            }
+        }
+
+        private static String project(IronEndpoint endpoint) {
+            // projects/{id}/...
+            String[] segments = endpoint.getSegments();
+            return segments.length > 1 ? segments[1] : null;
+        }
+    }
+
+    @Name("com.guestful.ironmq.Request")
+    @Label("IronMQ Request")
+    @Description("Request to IronMQ, retries included")
+    @Category("IronMQ")
+    @StackTrace(false)
+    @Enabled(false)
+    @Threshold("20 ms")
+    static final class RequestEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Project")
+        String project;
+        @Label("Queue")
+        String queue;
+        @Label("Endpoint")
+        String path;
+        @Label("Status")
+        @Description("HTTP status of the last attempt, 0 if it failed with an error")
+        int status;
+        @Label("Retries")
+        int retries;
+        @Label("Request Bytes")
+        @Description("UTF-8 size of the offered message bodies, -1 for other requests")
+        @DataAmount
+        long requestBytes;
+        @Label("Response Bytes")
+        @Description("Content-Length of the response, -1 if unknown")
+        @DataAmount
+        long responseBytes;
+    }
+
+    @Name("com.guestful.ironmq.Retry")
+    @Label("IronMQ Retry")
+    @Description("Retry of a failed request, after a backoff sleep")
+    @Category("IronMQ")
+    @StackTrace(false)
+    @Enabled(false)
+    static final class RetryEvent extends Event {
+        @Label("Method")
+        String method;
+        @Label("Project")
+        String project;
+        @Label("Queue")
+        String queue;
+        @Label("Endpoint")
+        String path;
+        @Label("Retry")
+        int retry;
+        @Label("Sleep")
+        @Timespan(Timespan.MILLISECONDS)
+        long sleep;
+    }
+
+    @Name("com.guestful.ironmq.Poller")
+    @Label("IronMQ Poller")
+    @Description("Phase of a poller loop: poll, handle or delete")
+    @Category("IronMQ")
+    @StackTrace(false)
+    @Enabled(false)
+    @Threshold("20 ms")
+    static final class PollerEvent extends Event {
+        @Label("Project")
+        String project;
+        @Label("Queue")
+        String queue;
+        @Label("Phase")
+        String phase;
+        @Label("Messages")
+        int messages;
+        @Label("Message Id")
+        String messageId;
+    }
+
+}
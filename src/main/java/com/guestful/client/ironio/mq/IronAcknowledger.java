@@ -0,0 +1,216 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Collects consumed messages per queue and deletes them with one bulk request
+ * when a batch is full or when its oldest message has waited for the linger time.
+ * <p>
+ * Messages are only flagged as deleted once their batch has been flushed successfully.
+ * If a flush fails, each message of the batch is reported to the error handler and will
+ * become visible again on its queue when its reservation expires.
+ * <p>
+ * Batches are deleted with {@link IronQueue#deleteMessagesAsync(Collection)}: the scheduler only runs the linger timers
+ * and never waits for IronMQ.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronAcknowledger implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(IronAcknowledger.class.getName());
+
+    private final ScheduledExecutorService scheduler;
+    private final int maxBatch;
+    private final long lingerMs;
+    private final BiConsumer<IronMessage, RuntimeException> onError;
+    private final Map<String, Batch> batches = new ConcurrentHashMap<>();
+    private final Set<CompletableFuture<Void>> flushing = ConcurrentHashMap.newKeySet();
+    private final Map<IronMessage, IronLeaseManager.Lease> leases = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    public IronAcknowledger(ScheduledExecutorService scheduler, int maxBatch, long linger, TimeUnit unit, BiConsumer<IronMessage, RuntimeException> onError) {
+        if (maxBatch < IronSettings.MIN_BATCH || maxBatch > IronSettings.MAX_BATCH) throw new IllegalArgumentException();
+        this.scheduler = scheduler;
+        this.maxBatch = maxBatch;
+        this.lingerMs = unit.toMillis(linger);
+        this.onError = onError;
+    }
+
+    public void acknowledge(IronMessage message) {
+        acknowledge(message, null);
+    }
+
+    /**
+     * @param lease lease of the message, closed once its deletion is done or has failed: the reservation is kept until then
+     */
+    public void acknowledge(IronMessage message, IronLeaseManager.Lease lease) {
+        if (message.isDeleted()) {
+            if (lease != null) {
+                lease.close();
+            }
+            return;
+        }
+        if (closed) {
+            // no more batching: delete right away
+            try {
+                message.delete();
+            } catch (RuntimeException e) {
+                onError.accept(message, e);
+            } finally {
+                if (lease != null) {
+                    lease.close();
+                }
+            }
+            return;
+        }
+        if (lease != null) {
+            leases.put(message, lease);
+        }
+        IronQueue queue = message.getQueue();
+        Batch batch = batches.computeIfAbsent(queue.getProject().getId() + "/" + queue.getName(), key -> new Batch(queue));
+        List<IronMessage> full = null;
+        boolean first;
+        synchronized (batch) {
+            first = batch.messages.isEmpty();
+            batch.messages.add(message);
+            if (batch.messages.size() >= maxBatch) {
+                full = batch.drain();
+            }
+        }
+        if (full != null) {
+            flushAsync(queue, full);
+        } else if (first) {
+            scheduler.schedule(() -> flushAsync(batch), lingerMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Deletes all pending messages now, on the calling thread.
+     */
+    public void flush() {
+        for (Batch batch : batches.values()) {
+            List<IronMessage> messages;
+            synchronized (batch) {
+                messages = batch.drain();
+            }
+            if (messages.isEmpty()) continue;
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("Removing " + messages.size() + " messages from queue " + batch.queue.getName());
+            }
+            try {
+                batch.queue.deleteMessages(messages);
+            } catch (RuntimeException e) {
+                failed(batch.queue, messages, e);
+            } finally {
+                closeLeases(messages);
+            }
+        }
+    }
+
+    /**
+     * Flushes pending messages and waits for the flushes in progress. Messages acknowledged afterwards are deleted one by one.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        flush();
+        for (CompletableFuture<Void> f : flushing) {
+            f.join();
+        }
+    }
+
+    private void flushAsync(Batch batch) {
+        List<IronMessage> messages;
+        synchronized (batch) {
+            messages = batch.drain();
+        }
+        flushAsync(batch.queue, messages);
+    }
+
+    private void flushAsync(IronQueue queue, List<IronMessage> messages) {
+        if (messages.isEmpty()) return;
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("Removing " + messages.size() + " messages from queue " + queue.getName());
+        }
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        flushing.add(done);
+        CompletionStage<Void> delete;
+        try {
+            delete = queue.deleteMessagesAsync(messages);
+        } catch (RuntimeException e) {
+            CompletableFuture<Void> f = new CompletableFuture<>();
+            f.completeExceptionally(e);
+            delete = f;
+        }
+        delete.whenComplete((v, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                failed(queue, messages, cause instanceof RuntimeException ? (RuntimeException) cause : new IronException(cause.getMessage(), cause));
+            }
+            closeLeases(messages);
+            flushing.remove(done);
+            done.complete(null);
+        });
+    }
+
+    private void closeLeases(List<IronMessage> messages) {
+        if (leases.isEmpty()) return;
+        for (IronMessage message : messages) {
+            IronLeaseManager.Lease lease = leases.remove(message);
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private void failed(IronQueue queue, List<IronMessage> messages, RuntimeException e) {
+        LOGGER.log(Level.WARNING, "Unable to acknowledge " + messages.size() + " messages from queue " + queue.getName() + " from project " + queue.getProject().getId() + ": " + e.getMessage(), e);
+        for (IronMessage message : messages) {
+            onError.accept(message, e);
+        }
+    }
+
+    private final class Batch {
+        final IronQueue queue;
+        List<IronMessage> messages = new ArrayList<>(maxBatch);
+
+        Batch(IronQueue queue) {
+            this.queue = queue;
+        }
+
+        List<IronMessage> drain() {
+            List<IronMessage> drained = messages;
+            messages = new ArrayList<>(maxBatch);
+            return drained;
+        }
+    }
+
+}
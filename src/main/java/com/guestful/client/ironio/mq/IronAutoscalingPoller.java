@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs between a minimum and a maximum number of pollers on a queue, adjusting their count to the load.
+ * <p>
+ * Every {@link IronSettings#getAutoscaleInterval()} seconds, the queue size, the average handling time and
+ * the idle ratio of the pollers (time not spent handling messages) are sampled. A sample votes to scale up when
+ * the backlog cannot be handled within one interval by the current pollers, and to scale down when the queue is
+ * empty and the pollers are mostly idle. Only {@link IronSettings#getAutoscaleHysteresis()} consecutive votes in
+ * the same direction change the poller count: doubled when scaling up, decremented when scaling down.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronAutoscalingPoller implements IronPoller {
+
+    private static final Logger LOGGER = Logger.getLogger(IronAutoscalingPoller.class.getName());
+
+    private static final double BUSY_RATIO = 0.8;
+    private static final double IDLE_RATIO = 0.8;
+
+    private final IronQueue queue;
+    private final Executor executor;
+    private final int minPollers;
+    private final int maxPollers;
+    private final Consumer<IronMessage> consumer;
+    private final BiConsumer<IronMessage, RuntimeException> onError;
+    private final IronSettings settings;
+    private final Deque<IronPoller> pollers = new ArrayDeque<>();
+    // scaled down or stopped, with handlers maybe still running
+    private final List<IronPoller> retired = new ArrayList<>();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong handled = new AtomicLong();
+    private final ScheduledFuture<?> sampler;
+    private long lastSample = System.nanoTime();
+    private int votes;
+    private volatile double idleRatio = 1;
+    private volatile long avgHandlingNanos;
+    private volatile long lastSize;
+    private boolean stopped;
+
+    IronAutoscalingPoller(IronQueue queue, Executor executor, int minPollers, int maxPollers, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        if (minPollers < 1 || maxPollers < minPollers) throw new IllegalArgumentException();
+        this.queue = queue;
+        this.executor = executor;
+        this.minPollers = minPollers;
+        this.maxPollers = maxPollers;
+        this.consumer = consumer;
+        this.onError = onError;
+        this.settings = settings.snapshot();
+        synchronized (this) {
+            resize(minPollers);
+        }
+        this.sampler = queue.getProject().getClient().getScheduler().scheduleWithFixedDelay(this::sample, settings.getAutoscaleInterval(), settings.getAutoscaleInterval(), TimeUnit.SECONDS);
+    }
+
+    @Override
+    public IronQueue getQueue() {
+        return queue;
+    }
+
+    @Override
+    public void stop() {
+        stopAccepting();
+    }
+
+    @Override
+    public void stopAccepting() {
+        sampler.cancel(false);
+        synchronized (this) {
+            stopped = true;
+            resize(0);
+        }
+    }
+
+    /**
+     * Drains all the pollers, including the ones scaled down earlier and still handling messages
+     */
+    @Override
+    public CompletableFuture<Boolean> drain(Duration timeout) {
+        stopAccepting();
+        List<CompletableFuture<Boolean>> drains = new ArrayList<>();
+        synchronized (this) {
+            for (IronPoller poller : retired) {
+                drains.add(poller.drain(timeout));
+            }
+        }
+        return CompletableFuture.allOf(drains.toArray(new CompletableFuture<?>[0]))
+            .thenApply(v -> drains.stream().allMatch(CompletableFuture::join));
+    }
+
+    @Override
+    public synchronized IronPollerState getState() {
+        if (!stopped) {
+            return IronPollerState.RUNNING;
+        }
+        for (IronPoller poller : retired) {
+            if (poller.getState() != IronPollerState.STOPPED) {
+                return IronPollerState.DRAINING;
+            }
+        }
+        return IronPollerState.STOPPED;
+    }
+
+    @Override
+    public synchronized int getInFlight() {
+        int n = 0;
+        for (IronPoller poller : pollers) {
+            n += poller.getInFlight();
+        }
+        return n;
+    }
+
+    public synchronized int getActivePollers() {
+        return pollers.size();
+    }
+
+    /**
+     * Ratio of time the pollers did not spend handling messages during the last interval, between 0 and 1
+     */
+    public double getIdleRatio() {
+        return idleRatio;
+    }
+
+    /**
+     * Average handling time of a message during the last interval, in nanoseconds
+     */
+    public long getAverageHandlingTime() {
+        return avgHandlingNanos;
+    }
+
+    /**
+     * Queue size at the last sample
+     */
+    public long getLastQueueSize() {
+        return lastSize;
+    }
+
+    private void sample() {
+        queue.getSizeAsync().whenComplete((size, e) -> {
+            if (e != null) {
+                LOGGER.log(Level.WARNING, "Unable to sample size of queue " + queue.getName() + ": " + e.getMessage(), e);
+                return;
+            }
+            try {
+                scale(size);
+            } catch (RuntimeException re) {
+                LOGGER.log(Level.SEVERE, "Unable to scale pollers of queue " + queue.getName() + ": " + re.getMessage(), re);
+            }
+        });
+    }
+
+    private synchronized void scale(long size) {
+        if (stopped) return;
+        long now = System.nanoTime();
+        long interval = Math.max(1, now - lastSample);
+        lastSample = now;
+        long busy = busyNanos.getAndSet(0);
+        long count = handled.getAndSet(0);
+        int active = pollers.size();
+        idleRatio = Math.max(0, 1 - (double) busy / (interval * active));
+        avgHandlingNanos = count == 0 ? avgHandlingNanos : busy / count;
+        lastSize = size;
+
+        // time the current pollers need to handle the backlog
+        double drainNanos = avgHandlingNanos == 0 ? (size > 0 ? Double.MAX_VALUE : 0) : (double) size * avgHandlingNanos / active;
+        boolean up = size > 0 && (drainNanos > interval || 1 - idleRatio >= BUSY_RATIO);
+        boolean down = size == 0 && idleRatio >= IDLE_RATIO;
+        if (up) {
+            votes = Math.max(1, votes + 1);
+        } else if (down) {
+            votes = Math.min(-1, votes - 1);
+        } else {
+            votes = 0;
+        }
+        if (votes >= settings.getAutoscaleHysteresis() && active < maxPollers) {
+            resize(Math.min(maxPollers, active * 2));
+            votes = 0;
+        } else if (-votes >= settings.getAutoscaleHysteresis() && active > minPollers) {
+            resize(active - 1);
+            votes = 0;
+        }
+    }
+
+    // must hold lock
+    private void resize(int target) {
+        if (target != pollers.size() && LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.fine("Scaling pollers of queue " + queue.getName() + " from " + pollers.size() + " to " + target);
+        }
+        while (pollers.size() < target) {
+            pollers.push(queue.asyncPoll(executor, this::handle, onError, settings));
+        }
+        retired.removeIf(poller -> poller.getState() == IronPollerState.STOPPED);
+        while (pollers.size() > target) {
+            IronPoller poller = pollers.pop();
+            poller.stopAccepting();
+            retired.add(poller);
+        }
+    }
+
+    private void handle(IronMessage message) {
+        long start = System.nanoTime();
+        try {
+            consumer.accept(message);
+        } finally {
+            busyNanos.addAndGet(System.nanoTime() - start);
+            handled.incrementAndGet();
+        }
+    }
+
+}
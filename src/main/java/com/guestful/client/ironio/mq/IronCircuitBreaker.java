@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Circuit breaker of one IronMQ endpoint, such as <code>GET projects/{project}/queues/{queue}/messages</code>.
+ * <p>
+ * While <b>closed</b>, outcomes of the last calls are kept in a sliding window. The circuit <b>opens</b> when the window
+ * holds enough calls and their failure rate or slow call rate reaches its threshold: calls then fail fast with an
+ * {@link IronCircuitOpenException}. After the open duration, the circuit becomes <b>half-open</b> and lets a few trial
+ * calls through: it closes if they all succeed and opens again at the first failure.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronCircuitBreaker {
+
+    private static final Logger LOGGER = Logger.getLogger(IronCircuitBreaker.class.getName());
+
+    private static final byte FAILED = 1;
+    private static final byte SLOW = 2;
+
+    public enum State {
+        CLOSED,
+        OPEN,
+        HALF_OPEN,
+    }
+
+    @FunctionalInterface
+    public interface Listener {
+        void onStateChange(IronCircuitBreaker breaker, State from, State to);
+    }
+
+    private final String endpoint;
+    private final IronCircuitBreakerSettings settings;
+    private final Listener listener;
+    private final byte[] window;
+    private int position;
+    private int calls;
+    private int failures;
+    private int slowCalls;
+    private State state = State.CLOSED;
+    private long openedAt;
+    private int trialPermits;
+    private int trialSuccesses;
+
+    IronCircuitBreaker(String endpoint, IronCircuitBreakerSettings settings, Listener listener) {
+        this.endpoint = endpoint;
+        this.settings = settings;
+        this.listener = listener;
+        this.window = new byte[settings.getWindowSize()];
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * Failure rate of the calls in the window, between 0 and 1
+     */
+    public synchronized float getFailureRate() {
+        return calls == 0 ? 0 : (float) failures / calls;
+    }
+
+    public synchronized float getSlowCallRate() {
+        return calls == 0 ? 0 : (float) slowCalls / calls;
+    }
+
+    @Override
+    public String toString() {
+        return getEndpoint() + " " + getState();
+    }
+
+    /**
+     * @throws IronCircuitOpenException if the call is not permitted
+     */
+    void acquire() {
+        State from;
+        State to;
+        synchronized (this) {
+            from = state;
+            if (state == State.OPEN) {
+                long remaining = TimeUnit.MILLISECONDS.toNanos(settings.getOpenDuration()) - (System.nanoTime() - openedAt);
+                if (remaining > 0) {
+                    throw new IronCircuitOpenException(endpoint, TimeUnit.NANOSECONDS.toMillis(remaining) + 1);
+                }
+                state = State.HALF_OPEN;
+                trialPermits = settings.getHalfOpenCalls();
+                trialSuccesses = 0;
+            }
+            if (state == State.HALF_OPEN) {
+                if (trialPermits == 0) {
+                    throw new IronCircuitOpenException(endpoint);
+                }
+                trialPermits--;
+            }
+            to = state;
+        }
+        notify(from, to);
+    }
+
+    /**
+     * @param failed true for an error, a 5xx or a 429 response
+     * @param nanos  duration of the call, without the long poll wait
+     */
+    void record(boolean failed, long nanos) {
+        State from;
+        State to;
+        synchronized (this) {
+            from = state;
+            boolean slow = nanos > TimeUnit.MILLISECONDS.toNanos(settings.getSlowCallDuration());
+            switch (state) {
+                case HALF_OPEN:
+                    if (failed || slow) {
+                        open();
+                    } else if (++trialSuccesses >= settings.getHalfOpenCalls()) {
+                        state = State.CLOSED;
+                        reset();
+                    }
+                    break;
+                case CLOSED:
+                    add((byte) ((failed ? FAILED : 0) | (slow ? SLOW : 0)));
+                    if (calls >= settings.getMinimumCalls()
+                        && ((float) failures / calls >= settings.getFailureRateThreshold() || (float) slowCalls / calls >= settings.getSlowCallRateThreshold())) {
+                        open();
+                    }
+                    break;
+                default:
+                    // calls started before the circuit opened
+                    break;
+            }
+            to = state;
+        }
+        notify(from, to);
+    }
+
+    // must hold lock
+    private void add(byte outcome) {
+        if (calls == window.length) {
+            byte evicted = window[position];
+            if ((evicted & FAILED) != 0) failures--;
+            if ((evicted & SLOW) != 0) slowCalls--;
+        } else {
+            calls++;
+        }
+        window[position] = outcome;
+        if ((outcome & FAILED) != 0) failures++;
+        if ((outcome & SLOW) != 0) slowCalls++;
+        position = (position + 1) % window.length;
+    }
+
+    // must hold lock
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        reset();
+    }
+
+    // must hold lock
+    private void reset() {
+        position = 0;
+        calls = 0;
+        failures = 0;
+        slowCalls = 0;
+    }
+
+    private void notify(State from, State to) {
+        if (from == to) return;
+        LOGGER.info("Circuit " + endpoint + ": " + from + " -> " + to);
+        if (listener != null) {
+            try {
+                listener.onStateChange(this, from, to);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Circuit breaker listener error: " + e.getMessage(), e);
+            }
+        }
+    }
+
+}
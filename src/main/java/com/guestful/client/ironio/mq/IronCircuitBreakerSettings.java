@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronCircuitBreakerSettings {
+
+    public static final int MIN_WINDOW = 1;
+    public static final int MAX_WINDOW = 10_000;
+    public static final int DEF_WINDOW = 20;
+    public static final int DEF_MIN_CALLS = 10;
+
+    public static final float DEF_FAILURE_RATE = 0.5f;
+    public static final float DEF_SLOW_CALL_RATE = 1.0f;
+    public static final long DEF_SLOW_CALL_DURATION = 10_000;
+
+    public static final long DEF_OPEN_DURATION = 30_000;
+    public static final int DEF_HALF_OPEN_CALLS = 3;
+
+    private int windowSize = DEF_WINDOW;
+    private int minimumCalls = DEF_MIN_CALLS;
+    private float failureRateThreshold = DEF_FAILURE_RATE;
+    private float slowCallRateThreshold = DEF_SLOW_CALL_RATE;
+    private long slowCallDuration = DEF_SLOW_CALL_DURATION;
+    private long openDuration = DEF_OPEN_DURATION;
+    private int halfOpenCalls = DEF_HALF_OPEN_CALLS;
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    /**
+     * Number of last calls considered to compute the failure and slow call rates. Default is 20.
+     */
+    public IronCircuitBreakerSettings setWindowSize(int windowSize) {
+        if (windowSize < MIN_WINDOW || windowSize > MAX_WINDOW) throw new IllegalArgumentException();
+        this.windowSize = windowSize;
+        return this;
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    /**
+     * Number of calls the window must contain before the circuit can open. Default is 10.
+     */
+    public IronCircuitBreakerSettings setMinimumCalls(int minimumCalls) {
+        if (minimumCalls < 1) throw new IllegalArgumentException();
+        this.minimumCalls = minimumCalls;
+        return this;
+    }
+
+    public float getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    /**
+     * Rate of errors, 5xx and 429 responses in the window (between 0 and 1) above which the circuit opens. Default is 0.5.
+     */
+    public IronCircuitBreakerSettings setFailureRateThreshold(float failureRateThreshold) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) throw new IllegalArgumentException();
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+    public float getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    /**
+     * Rate of slow calls in the window (between 0 and 1) above which the circuit opens. Default is 1 (all calls are slow).
+     */
+    public IronCircuitBreakerSettings setSlowCallRateThreshold(float slowCallRateThreshold) {
+        if (slowCallRateThreshold <= 0 || slowCallRateThreshold > 1) throw new IllegalArgumentException();
+        this.slowCallRateThreshold = slowCallRateThreshold;
+        return this;
+    }
+
+    /**
+     * In milliseconds
+     */
+    public long getSlowCallDuration() {
+        return slowCallDuration;
+    }
+
+    /**
+     * Duration above which a call is slow. The long poll wait of the call is not counted. Default is 10 seconds.
+     */
+    public IronCircuitBreakerSettings setSlowCallDuration(long duration, TimeUnit unit) {
+        long t = unit.toMillis(duration);
+        if (t < 1) throw new IllegalArgumentException();
+        this.slowCallDuration = t;
+        return this;
+    }
+
+    /**
+     * In milliseconds
+     */
+    public long getOpenDuration() {
+        return openDuration;
+    }
+
+    /**
+     * Time during which calls fail fast before trial calls are let through. Default is 30 seconds.
+     */
+    public IronCircuitBreakerSettings setOpenDuration(long duration, TimeUnit unit) {
+        long t = unit.toMillis(duration);
+        if (t < 1) throw new IllegalArgumentException();
+        this.openDuration = t;
+        return this;
+    }
+
+    public int getHalfOpenCalls() {
+        return halfOpenCalls;
+    }
+
+    /**
+     * Number of trial calls which must succeed to close the circuit again. Default is 3.
+     */
+    public IronCircuitBreakerSettings setHalfOpenCalls(int halfOpenCalls) {
+        if (halfOpenCalls < 1) throw new IllegalArgumentException();
+        this.halfOpenCalls = halfOpenCalls;
+        return this;
+    }
+
+}
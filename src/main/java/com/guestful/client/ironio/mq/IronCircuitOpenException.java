@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronCircuitOpenException extends IronException {
+
+    private final String endpoint;
+    private final long retryAfter;
+
+    public IronCircuitOpenException(String endpoint) {
+        this(endpoint, 0);
+    }
+
+    public IronCircuitOpenException(String endpoint, long retryAfter) {
+        super("Circuit open for " + endpoint);
+        this.endpoint = endpoint;
+        this.retryAfter = retryAfter;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    /**
+     * Milliseconds before the circuit lets trial calls through, 0 if unknown
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
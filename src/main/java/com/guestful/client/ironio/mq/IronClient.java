@@ -16,10 +16,20 @@
 package com.guestful.client.ironio.mq;
 
 import javax.json.JsonObject;
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.client.*;
 import javax.ws.rs.core.MediaType;
-import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -33,6 +43,15 @@ public class IronClient {
     private final Client client;
     private final WebTarget target;
     private boolean enabled = true;
+    private volatile IronLoopback loopback;
+    private volatile ScheduledExecutorService scheduler;
+    private volatile IronLeaseManager leaseManager;
+    private volatile IronRetryBudget retryBudget = new IronRetryBudget();
+    private final Map<String, IronCircuitBreaker> circuitBreakers = new ConcurrentHashMap<>();
+    private volatile IronCircuitBreakerSettings circuitBreakerSettings;
+    private volatile IronCircuitBreaker.Listener circuitBreakerListener;
+    private final IronCompressionStats compressionStats = new IronCompressionStats();
+    private volatile IronMetrics metrics = new IronMetricsRegistry();
 
     public IronClient() {
         this(ClientBuilder.newClient());
@@ -43,6 +62,15 @@ public class IronClient {
         this.target = buildWebTarget();
     }
 
+    /**
+     * Client without network: all the requests are served by the given in-memory engine
+     */
+    public IronClient(IronLoopback loopback) {
+        this.client = null;
+        this.target = null;
+        this.loopback = loopback;
+    }
+
     public Client getClient() {
         return client;
     }
@@ -55,6 +83,113 @@ public class IronClient {
         this.enabled = enabled;
     }
 
+    public IronLoopback getLoopback() {
+        return loopback;
+    }
+
+    /**
+     * Serves the requests with an in-memory engine instead of IronMQ. Set to null to use the network again,
+     * which requires a client built with a REST client.
+     * A disabled client ({@link #setEnabled(boolean)}) ignores this engine.
+     */
+    public void setLoopback(IronLoopback loopback) {
+        this.loopback = loopback;
+    }
+
+    /**
+     * Scheduler shared by the background tasks of this client (acknowledgement linger, ...).
+     * A single daemon thread is created on first use unless one was provided with {@link #setScheduler(ScheduledExecutorService)}.
+     */
+    public ScheduledExecutorService getScheduler() {
+        ScheduledExecutorService s = scheduler;
+        if (s == null) {
+            synchronized (this) {
+                s = scheduler;
+                if (s == null) {
+                    scheduler = s = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread t = new Thread(r, "iron-mq-scheduler");
+                        t.setDaemon(true);
+                        return t;
+                    });
+                }
+            }
+        }
+        return s;
+    }
+
+    public void setScheduler(ScheduledExecutorService scheduler) {
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Lease manager renewing the reservations of the messages handled by the pollers of this client. Created on first use.
+     */
+    public IronLeaseManager getLeaseManager() {
+        IronLeaseManager m = leaseManager;
+        if (m == null) {
+            synchronized (this) {
+                m = leaseManager;
+                if (m == null) {
+                    leaseManager = m = new IronLeaseManager(getScheduler());
+                }
+            }
+        }
+        return m;
+    }
+
+    public IronRetryBudget getRetryBudget() {
+        return retryBudget;
+    }
+
+    /**
+     * Budget shared by all the requests of this client to limit retries during an outage
+     */
+    public void setRetryBudget(IronRetryBudget retryBudget) {
+        this.retryBudget = retryBudget;
+    }
+
+    public IronCircuitBreakerSettings getCircuitBreakerSettings() {
+        return circuitBreakerSettings;
+    }
+
+    /**
+     * Settings of the circuit breakers created from now on, one per endpoint, i.e. <code>new IronCircuitBreakerSettings()</code>.
+     * Null by default: circuit breaking is disabled.
+     */
+    public void setCircuitBreakerSettings(IronCircuitBreakerSettings circuitBreakerSettings) {
+        this.circuitBreakerSettings = circuitBreakerSettings;
+        this.circuitBreakers.clear();
+    }
+
+    /**
+     * Listener notified when a circuit opens, becomes half-open or closes.
+     */
+    public void setCircuitBreakerListener(IronCircuitBreaker.Listener circuitBreakerListener) {
+        this.circuitBreakerListener = circuitBreakerListener;
+    }
+
+    public Collection<IronCircuitBreaker> getCircuitBreakers() {
+        return Collections.unmodifiableCollection(circuitBreakers.values());
+    }
+
+    public IronCompressionStats getCompressionStats() {
+        return compressionStats;
+    }
+
+    /**
+     * Measurements of this client: an {@link IronMetricsRegistry} unless replaced with {@link #setMetrics(IronMetrics)}
+     */
+    public IronMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sends the measurements of this client to another implementation, or nowhere when null
+     */
+    public void setMetrics(IronMetrics metrics) {
+        this.metrics = metrics == null ? IronMetrics.NONE : metrics;
+    }
+
     public IronProject getProject(String projectId, String token) {
         return new IronProject(this, projectId, token);
     }
@@ -63,37 +198,230 @@ public class IronClient {
         return getClient().target("http://mq-aws-us-east-1.iron.io/1");
     }
 
-    Response request(IronSettings settings, String method, String path, MultivaluedMap<String, Object> query) {
-        return request(settings, method, path, null, query);
+    WebTarget getTarget() {
+        return target;
     }
 
-    Response request(IronSettings settings, String method, String path, JsonObject message, MultivaluedMap<String, Object> query) {
+    /**
+     * @param message null, a {@link JsonObject} or a {@link javax.ws.rs.core.StreamingOutput} writing JSON
+     */
+    Response request(IronSettings settings, String method, IronEndpoint endpoint, Object message) {
         if (!isEnabled()) {
             if (LOGGER.isLoggable(Level.FINEST)) {
-                LOGGER.finest(method + " " + path + (message == null ? "" : " : " + message));
+                LOGGER.finest(method + " " + endpoint + (message == null ? "" : " : " + message));
             }
             return Response.ok().build();
         }
-        WebTarget webTarget = target.path(path);
-        for (String param : query.keySet()) {
-            webTarget = webTarget.queryParam(param, query.getFirst(param));
+        IronMetrics m = metrics;
+        IronOperation operation = endpoint.getOperation(method);
+        String queue = endpoint.getQueueName();
+        if (message instanceof MessagesBody) {
+            m.onBatch(operation, queue, ((MessagesBody) message).size());
+        }
+        Object event = FlightRecorder.beginRequest();
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = send(settings, method, endpoint, message, (retry, sleep) -> {
+                m.onRetry(operation, queue, TimeUnit.MILLISECONDS.toNanos(sleep));
+                FlightRecorder.retry(event, method, endpoint, retry, sleep);
+            });
+        } catch (RuntimeException e) {
+            m.onRequest(operation, queue, System.nanoTime() - start, true);
+            FlightRecorder.endRequest(event, method, endpoint, message, null);
+            throw e;
+        }
+        m.onRequest(operation, queue, System.nanoTime() - start, !isSuccess(response));
+        FlightRecorder.endRequest(event, method, endpoint, message, response);
+        return response;
+    }
+
+    private Response send(IronSettings settings, String method, IronEndpoint endpoint, Object message, BackoffResponse.Listener onRetry) {
+        IronLoopback lb = loopback;
+        if (lb != null) {
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("loopback " + method + " " + endpoint + (message == null ? "" : ": " + message));
+            }
+            return lb.handle(method, endpoint, message).join();
         }
-        Invocation.Builder builder = webTarget.request(MediaType.APPLICATION_JSON_TYPE);
+        Invocation.Builder builder = builder(method, endpoint, message);
+        IronCircuitBreaker breaker = getCircuitBreaker(method, endpoint);
+        long wait = pollWait(method, endpoint);
         if (message == null) {
-            return new BackoffResponse(settings, () -> {
+            return new BackoffResponse(settings, getRetryBudget(), onRetry, () -> guard(breaker, wait, () -> {
                 if (LOGGER.isLoggable(Level.FINEST)) {
-                    LOGGER.finest(method + " " + path);
+                    LOGGER.finest(method + " " + endpoint);
                 }
                 return builder.method(method);
-            }).get();
+            })).get();
         } else {
-            return new BackoffResponse(settings, () -> {
+            return new BackoffResponse(settings, getRetryBudget(), onRetry, () -> guard(breaker, wait, () -> {
                 if (LOGGER.isLoggable(Level.FINEST)) {
-                    LOGGER.finest(method + " " + path + ": " + message);
+                    LOGGER.finest(method + " " + endpoint + ": " + message);
                 }
-                return builder.method(method, Entity.json(message));
-            }).get();
+                return builder.method(method, Entity.entity(message, MediaType.APPLICATION_JSON_TYPE));
+            })).get();
+        }
+    }
+
+    /**
+     * Same as {@link #request(IronSettings, String, IronEndpoint, Object)} but does not block:
+     * the call goes through the JAX-RS {@link AsyncInvoker} and retries are scheduled on {@link #getScheduler()}.
+     */
+    CompletionStage<Response> requestAsync(IronSettings settings, String method, IronEndpoint endpoint, Object message) {
+        if (!isEnabled()) {
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest(method + " " + endpoint + (message == null ? "" : " : " + message));
+            }
+            return CompletableFuture.completedFuture(Response.ok().build());
+        }
+        IronMetrics m = metrics;
+        IronOperation operation = endpoint.getOperation(method);
+        String queue = endpoint.getQueueName();
+        if (message instanceof MessagesBody) {
+            m.onBatch(operation, queue, ((MessagesBody) message).size());
+        }
+        Object event = FlightRecorder.beginRequest();
+        long start = System.nanoTime();
+        CompletionStage<Response> stage;
+        try {
+            stage = sendAsync(settings, method, endpoint, message, (retry, sleep) -> {
+                m.onRetry(operation, queue, TimeUnit.MILLISECONDS.toNanos(sleep));
+                FlightRecorder.retry(event, method, endpoint, retry, sleep);
+            });
+        } catch (RuntimeException e) {
+            m.onRequest(operation, queue, System.nanoTime() - start, true);
+            FlightRecorder.endRequest(event, method, endpoint, message, null);
+            throw e;
+        }
+        return stage.whenComplete((response, e) -> {
+            m.onRequest(operation, queue, System.nanoTime() - start, e != null || !isSuccess(response));
+            FlightRecorder.endRequest(event, method, endpoint, message, response);
+        });
+    }
+
+    private CompletionStage<Response> sendAsync(IronSettings settings, String method, IronEndpoint endpoint, Object message, BackoffResponse.Listener onRetry) {
+        IronLoopback lb = loopback;
+        if (lb != null) {
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("loopback " + method + " " + endpoint + (message == null ? "" : ": " + message));
+            }
+            return lb.handle(method, endpoint, message);
+        }
+        Invocation.Builder builder = builder(method, endpoint, message);
+        IronCircuitBreaker breaker = getCircuitBreaker(method, endpoint);
+        long wait = pollWait(method, endpoint);
+        return BackoffResponse.async(settings, getRetryBudget(), onRetry, getScheduler(), () -> {
+            if (breaker != null) {
+                breaker.acquire();
+            }
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest(method + " " + endpoint + (message == null ? "" : ": " + message));
+            }
+            long start = System.nanoTime();
+            CompletableFuture<Response> future = new CompletableFuture<>();
+            InvocationCallback<Response> callback = new InvocationCallback<Response>() {
+                @Override
+                public void completed(Response response) {
+                    if (breaker != null) {
+                        breaker.record(isFailure(response), elapsed(wait, start));
+                    }
+                    future.complete(response);
+                }
+
+                @Override
+                public void failed(Throwable throwable) {
+                    if (breaker != null) {
+                        breaker.record(true, elapsed(wait, start));
+                    }
+                    future.completeExceptionally(throwable);
+                }
+            };
+            try {
+                if (message == null) {
+                    builder.async().method(method, callback);
+                } else {
+                    builder.async().method(method, Entity.entity(message, MediaType.APPLICATION_JSON_TYPE), callback);
+                }
+            } catch (RuntimeException e) {
+                // the callback will not be called: give back the permit of a half-open circuit
+                if (breaker != null) {
+                    breaker.record(true, elapsed(wait, start));
+                }
+                throw e;
+            }
+            return future;
+        });
+    }
+
+    private static Response guard(IronCircuitBreaker breaker, long wait, Supplier<Response> call) {
+        if (breaker == null) {
+            return call.get();
+        }
+        breaker.acquire();
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = call.get();
+        } catch (RuntimeException e) {
+            breaker.record(true, elapsed(wait, start));
+            throw e;
+        }
+        breaker.record(isFailure(response), elapsed(wait, start));
+        return response;
+    }
+
+    private static boolean isSuccess(Response response) {
+        return response.getStatusInfo().getFamily() == Response.Status.Family.SUCCESSFUL;
+    }
+
+    private static boolean isFailure(Response response) {
+        return response.getStatusInfo().getFamily() == Response.Status.Family.SERVER_ERROR || response.getStatus() == 429;
+    }
+
+    /**
+     * Duration of a call without the time it may legitimately wait for messages
+     *
+     * @param wait see {@link #pollWait(String, IronEndpoint)}
+     */
+    private static long elapsed(long wait, long start) {
+        return Math.max(0, System.nanoTime() - start - wait);
+    }
+
+    /**
+     * @return the wait in nanoseconds of a long poll, or 0 for any other request
+     */
+    private static long pollWait(String method, IronEndpoint endpoint) {
+        if (!HttpMethod.GET.equals(method)) return 0;
+        Object wait = endpoint.getQuery("wait");
+        return wait == null ? 0 : TimeUnit.SECONDS.toNanos(Long.parseLong(String.valueOf(wait)));
+    }
+
+    private IronCircuitBreaker getCircuitBreaker(String method, IronEndpoint endpoint) {
+        IronCircuitBreakerSettings cbSettings = circuitBreakerSettings;
+        if (cbSettings == null) {
+            return null;
+        }
+        String key = endpoint.getKey(method);
+        IronCircuitBreaker breaker = circuitBreakers.get(key);
+        if (breaker != null) {
+            return breaker;
+        }
+        return circuitBreakers.computeIfAbsent(key, k -> new IronCircuitBreaker(k, cbSettings, (b, from, to) -> {
+            IronCircuitBreaker.Listener listener = circuitBreakerListener;
+            if (listener != null) {
+                listener.onStateChange(b, from, to);
+            }
+        }));
+    }
+
+    private static Invocation.Builder builder(String method, IronEndpoint endpoint, Object message) {
+        Invocation.Builder builder = endpoint.getTarget().request(MediaType.APPLICATION_JSON_TYPE);
+        if (message != null && HttpMethod.DELETE.equals(method)) {
+            // bulk deletes send their ids in the body, which Jersey refuses by default
+            builder.property("jersey.config.client.suppressHttpComplianceValidation", true);
         }
+        return builder;
     }
 
 }
@@ -36,7 +36,7 @@ public class IronClientException extends IronException {
         this.statusCode = response.getStatus();
     }
 
-    public IronClientException(Collection<JsonObject> messages, Response response) {
+    public IronClientException(Collection<?> messages, Response response) {
         super(extractMessage(messages, response));
         this.statusCode = response.getStatus();
     }
@@ -50,7 +50,7 @@ public class IronClientException extends IronException {
         return response.getStatus() + " " + response.getStatusInfo().getReasonPhrase() + (body == null ? "" : ": " + String.valueOf(body.getString("msg")));
     }
 
-    private static String extractMessage(Collection<JsonObject> messages, Response response) {
+    private static String extractMessage(Collection<?> messages, Response response) {
         JsonObject body = response.readEntity(JsonObject.class);
         return response.getStatus() + " " + response.getStatusInfo().getReasonPhrase() + (body == null ? "" : ": " + String.valueOf(body.getString("msg")) + " Messages: " + messages);
     }
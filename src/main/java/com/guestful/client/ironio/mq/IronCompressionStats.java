@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures the message body compression of a client: bytes saved and CPU time spent per message.
+ * See {@link IronSettings#setCompressionThreshold(int)}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronCompressionStats {
+
+    private final LongAdder compressed = new LongAdder();
+    private final LongAdder uncompressible = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder compressNanos = new LongAdder();
+    private final LongAdder decompressed = new LongAdder();
+    private final LongAdder decompressNanos = new LongAdder();
+
+    /**
+     * Number of bodies sent compressed
+     */
+    public long getCompressedMessages() {
+        return compressed.sum();
+    }
+
+    /**
+     * Number of bodies above the threshold sent as is because compression did not make them smaller
+     */
+    public long getUncompressibleMessages() {
+        return uncompressible.sum();
+    }
+
+    /**
+     * Size in bytes of the compressed bodies before compression
+     */
+    public long getBytesBeforeCompression() {
+        return bytesIn.sum();
+    }
+
+    /**
+     * Size in bytes of the compressed bodies as sent, envelope included
+     */
+    public long getBytesAfterCompression() {
+        return bytesOut.sum();
+    }
+
+    public long getBytesSaved() {
+        return getBytesBeforeCompression() - getBytesAfterCompression();
+    }
+
+    /**
+     * Average time spent compressing a body, uncompressible ones included
+     */
+    public long getAverageCompressionNanos() {
+        long count = compressed.sum() + uncompressible.sum();
+        return count == 0 ? 0 : compressNanos.sum() / count;
+    }
+
+    public long getDecompressedMessages() {
+        return decompressed.sum();
+    }
+
+    public long getAverageDecompressionNanos() {
+        long count = decompressed.sum();
+        return count == 0 ? 0 : decompressNanos.sum() / count;
+    }
+
+    @Override
+    public String toString() {
+        return "compressed=" + getCompressedMessages() + ", uncompressible=" + getUncompressibleMessages() + ", saved=" + getBytesSaved()
+            + "B, compression=" + getAverageCompressionNanos() + "ns, decompressed=" + getDecompressedMessages() + ", decompression=" + getAverageDecompressionNanos() + "ns";
+    }
+
+    void onCompressed(int before, int after, long nanos) {
+        compressed.increment();
+        bytesIn.add(before);
+        bytesOut.add(after);
+        compressNanos.add(nanos);
+    }
+
+    void onUncompressible(long nanos) {
+        uncompressible.increment();
+        compressNanos.add(nanos);
+    }
+
+    void onDecompressed(long nanos) {
+        decompressed.increment();
+        decompressNanos.add(nanos);
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.client.WebTarget;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Precomputed request target: the {@link WebTarget} with its path and query parameters already applied,
+ * the path used in logs, and the template identifying the endpoint for circuit breaking
+ * (queue names and message ids replaced, i.e. <code>projects/123/queues/{queue}/messages/{id}/touch</code>).
+ * <p>
+ * Projects, queues and messages build their endpoints once and reuse them for every call.
+ * The query parameters and path segments are also kept for the {@link IronLoopback} engine, which has no target,
+ * and the queue name and {@link IronOperation} for {@link IronMetrics}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class IronEndpoint {
+
+    private final WebTarget target;
+    private final String path;
+    private final String template;
+    private final Map<String, Object> query;
+    private final String queue;
+    private String[] segments;
+    private String getKey;
+    private String postKey;
+    private String deleteKey;
+    private IronOperation getOperation;
+    private IronOperation postOperation;
+    private IronOperation deleteOperation;
+
+    IronEndpoint(WebTarget target, String path, String template) {
+        this(target, path, template, Collections.emptyMap(), null);
+    }
+
+    private IronEndpoint(WebTarget target, String path, String template, Map<String, Object> query, String queue) {
+        this.target = target;
+        this.path = path;
+        this.template = template;
+        this.query = query;
+        this.queue = queue;
+    }
+
+    WebTarget getTarget() {
+        return target;
+    }
+
+    String getPath() {
+        return path;
+    }
+
+    String getTemplate() {
+        return template;
+    }
+
+    /**
+     * Path split on '/', i.e. <code>[projects, 123, queues, my%20queue, messages]</code>
+     */
+    String[] getSegments() {
+        // benign race: equal arrays
+        String[] s = segments;
+        if (s == null) {
+            segments = s = path.split("/");
+        }
+        return s;
+    }
+
+    /**
+     * Name of the queue targeted by this endpoint, or null for project-level endpoints
+     */
+    String getQueueName() {
+        return queue;
+    }
+
+    /**
+     * Query parameter added with {@link #query(String, Object)}, or null
+     */
+    Object getQuery(String name) {
+        return query.get(name);
+    }
+
+    /**
+     * Circuit breaker key of this endpoint for a method, i.e. <code>GET projects/123/queues/{queue}/messages</code>
+     */
+    String getKey(String method) {
+        // benign races: keys are equal strings
+        switch (method) {
+            case HttpMethod.GET:
+                if (getKey == null) getKey = method + ' ' + template;
+                return getKey;
+            case HttpMethod.POST:
+                if (postKey == null) postKey = method + ' ' + template;
+                return postKey;
+            case HttpMethod.DELETE:
+                if (deleteKey == null) deleteKey = method + ' ' + template;
+                return deleteKey;
+            default:
+                return method + ' ' + template;
+        }
+    }
+
+    IronOperation getOperation(String method) {
+        // benign races: same constants
+        switch (method) {
+            case HttpMethod.GET:
+                if (getOperation == null) getOperation = IronOperation.of(method, template);
+                return getOperation;
+            case HttpMethod.POST:
+                if (postOperation == null) postOperation = IronOperation.of(method, template);
+                return postOperation;
+            case HttpMethod.DELETE:
+                if (deleteOperation == null) deleteOperation = IronOperation.of(method, template);
+                return deleteOperation;
+            default:
+                return IronOperation.of(method, template);
+        }
+    }
+
+    IronEndpoint path(String segment) {
+        return path(segment, segment);
+    }
+
+    /**
+     * @param segment  path segment added to the target
+     * @param template how this segment appears in the endpoint template
+     */
+    IronEndpoint path(String segment, String template) {
+        return new IronEndpoint(target == null ? null : target.path(segment), path + '/' + segment, this.template + '/' + template, query, queue);
+    }
+
+    IronEndpoint query(String name, Object value) {
+        Map<String, Object> q = new LinkedHashMap<>(query);
+        q.put(name, value);
+        return new IronEndpoint(target == null ? null : target.queryParam(name, value), path, template, Collections.unmodifiableMap(q), queue);
+    }
+
+    /**
+     * @param name queue name, not encoded
+     */
+    IronEndpoint queue(String name) {
+        return new IronEndpoint(target, path, template, query, name);
+    }
+
+    @Override
+    public String toString() {
+        return path;
+    }
+
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+
+/**
+ * Stores payloads as files in a directory, which can be shared between hosts (NFS, ...).
+ * Files are written to a temporary file first and then moved, so readers never see partial payloads.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronFilesystemPayloadStore implements IronPayloadStore {
+
+    private static final String SUFFIX = ".payload";
+
+    private final Path directory;
+
+    public IronFilesystemPayloadStore(Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    @Override
+    public String put(byte[] payload) throws IOException {
+        String key = UUID.randomUUID().toString();
+        Path tmp = Files.createTempFile(directory, key, ".tmp");
+        try {
+            Files.write(tmp, payload);
+            Files.move(tmp, file(key), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+        return key;
+    }
+
+    @Override
+    public byte[] get(String key) throws IOException {
+        return Files.readAllBytes(file(key));
+    }
+
+    @Override
+    public void remove(String key) throws IOException {
+        Files.deleteIfExists(file(key));
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+
+    private Path file(String key) {
+        // keys are UUIDs: anything else could escape the directory
+        return directory.resolve(UUID.fromString(key) + SUFFIX);
+    }
+
+}
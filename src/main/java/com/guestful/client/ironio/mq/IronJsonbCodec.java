@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.bind.Jsonb;
+import javax.json.bind.JsonbBuilder;
+
+/**
+ * Codec binding message bodies to POJOs with JSON-B. Payloads are written and read directly, without building a JSON-P tree.
+ * <p>
+ * Requires a JSON-B implementation on the classpath: the <code>javax.json.bind-api</code> dependency is optional.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronJsonbCodec<T> implements IronMessageCodec<T> {
+
+    private final Jsonb jsonb;
+    private final Class<T> type;
+
+    public IronJsonbCodec(Class<T> type) {
+        this(JsonbBuilder.create(), type);
+    }
+
+    /**
+     * @param jsonb shared JSON-B instance: they are thread-safe and expensive to create
+     */
+    public IronJsonbCodec(Jsonb jsonb, Class<T> type) {
+        this.jsonb = jsonb;
+        this.type = type;
+    }
+
+    public Class<T> getType() {
+        return type;
+    }
+
+    @Override
+    public String encode(T payload) {
+        return jsonb.toJson(payload);
+    }
+
+    @Override
+    public T decode(String body) {
+        return jsonb.fromJson(body, type);
+    }
+
+    @Override
+    public String toString() {
+        return "jsonb:" + type.getName();
+    }
+
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the reservation of in-flight messages alive by touching them before they time out.
+ * <p>
+ * All tracked messages are checked by one periodic task on a shared scheduler. A message is touched
+ * when less than a third of its timeout remains, until its lease is closed or it has been renewed
+ * the maximum number of times given to {@link #track(IronMessage, int)}. Touches are sent with
+ * {@link IronMessage#touchAsync()} so the scheduler thread never waits for IronMQ.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronLeaseManager implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(IronLeaseManager.class.getName());
+
+    private final Map<IronMessage, Lease> leases = new ConcurrentHashMap<>();
+    private final AtomicLong renewals = new AtomicLong();
+    private final AtomicLong lateRenewals = new AtomicLong();
+    private final AtomicLong failedRenewals = new AtomicLong();
+    private final ScheduledFuture<?> sweeper;
+
+    public IronLeaseManager(ScheduledExecutorService scheduler) {
+        this(scheduler, 1, TimeUnit.SECONDS);
+    }
+
+    public IronLeaseManager(ScheduledExecutorService scheduler, long tick, TimeUnit unit) {
+        this.sweeper = scheduler.scheduleWithFixedDelay(this::sweep, tick, tick, unit);
+    }
+
+    /**
+     * Starts renewing the reservation of a message. Close the returned lease once the message is deleted, or when it will not be:
+     * closing it before the delete is done could let the reservation expire and the message be delivered twice.
+     */
+    public Lease track(IronMessage message, int maxRenewals) {
+        Lease lease = new Lease(message, maxRenewals);
+        leases.put(message, lease);
+        return lease;
+    }
+
+    /**
+     * Number of messages currently tracked
+     */
+    public int getInFlight() {
+        return leases.size();
+    }
+
+    /**
+     * Number of successful touches
+     */
+    public long getRenewals() {
+        return renewals.get();
+    }
+
+    /**
+     * Number of touches which completed after the reservation had already expired:
+     * the message may have been delivered to another consumer in the meantime.
+     */
+    public long getLateRenewals() {
+        return lateRenewals.get();
+    }
+
+    public long getFailedRenewals() {
+        return failedRenewals.get();
+    }
+
+    @Override
+    public void close() {
+        sweeper.cancel(false);
+        leases.clear();
+    }
+
+    private void sweep() {
+        long now = System.nanoTime();
+        for (Lease lease : leases.values()) {
+            try {
+                lease.renewIfNeeded(now);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unable to renew message " + lease.message.getId() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    public final class Lease implements AutoCloseable {
+
+        private final IronMessage message;
+        private final int maxRenewals;
+        private final long timeoutNanos;
+        private final AtomicBoolean touching = new AtomicBoolean();
+        private volatile long expiresAt;
+        private volatile int count;
+
+        private Lease(IronMessage message, int maxRenewals) {
+            this.message = message;
+            this.maxRenewals = maxRenewals;
+            this.timeoutNanos = TimeUnit.SECONDS.toNanos(message.getTimeout());
+            this.expiresAt = message.getReservedAt() + timeoutNanos;
+        }
+
+        public IronMessage getMessage() {
+            return message;
+        }
+
+        /**
+         * Number of times this lease has been renewed
+         */
+        public int getRenewals() {
+            return count;
+        }
+
+        /**
+         * Stops renewing the reservation
+         */
+        @Override
+        public void close() {
+            leases.remove(message, this);
+        }
+
+        private void renewIfNeeded(long now) {
+            if (message.isDeleted() || message.isReleased()) {
+                close();
+                return;
+            }
+            if (expiresAt - now > timeoutNanos / 3 || !touching.compareAndSet(false, true)) {
+                return;
+            }
+            if (count >= maxRenewals) {
+                LOGGER.warning("Message " + message.getId() + " from queue " + message.getQueue().getName() + " reached " + maxRenewals + " renewals: reservation will expire");
+                close();
+                return;
+            }
+            long deadline = expiresAt;
+            message.touchAsync().whenComplete((v, e) -> {
+                long done = System.nanoTime();
+                touching.set(false);
+                if (e != null) {
+                    failedRenewals.incrementAndGet();
+                    LOGGER.log(Level.WARNING, "Unable to touch message " + message.getId() + " from queue " + message.getQueue().getName() + ": " + e.getMessage(), e);
+                    close();
+                    return;
+                }
+                count++;
+                renewals.incrementAndGet();
+                if (done - deadline > 0) {
+                    lateRenewals.incrementAndGet();
+                }
+                expiresAt = done + timeoutNanos;
+            });
+        }
+    }
+
+}
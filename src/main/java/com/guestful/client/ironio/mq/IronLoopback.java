@@ -0,0 +1,630 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonArrayBuilder;
+import javax.json.JsonException;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonValue;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.ws.rs.HttpMethod;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * In-memory IronMQ v1 engine, used in place of the network by a client created with {@link IronClient#IronClient(IronLoopback)}
+ * or switched with {@link IronClient#setLoopback(IronLoopback)}: consumers and producers can be run and benchmarked in isolation.
+ * <p>
+ * Modelled semantics: queue creation on first post, FIFO delivery, reservations expiring after their timeout, touch, release with delay
+ * (both ignored if the message is not reserved),
+ * delayed messages, expiration, <code>n</code> messages per reservation, <code>wait</code> long polling, reserve-and-delete, bulk deletes,
+ * queue info and deletion. Push queues are stored but nothing is pushed. Expired messages are dropped when they are met,
+ * so they are counted in the queue size until then.
+ * <p>
+ * Queues are lock-free (concurrent maps and queues, one short monitor per message transition) and all the timeouts
+ * (reservations, delays, long polls) are driven by a single {@link TimingWheel}, so that millions of messages per second can flow.
+ * A long poll is answered from the thread of the timing wheel or of the post which ends it: the callbacks of the returned
+ * response then run on an executor, as they would run on the I/O threads of a real client, and never on these threads.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronLoopback implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(IronLoopback.class.getName());
+    private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+
+    public static final long DEF_TICK = 10;
+    public static final int DEF_WHEEL_SIZE = 512;
+
+    private final Map<String, LoopbackQueue> queues = new ConcurrentHashMap<>();
+    private final AtomicLong ids = new AtomicLong(System.currentTimeMillis() * 1000);
+    private final TimingWheel wheel;
+    private final Executor callbacks;
+    private final ExecutorService ownedCallbacks;
+    private volatile boolean closed;
+
+    /**
+     * Engine with a timing wheel of 512 ticks of 10 milliseconds
+     */
+    public IronLoopback() {
+        this(DEF_TICK, TimeUnit.MILLISECONDS, DEF_WHEEL_SIZE);
+    }
+
+    /**
+     * @param tick      resolution of the timeouts
+     * @param wheelSize number of ticks in the wheel. Timeouts longer than a turn cost one check per turn.
+     */
+    public IronLoopback(long tick, TimeUnit unit, int wheelSize) {
+        this(tick, unit, wheelSize, null);
+    }
+
+    /**
+     * Same as {@link #IronLoopback(long, TimeUnit, int)}
+     *
+     * @param executor runs the callbacks of long polls answered later, null for a pool of daemon threads closed with this engine
+     */
+    public IronLoopback(long tick, TimeUnit unit, int wheelSize, Executor executor) {
+        this.wheel = new TimingWheel("iron-mq-loopback", tick, unit, wheelSize);
+        this.ownedCallbacks = executor != null ? null : Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "iron-mq-loopback-callback");
+            t.setDaemon(true);
+            return t;
+        });
+        Executor e = executor != null ? executor : ownedCallbacks;
+        this.callbacks = task -> {
+            try {
+                e.execute(task);
+            } catch (RejectedExecutionException ignored) {
+                // closing: better run on the completing thread than lose the response
+                task.run();
+            }
+        };
+    }
+
+    /**
+     * Number of messages in a queue, reserved and delayed ones included, or -1 if the queue does not exist
+     */
+    public long getSize(String projectId, String queueName) {
+        LoopbackQueue queue = queues.get(key(projectId, encode(queueName)));
+        return queue == null ? -1 : queue.messages.size();
+    }
+
+    /**
+     * Removes all the queues
+     */
+    public void clear() {
+        for (LoopbackQueue queue : new ArrayList<>(queues.values())) {
+            deleteQueue(queue.key);
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        clear();
+        wheel.close();
+        if (ownedCallbacks != null) {
+            ownedCallbacks.shutdown();
+        }
+    }
+
+    CompletableFuture<Response> handle(String method, IronEndpoint endpoint, Object body) {
+        if (closed) {
+            return done(LoopbackResponse.message(503, "Loopback engine is closed"));
+        }
+        try {
+            return route(method, endpoint, body);
+        } catch (JsonException | ClassCastException | NullPointerException | IllegalArgumentException e) {
+            return done(LoopbackResponse.message(400, "Invalid request: " + e));
+        }
+    }
+
+    // projects/{project}/queues[/{queue}[/messages[/{id}[/touch|release]]]]
+    private CompletableFuture<Response> route(String method, IronEndpoint endpoint, Object body) {
+        String[] segments = endpoint.getSegments();
+        if (segments.length < 3 || !"projects".equals(segments[0]) || !"queues".equals(segments[2])) {
+            return done(LoopbackResponse.message(404, "Not found: " + endpoint));
+        }
+        String project = segments[1];
+        if (segments.length == 3) {
+            return HttpMethod.GET.equals(method) ? done(listQueues(project)) : notAllowed(method, endpoint);
+        }
+        String key = key(project, segments[3]);
+        if (segments.length == 4) {
+            switch (method) {
+                case HttpMethod.GET:
+                    return done(info(key));
+                case HttpMethod.POST:
+                    return done(updateQueue(project, segments[3], (JsonObject) body));
+                case HttpMethod.DELETE:
+                    return done(deleteQueue(key) ? LoopbackResponse.message(200, "Deleted") : queueNotFound());
+                default:
+                    return notAllowed(method, endpoint);
+            }
+        }
+        if (!"messages".equals(segments[4])) {
+            return done(LoopbackResponse.message(404, "Not found: " + endpoint));
+        }
+        if (segments.length == 5) {
+            switch (method) {
+                case HttpMethod.GET:
+                    return reserve(key, endpoint);
+                case HttpMethod.POST:
+                    return done(post(project, segments[3], body));
+                case HttpMethod.DELETE:
+                    return done(deleteMessages(key, ((JsonObject) body).getJsonArray("ids")));
+                default:
+                    return notAllowed(method, endpoint);
+            }
+        }
+        String id = segments[5];
+        if (segments.length == 6 && HttpMethod.DELETE.equals(method)) {
+            LoopbackQueue queue = queues.get(key);
+            return done(queue != null && queue.delete(id) ? LoopbackResponse.message(200, "Deleted") : messageNotFound());
+        }
+        if (segments.length == 7 && HttpMethod.POST.equals(method)) {
+            // like IronMQ, touching or releasing a message which is not reserved has no effect
+            LoopbackQueue queue = queues.get(key);
+            switch (segments[6]) {
+                case "touch":
+                    if (queue != null) {
+                        queue.touch(id);
+                    }
+                    return done(LoopbackResponse.message(200, "Touched"));
+                case "release":
+                    int delay = body == null ? 0 : ((JsonObject) body).getInt("delay", 0);
+                    if (queue != null) {
+                        queue.release(id, delay);
+                    }
+                    return done(LoopbackResponse.message(200, "Released"));
+                default:
+            }
+        }
+        return notAllowed(method, endpoint);
+    }
+
+    private Response listQueues(String project) {
+        JsonArrayBuilder list = Json.createArrayBuilder();
+        String prefix = project + '/';
+        for (LoopbackQueue queue : queues.values()) {
+            if (queue.key.startsWith(prefix)) {
+                list.add(Json.createObjectBuilder()
+                    .add("id", queue.id)
+                    .add("project_id", project)
+                    .add("name", queue.name));
+            }
+        }
+        return LoopbackResponse.of(200, list.build());
+    }
+
+    private Response info(String key) {
+        LoopbackQueue queue = queues.get(key);
+        if (queue == null) {
+            return queueNotFound();
+        }
+        JsonObjectBuilder info = Json.createObjectBuilder();
+        for (Map.Entry<String, JsonValue> entry : queue.config.entrySet()) {
+            info.add(entry.getKey(), entry.getValue());
+        }
+        return LoopbackResponse.of(200, info
+            .add("id", queue.id)
+            .add("name", queue.name)
+            .add("size", queue.messages.size())
+            .add("total_messages", queue.total.get())
+            .build());
+    }
+
+    private Response updateQueue(String project, String encodedName, JsonObject update) {
+        LoopbackQueue queue = queue(project, encodedName);
+        synchronized (queue) {
+            JsonObjectBuilder config = Json.createObjectBuilder();
+            for (Map.Entry<String, JsonValue> entry : queue.config.entrySet()) {
+                if (!update.containsKey(entry.getKey())) {
+                    config.add(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Map.Entry<String, JsonValue> entry : update.entrySet()) {
+                config.add(entry.getKey(), entry.getValue());
+            }
+            queue.config = config.build();
+        }
+        return info(queue.key);
+    }
+
+    private boolean deleteQueue(String key) {
+        LoopbackQueue queue = queues.remove(key);
+        if (queue == null) return false;
+        queue.close();
+        return true;
+    }
+
+    private Response post(String project, String encodedName, Object body) {
+        LoopbackQueue queue = queue(project, encodedName);
+        List<String> ids;
+        if (body instanceof MessagesBody) {
+            MessagesBody messages = (MessagesBody) body;
+            ids = new ArrayList<>(messages.size());
+            for (Object b : messages.getBodies()) {
+                String text = b instanceof byte[] ? new String((byte[]) b, StandardCharsets.UTF_8) : (String) b;
+                ids.add(queue.put(text, messages.getTimeout(), messages.getDelay(), messages.getExpiration()));
+            }
+        } else {
+            JsonArray messages = ((JsonObject) body).getJsonArray("messages");
+            ids = new ArrayList<>(messages.size());
+            for (int i = 0; i < messages.size(); i++) {
+                JsonObject message = messages.getJsonObject(i);
+                ids.add(queue.put(
+                    message.getString("body"),
+                    message.getInt("timeout", IronSettings.DEF_TIMEOUT),
+                    message.getInt("delay", IronSettings.DEF_DELAY),
+                    message.getInt("expires_in", IronSettings.DEF_EXPIRATION)));
+            }
+        }
+        queue.signal();
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + ids.size() * 24);
+        try (JsonGenerator generator = GENERATORS.createGenerator(out, StandardCharsets.UTF_8)) {
+            generator.writeStartObject().writeStartArray("ids");
+            for (String id : ids) {
+                generator.write(id);
+            }
+            generator.writeEnd().write("msg", "Messages put on queue.").writeEnd();
+        }
+        return new LoopbackResponse(200, out.toByteArray());
+    }
+
+    private CompletableFuture<Response> reserve(String key, IronEndpoint endpoint) {
+        LoopbackQueue queue = queues.get(key);
+        if (queue == null) {
+            return done(queueNotFound());
+        }
+        int n = intQuery(endpoint, "n", 1);
+        int timeout = intQuery(endpoint, "timeout", IronSettings.DEF_TIMEOUT);
+        int wait = intQuery(endpoint, "wait", 0);
+        boolean delete = Boolean.parseBoolean(String.valueOf(endpoint.getQuery("delete")));
+        if (n < 1 || n > IronSettings.MAX_BATCH || wait < 0 || wait > IronSettings.MAX_WAIT || timeout < IronSettings.MIN_TIMEOUT || timeout > IronSettings.MAX_TIMEOUT) {
+            return done(LoopbackResponse.message(400, "Invalid n, timeout or wait"));
+        }
+        List<Message> reserved = queue.reserve(n, timeout, delete);
+        if (!reserved.isEmpty() || wait == 0) {
+            return done(messages(reserved, timeout));
+        }
+        Waiter waiter = new Waiter(n, timeout, delete);
+        queue.waiters.offer(waiter);
+        wheel.schedule(wait, TimeUnit.SECONDS, () -> {
+            if (waiter.future.complete(messages(Collections.emptyList(), timeout))) {
+                queue.waiters.remove(waiter);
+            }
+        });
+        // a message may have been posted before the waiter was registered
+        queue.signal();
+        // completed on the wheel or on a posting thread
+        return waiter.future.thenApplyAsync(Function.identity(), callbacks);
+    }
+
+    private Response deleteMessages(String key, JsonArray ids) {
+        LoopbackQueue queue = queues.get(key);
+        if (queue == null) {
+            return queueNotFound();
+        }
+        for (int i = 0; i < ids.size(); i++) {
+            queue.delete(ids.getString(i));
+        }
+        return LoopbackResponse.message(200, "Deleted");
+    }
+
+    private LoopbackQueue queue(String project, String encodedName) {
+        String key = key(project, encodedName);
+        LoopbackQueue queue = queues.get(key);
+        return queue != null ? queue : queues.computeIfAbsent(key, k -> new LoopbackQueue(k, decode(encodedName)));
+    }
+
+    private String nextId() {
+        return Long.toString(ids.incrementAndGet());
+    }
+
+    private static Response messages(List<Message> messages, int timeout) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + messages.size() * 128);
+        try (JsonGenerator generator = GENERATORS.createGenerator(out, StandardCharsets.UTF_8)) {
+            generator.writeStartObject().writeStartArray("messages");
+            for (Message message : messages) {
+                generator.writeStartObject()
+                    .write("id", message.id)
+                    .write("body", message.body)
+                    .write("timeout", timeout)
+                    .write("reserved_count", message.reservedCount)
+                    .writeEnd();
+            }
+            generator.writeEnd().writeEnd();
+        }
+        return new LoopbackResponse(200, out.toByteArray());
+    }
+
+    private static int intQuery(IronEndpoint endpoint, String name, int def) {
+        Object value = endpoint.getQuery(name);
+        return value == null ? def : Integer.parseInt(value.toString());
+    }
+
+    private static CompletableFuture<Response> done(Response response) {
+        return CompletableFuture.completedFuture(response);
+    }
+
+    private static CompletableFuture<Response> notAllowed(String method, IronEndpoint endpoint) {
+        return done(LoopbackResponse.message(405, method + " not allowed on " + endpoint));
+    }
+
+    private static Response queueNotFound() {
+        return LoopbackResponse.message(404, "Queue not found");
+    }
+
+    private static Response messageNotFound() {
+        return LoopbackResponse.message(404, "Message not found");
+    }
+
+    private static String key(String project, String encodedName) {
+        return project + '/' + encodedName;
+    }
+
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String encodedName) {
+        try {
+            return URLDecoder.decode(encodedName, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final class LoopbackQueue {
+
+        final String key;
+        final String id;
+        final String name;
+        final Queue<Message> ready = new ConcurrentLinkedQueue<>();
+        final Map<String, Message> messages = new ConcurrentHashMap<>();
+        final Queue<Waiter> waiters = new ConcurrentLinkedQueue<>();
+        final AtomicLong total = new AtomicLong();
+        volatile JsonObject config = Json.createObjectBuilder().add("push_type", "pull").build();
+
+        LoopbackQueue(String key, String name) {
+            this.key = key;
+            this.id = nextId();
+            this.name = name;
+        }
+
+        String put(String body, int timeout, int delay, int expiration) {
+            Message message = new Message(nextId(), body, System.nanoTime() + TimeUnit.SECONDS.toNanos(expiration), delay > 0 ? Message.DELAYED : Message.AVAILABLE);
+            messages.put(message.id, message);
+            total.incrementAndGet();
+            if (delay > 0) {
+                wheel.schedule(delay, TimeUnit.SECONDS, () -> makeAvailable(message, Message.DELAYED, 0));
+            } else {
+                ready.offer(message);
+            }
+            return message.id;
+        }
+
+        List<Message> reserve(int n, int timeout, boolean delete) {
+            List<Message> reserved = Collections.emptyList();
+            long now = System.nanoTime();
+            for (Message polled; reserved.size() < n && (polled = ready.poll()) != null; ) {
+                Message message = polled;
+                long token;
+                synchronized (message) {
+                    // the ready queue can hold messages deleted or reserved since they were queued
+                    if (message.state != Message.AVAILABLE) continue;
+                    if (now - message.expiresAt >= 0) {
+                        message.state = Message.DELETED;
+                        messages.remove(message.id, message);
+                        continue;
+                    }
+                    message.state = Message.RESERVED;
+                    message.timeout = timeout;
+                    message.reservedCount++;
+                    token = ++message.token;
+                }
+                if (reserved.isEmpty()) {
+                    reserved = new ArrayList<>(n);
+                }
+                reserved.add(message);
+                if (delete) {
+                    delete(message.id);
+                } else {
+                    wheel.schedule(timeout, TimeUnit.SECONDS, () -> makeAvailable(message, Message.RESERVED, token));
+                }
+            }
+            return reserved;
+        }
+
+        boolean touch(String id) {
+            Message message = messages.get(id);
+            if (message == null) return false;
+            long token;
+            int timeout;
+            synchronized (message) {
+                if (message.state != Message.RESERVED) return false;
+                token = ++message.token;
+                timeout = message.timeout;
+            }
+            wheel.schedule(timeout, TimeUnit.SECONDS, () -> makeAvailable(message, Message.RESERVED, token));
+            return true;
+        }
+
+        boolean release(String id, int delay) {
+            Message message = messages.get(id);
+            if (message == null) return false;
+            long token;
+            synchronized (message) {
+                if (message.state != Message.RESERVED) return false;
+                token = ++message.token;
+                if (delay > 0) {
+                    message.state = Message.DELAYED;
+                } else {
+                    message.state = Message.AVAILABLE;
+                }
+            }
+            if (delay > 0) {
+                wheel.schedule(delay, TimeUnit.SECONDS, () -> makeAvailable(message, Message.DELAYED, token));
+            } else {
+                ready.offer(message);
+                signal();
+            }
+            return true;
+        }
+
+        boolean delete(String id) {
+            Message message = messages.remove(id);
+            if (message == null) return false;
+            synchronized (message) {
+                message.state = Message.DELETED;
+            }
+            return true;
+        }
+
+        /**
+         * Puts back a delayed message, or a reserved one whose reservation timed out, if nothing happened to it since
+         */
+        void makeAvailable(Message message, int from, long token) {
+            synchronized (message) {
+                if (message.state != from || message.token != token) return;
+                message.state = Message.AVAILABLE;
+                message.token++;
+            }
+            ready.offer(message);
+            signal();
+        }
+
+        /**
+         * Serves the long polls waiting on this queue
+         */
+        void signal() {
+            Waiter waiter;
+            while ((waiter = waiters.poll()) != null) {
+                if (waiter.future.isDone()) continue;
+                // reserved first, then deleted if the waiter is still there: a timed out waiter must not lose messages
+                List<Message> reserved = reserve(waiter.n, waiter.timeout, false);
+                if (reserved.isEmpty()) {
+                    waiters.offer(waiter);
+                    if (ready.isEmpty()) return;
+                    continue;
+                }
+                if (waiter.future.complete(messages(reserved, waiter.timeout))) {
+                    if (waiter.delete) {
+                        for (Message message : reserved) {
+                            delete(message.id);
+                        }
+                    }
+                } else {
+                    for (Message message : reserved) {
+                        unreserve(message);
+                    }
+                }
+            }
+        }
+
+        private void unreserve(Message message) {
+            synchronized (message) {
+                if (message.state != Message.RESERVED) return;
+                message.state = Message.AVAILABLE;
+                message.reservedCount--;
+                message.token++;
+            }
+            ready.offer(message);
+        }
+
+        void close() {
+            for (Waiter waiter; (waiter = waiters.poll()) != null; ) {
+                waiter.future.complete(queueNotFound());
+            }
+            for (Message message : messages.values()) {
+                delete(message.id);
+            }
+            ready.clear();
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("Deleted loopback queue " + key);
+            }
+        }
+    }
+
+    private static final class Message {
+
+        static final int DELAYED = 0;
+        static final int AVAILABLE = 1;
+        static final int RESERVED = 2;
+        static final int DELETED = 3;
+
+        final String id;
+        final String body;
+        final long expiresAt;
+        // guarded by this
+        int state;
+        // changed by every transition, so that stale timeouts are ignored
+        long token;
+        int timeout;
+        volatile int reservedCount;
+
+        Message(String id, String body, long expiresAt, int state) {
+            this.id = id;
+            this.body = body;
+            this.expiresAt = expiresAt;
+            this.state = state;
+        }
+    }
+
+    private static final class Waiter {
+        final int n;
+        final int timeout;
+        final boolean delete;
+        final CompletableFuture<Response> future = new CompletableFuture<>();
+
+        Waiter(int n, int timeout, boolean delete) {
+            this.n = n;
+            this.timeout = timeout;
+            this.delete = delete;
+        }
+    }
+
+}
@@ -17,8 +17,13 @@ package com.guestful.client.ironio.mq;
 
 import javax.json.Json;
 import javax.json.JsonObject;
+import javax.json.JsonReader;
 import javax.ws.rs.HttpMethod;
 import javax.ws.rs.core.Response;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -29,17 +34,29 @@ import java.util.concurrent.TimeUnit;
 public class IronMessage {
 
     private final IronQueue queue;
+    private final IronSettings settings;
     private final String id;
-    private final JsonObject body;
+    private final String wireBody;
     private final int timeout;
-    private boolean deleted = false;
-    private boolean released = false;
+    private final int reservedCount;
+    private volatile String rawBody;
+    private volatile JsonObject body;
+    private final long reservedAt = System.nanoTime();
+    private volatile boolean deleted = false;
+    private volatile boolean released = false;
+    private IronEndpoint endpoint;
+    private IronEndpoint touchEndpoint;
 
-    IronMessage(IronQueue queue, String id, JsonObject body, int timeout) {
+    /**
+     * @param settings settings of the poll, used to decode the body
+     */
+    IronMessage(IronQueue queue, IronSettings settings, String id, String wireBody, int timeout, int reservedCount) {
         this.queue = queue;
+        this.settings = settings;
         this.id = id;
-        this.body = body;
+        this.wireBody = wireBody;
         this.timeout = timeout;
+        this.reservedCount = reservedCount;
     }
 
     /**
@@ -57,8 +74,64 @@ public class IronMessage {
         return id;
     }
 
+    /**
+     * Number of times this message has been reserved, including this reservation. 0 if unknown.
+     */
+    public int getReservedCount() {
+        return reservedCount;
+    }
+
+    /**
+     * Body of the message as it was posted, inflated if it was sent compressed or read from the payload store if it was offloaded,
+     * with the dictionary and the store of the settings it was polled with. Never parsed.
+     */
+    public String getRawBody() {
+        String b = rawBody;
+        if (b == null) {
+            if (BodyCompression.isCompressed(wireBody)) {
+                b = BodyCompression.decompress(wireBody, settings, queue.getProject().getClient().getCompressionStats());
+            } else if (ClaimCheck.isReference(wireBody)) {
+                b = ClaimCheck.resolve(wireBody, settings);
+            } else if (PlainBody.isEscaped(wireBody)) {
+                b = PlainBody.unescape(wireBody);
+            } else {
+                b = wireBody;
+            }
+            rawBody = b;
+        }
+        return b;
+    }
+
+    /**
+     * Whether the body was sent compressed, see {@link IronSettings#setCompressionThreshold(int)}
+     */
+    public boolean isCompressed() {
+        return BodyCompression.isCompressed(wireBody);
+    }
+
+    /**
+     * Whether the body is kept in the payload store, see {@link IronSettings#setClaimCheckThreshold(int)}.
+     * The stored payload is removed when this message is deleted, or when it is polled if the poll deletes it.
+     */
+    public boolean isOffloaded() {
+        return ClaimCheck.isReference(wireBody);
+    }
+
+    public byte[] getRawBodyBytes() {
+        return getRawBody().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Body of the message parsed as a JSON object on first call
+     */
     public JsonObject getBody() {
-        return body;
+        JsonObject b = body;
+        if (b == null) {
+            try (JsonReader reader = Json.createReader(new StringReader(getRawBody()))) {
+                body = b = reader.readObject();
+            }
+        }
+        return b;
     }
 
     public boolean isReleased() {
@@ -78,12 +151,23 @@ public class IronMessage {
         if (isDeleted()) {
             throw new IronException("Message " + getId() + " is deleted");
         }
-        Response response = getQueue().request(HttpMethod.POST, "messages/" + getId() + "/touch");
+        Response response = getQueue().request(HttpMethod.POST, getTouchEndpoint(), null);
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
             throw new IronClientException(response);
         }
     }
 
+    public CompletionStage<Void> touchAsync() {
+        if (isDeleted()) {
+            return failed(new IronException("Message " + getId() + " is deleted"));
+        }
+        return getQueue().requestAsync(HttpMethod.POST, getTouchEndpoint(), null).thenAccept(response -> {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new IronClientException(response);
+            }
+        });
+    }
+
     /**
      * Releasing a reserved message unreserves the message and puts it back on the queue as if the message had timed out.
      */
@@ -94,29 +178,117 @@ public class IronMessage {
     public void release(long delay, TimeUnit unit) {
         if (isReleased()) throw new IronException("Message " + getId() + " is released");
         if (isDeleted()) throw new IronException("Message " + getId() + " is deleted");
-        IronSettings settings = getQueue().getProject().getSettings().copy().setMessageDelay(delay, unit);
-        JsonObject body = Json.createObjectBuilder()
-            .add("delay", settings.getMessageDelay())
-            .build();
-        Response response = getQueue().request(HttpMethod.POST, "messages/" + getId() + "/release", body);
+        Response response = getQueue().request(HttpMethod.POST, getEndpoint().path("release"), buildReleaseBody(delay, unit));
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
             throw new IronClientException(response);
         }
         released = true;
     }
 
+    public CompletionStage<Void> releaseAsync() {
+        return releaseAsync(getQueue().getProject().getSettings().getMessageDelay(), TimeUnit.SECONDS);
+    }
+
+    public CompletionStage<Void> releaseAsync(long delay, TimeUnit unit) {
+        if (isReleased()) return failed(new IronException("Message " + getId() + " is released"));
+        if (isDeleted()) return failed(new IronException("Message " + getId() + " is deleted"));
+        return getQueue().requestAsync(HttpMethod.POST, getEndpoint().path("release"), buildReleaseBody(delay, unit)).thenAccept(response -> {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                throw new IronClientException(response);
+            }
+            released = true;
+        });
+    }
+
     public void delete() {
         if (isDeleted()) return;
-        Response response = getQueue().request(HttpMethod.DELETE, "messages/" + getId());
+        Response response = getQueue().request(HttpMethod.DELETE, getEndpoint(), null);
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL && response.getStatus() != 404) {
             throw new IronClientException(response);
         }
+        markDeleted();
+    }
+
+    public CompletionStage<Void> deleteAsync() {
+        if (isDeleted()) return CompletableFuture.completedFuture(null);
+        return getQueue().requestAsync(HttpMethod.DELETE, getEndpoint(), null).thenAccept(response -> {
+            if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL && response.getStatus() != 404) {
+                throw new IronClientException(response);
+            }
+            markDeleted();
+        });
+    }
+
+    /**
+     * {@link System#nanoTime()} when this message was received
+     */
+    long getReservedAt() {
+        return reservedAt;
+    }
+
+    /**
+     * For a message deleted by the poll which reserved it: no delete will follow, so an offloaded payload is read now and removed
+     * from the store. A payload that cannot be read is kept, and reading the body fails the same way later.
+     */
+    void resolveDeleted() {
+        if (!ClaimCheck.isReference(wireBody)) return;
+        try {
+            getRawBody();
+        } catch (RuntimeException e) {
+            return;
+        }
+        ClaimCheck.release(wireBody, settings);
+    }
+
+    void markDeleted() {
         deleted = true;
+        if (ClaimCheck.isReference(wireBody)) {
+            ClaimCheck.release(wireBody, settings);
+        }
+    }
+
+    private IronEndpoint getEndpoint() {
+        // benign race: endpoints are equivalent
+        IronEndpoint e = endpoint;
+        if (e == null) {
+            endpoint = e = getQueue().getMessageEndpoint(getId());
+        }
+        return e;
     }
 
+    private IronEndpoint getTouchEndpoint() {
+        // reused by lease renewals
+        IronEndpoint e = touchEndpoint;
+        if (e == null) {
+            touchEndpoint = e = getEndpoint().path("touch");
+        }
+        return e;
+    }
+
+    private static JsonObject buildReleaseBody(long delay, TimeUnit unit) {
+        return Json.createObjectBuilder()
+            .add("delay", IronSettings.toSeconds(delay, unit, IronSettings.MIN_DELAY, IronSettings.MAX_DELAY))
+            .build();
+    }
+
+    private static CompletionStage<Void> failed(RuntimeException e) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    /**
+     * Id and body as it was posted, or as it was received if it cannot be decoded (i.e. offloaded payload already deleted)
+     */
     @Override
     public String toString() {
-        return getId() + " " + getBody();
+        String b;
+        try {
+            b = getRawBody();
+        } catch (RuntimeException e) {
+            b = wireBody;
+        }
+        return getId() + " " + b;
     }
 
 }
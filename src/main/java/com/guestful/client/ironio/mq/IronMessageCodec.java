@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.StringReader;
+import java.util.Base64;
+
+/**
+ * Converts payloads to and from IronMQ message bodies, which are strings.
+ * <p>
+ * See {@link IronQueue#typed(IronMessageCodec)} and {@link IronJsonbCodec} for JSON binding.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface IronMessageCodec<T> {
+
+    /**
+     * Bodies are used as is
+     */
+    IronMessageCodec<String> STRING = new IronMessageCodec<String>() {
+        @Override
+        public String encode(String payload) {
+            return payload;
+        }
+
+        @Override
+        public String decode(String body) {
+            return body;
+        }
+    };
+
+    /**
+     * Binary payloads, sent encoded in base64
+     */
+    IronMessageCodec<byte[]> BYTES = new IronMessageCodec<byte[]>() {
+        @Override
+        public String encode(byte[] payload) {
+            return Base64.getEncoder().encodeToString(payload);
+        }
+
+        @Override
+        public byte[] decode(String body) {
+            return Base64.getDecoder().decode(body);
+        }
+    };
+
+    /**
+     * JSON-P objects, the bodies used by {@link IronQueue#offer(JsonObject)} and {@link IronMessage#getBody()}
+     */
+    IronMessageCodec<JsonObject> JSON = new IronMessageCodec<JsonObject>() {
+        @Override
+        public String encode(JsonObject payload) {
+            return payload.toString();
+        }
+
+        @Override
+        public JsonObject decode(String body) {
+            try (JsonReader reader = Json.createReader(new StringReader(body))) {
+                return reader.readObject();
+            }
+        }
+    };
+
+    String encode(T payload);
+
+    T decode(String body);
+
+}
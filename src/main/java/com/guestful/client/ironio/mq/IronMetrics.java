@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+/**
+ * Receives the measurements of a client, see {@link IronClient#setMetrics(IronMetrics)}.
+ * {@link IronMetricsRegistry} keeps them in memory; implementations can also forward them to any monitoring system.
+ * <p>
+ * Methods are called on the request threads and must be fast and thread-safe. All of them do nothing by default.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface IronMetrics {
+
+    IronMetrics NONE = new IronMetrics() {
+    };
+
+    /**
+     * A request completed, retries included. Poll durations include the long-poll wait.
+     *
+     * @param queue  queue name, or null for project-level requests
+     * @param failed whether it failed with an error or a status other than 2xx
+     */
+    default void onRequest(IronOperation operation, String queue, long nanos, boolean failed) {
+    }
+
+    /**
+     * A request is about to be retried after the given backoff sleep
+     */
+    default void onRetry(IronOperation operation, String queue, long sleepNanos) {
+    }
+
+    /**
+     * Number of messages in an offer, a poll response (0 for an empty poll) or a bulk delete
+     */
+    default void onBatch(IronOperation operation, String queue, int size) {
+    }
+
+    default void onPollerStarted(IronPoller poller) {
+    }
+
+    default void onPollerStopped(IronPoller poller) {
+    }
+
+}
@@ -0,0 +1,230 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Default {@link IronMetrics}: keeps the measurements in memory, without any dependency, per operation for all the queues and per queue.
+ * <p>
+ * Latencies are in nanoseconds and include the retries; poll latencies include the long-poll wait.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronMetricsRegistry implements IronMetrics {
+
+    private final Map<IronOperation, Stats> totals = new EnumMap<>(IronOperation.class);
+    private final Map<IronOperation, Map<String, Stats>> perQueue = new EnumMap<>(IronOperation.class);
+    private final Set<IronPoller> pollers = ConcurrentHashMap.newKeySet();
+
+    public IronMetricsRegistry() {
+        // filled once: only read afterwards
+        for (IronOperation operation : IronOperation.values()) {
+            totals.put(operation, new Stats(operation));
+            perQueue.put(operation, new ConcurrentHashMap<>());
+        }
+    }
+
+    @Override
+    public void onRequest(IronOperation operation, String queue, long nanos, boolean failed) {
+        record(totals.get(operation), nanos, failed);
+        if (queue != null) {
+            record(stats(operation, queue), nanos, failed);
+        }
+    }
+
+    @Override
+    public void onRetry(IronOperation operation, String queue, long sleepNanos) {
+        totals.get(operation).retry(sleepNanos);
+        if (queue != null) {
+            stats(operation, queue).retry(sleepNanos);
+        }
+    }
+
+    @Override
+    public void onBatch(IronOperation operation, String queue, int size) {
+        totals.get(operation).batch(size);
+        if (queue != null) {
+            stats(operation, queue).batch(size);
+        }
+    }
+
+    @Override
+    public void onPollerStarted(IronPoller poller) {
+        pollers.add(poller);
+    }
+
+    @Override
+    public void onPollerStopped(IronPoller poller) {
+        pollers.remove(poller);
+    }
+
+    /**
+     * Measurements of an operation for all the queues
+     */
+    public Stats get(IronOperation operation) {
+        return totals.get(operation);
+    }
+
+    /**
+     * Measurements of an operation for a queue, or null if there was none
+     */
+    public Stats get(IronOperation operation, String queue) {
+        return perQueue.get(operation).get(queue);
+    }
+
+    /**
+     * Names of the queues having measurements
+     */
+    public Set<String> getQueues() {
+        Set<String> names = new TreeSet<>();
+        for (Map<String, Stats> queues : perQueue.values()) {
+            names.addAll(queues.keySet());
+        }
+        return names;
+    }
+
+    /**
+     * Pollers started and not stopped yet
+     */
+    public Collection<IronPoller> getPollers() {
+        return Collections.unmodifiableCollection(pollers);
+    }
+
+    /**
+     * Messages reserved by all the running pollers and not yet handled
+     */
+    public int getInFlight() {
+        int n = 0;
+        for (IronPoller poller : pollers) {
+            n += poller.getInFlight();
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Stats stats : totals.values()) {
+            if (stats.getLatency().getCount() > 0) {
+                sb.append(stats).append('\n');
+            }
+        }
+        return sb.append("pollers=").append(pollers.size()).append(", in-flight=").append(getInFlight()).toString();
+    }
+
+    private Stats stats(IronOperation operation, String queue) {
+        Map<String, Stats> queues = perQueue.get(operation);
+        Stats stats = queues.get(queue);
+        return stats != null ? stats : queues.computeIfAbsent(queue, q -> new Stats(operation));
+    }
+
+    private static void record(Stats stats, long nanos, boolean failed) {
+        stats.latency.record(nanos);
+        if (failed) {
+            stats.errors.increment();
+        }
+    }
+
+    public static final class Stats {
+        private final IronOperation operation;
+        private final IronHistogram latency = new IronHistogram();
+        private final IronHistogram batchSize = new IronHistogram();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder retries = new LongAdder();
+        private final LongAdder sleepNanos = new LongAdder();
+        private final LongAdder emptyBatches = new LongAdder();
+
+        private Stats(IronOperation operation) {
+            this.operation = operation;
+        }
+
+        public IronOperation getOperation() {
+            return operation;
+        }
+
+        /**
+         * Request durations in nanoseconds
+         */
+        public IronHistogram getLatency() {
+            return latency;
+        }
+
+        /**
+         * Messages per request: offered, received by a poll or deleted in bulk
+         */
+        public IronHistogram getBatchSize() {
+            return batchSize;
+        }
+
+        /**
+         * Requests that failed after their retries, with an error or a status other than 2xx
+         */
+        public long getErrors() {
+            return errors.sum();
+        }
+
+        public long getRetries() {
+            return retries.sum();
+        }
+
+        /**
+         * Time spent waiting before retries
+         */
+        public long getBackoffSleep(TimeUnit unit) {
+            return unit.convert(sleepNanos.sum(), TimeUnit.NANOSECONDS);
+        }
+
+        /**
+         * Ratio of polls that returned no message, between 0 and 1
+         */
+        public double getEmptyPollRatio() {
+            long polls = batchSize.getCount();
+            return polls == 0 ? 0 : (double) emptyBatches.sum() / polls;
+        }
+
+        @Override
+        public String toString() {
+            return operation + ": latency(us)={count=" + latency.getCount()
+                + ", p50=" + latency.getValueAtPercentile(50, TimeUnit.MICROSECONDS)
+                + ", p99=" + latency.getValueAtPercentile(99, TimeUnit.MICROSECONDS)
+                + ", max=" + TimeUnit.NANOSECONDS.toMicros(latency.getMax())
+                + "}, errors=" + getErrors() + ", retries=" + getRetries()
+                + (batchSize.getCount() == 0 ? "" : ", batch=" + batchSize);
+        }
+
+        void retry(long nanos) {
+            retries.increment();
+            sleepNanos.add(nanos);
+        }
+
+        void batch(int size) {
+            batchSize.record(size);
+            if (size == 0) {
+                emptyBatches.increment();
+            }
+        }
+    }
+
+}
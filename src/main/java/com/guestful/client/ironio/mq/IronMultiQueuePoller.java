@@ -0,0 +1,598 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Consumes several queues with one pool of workers and one poll budget.
+ * <p>
+ * Each queue is added with a priority and a weight. Workers always take the next message from the queues of the highest
+ * priority having buffered messages: a lower priority is only served when all higher ones are drained (strict priority).
+ * Polls follow the same rule: a lower priority is not polled while a higher one has buffered messages or is polling after a non-empty poll,
+ * so its messages are not reserved while they cannot be handled. It is polled again once a higher priority poll comes back empty.
+ * Among queues of the same priority, messages are handed out in proportion to their weights (smooth weighted round-robin),
+ * and so are the poll slots: at most <code>maxConcurrentPolls</code> poll requests run at once, whatever the number of queues.
+ * <p>
+ * The queues of a priority share a small local buffer of at most {@link IronSettings#getPrefetchSize()} messages and never more than twice the <code>workers</code>,
+ * so that a queue still has messages for the workers while its next poll is running. The buffer is split in proportion to the weights,
+ * with at least one message per queue, and a queue is polled for the rest of its share, even while its previous polls are running:
+ * the messages fetched follow the weights also when the polls are slower than the workers.
+ * A queue returning an empty poll is skipped for 100ms, then twice as long after each further empty poll, up to 10s:
+ * idle queues do not consume the poll budget needed by busy ones. A queue whose circuit is open is skipped until the circuit lets calls through. Polls use {@link IronSettings#getPollWait()}: a long poll
+ * holds its poll slot for its whole wait, so keep it short when there are more queues than slots.
+ * <p>
+ * {@link Lane#getLag(TimeUnit)} tells how long the oldest buffered message of a queue has been waiting for a worker,
+ * which is how far behind a starved or overloaded queue is. Buffered messages are released when the poller is stopped.
+ * <p>
+ * The executor must be able to run <code>workers</code> tasks concurrently.
+ * Polls are asynchronous (see {@link IronQueue#pollBatchAsync(int, IronSettings)}) and do not hold any worker.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronMultiQueuePoller implements IronPoller {
+
+    private static final Logger LOGGER = Logger.getLogger(IronMultiQueuePoller.class.getName());
+
+    static final long MIN_SKIP_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    static final long MAX_SKIP_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final Executor executor;
+    private final int workers;
+    private final int maxConcurrentPolls;
+    private final Consumer<IronMessage> consumer;
+    private final BiConsumer<IronMessage, RuntimeException> onError;
+    private final IronSettings settings;
+    // sorted by descending priority once started
+    private final List<Lane> lanes = new ArrayList<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition available = lock.newCondition();
+    private final PollerLifecycle lifecycle = new PollerLifecycle(this::closeAcknowledger);
+    private IronSettings pollSettings;
+    private long timeoutNanos;
+    private IronAcknowledger acknowledger;
+    private IronMetrics metrics;
+    private ScheduledExecutorService scheduler;
+    private int polling;
+    private long wakeupAt;
+    private boolean wakeupScheduled;
+    private boolean started;
+
+    /**
+     * Uses the settings of the project of the first added queue
+     */
+    public IronMultiQueuePoller(Executor executor, int workers, int maxConcurrentPolls, Consumer<IronMessage> consumer) {
+        this(executor, workers, maxConcurrentPolls, consumer, IronQueue::logError, null);
+    }
+
+    public IronMultiQueuePoller(Executor executor, int workers, int maxConcurrentPolls, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        if (workers < 1 || maxConcurrentPolls < 1) throw new IllegalArgumentException();
+        this.executor = executor;
+        this.workers = workers;
+        this.maxConcurrentPolls = maxConcurrentPolls;
+        this.consumer = consumer;
+        this.onError = onError;
+        this.settings = settings == null ? null : settings.snapshot();
+    }
+
+    /**
+     * Adds a queue with priority 0
+     */
+    public IronMultiQueuePoller addQueue(IronQueue queue, int weight) {
+        return addQueue(queue, 0, weight);
+    }
+
+    /**
+     * @param priority queues of a higher priority are always served first
+     * @param weight   share of the workers and polls among queues of the same priority, at least 1
+     */
+    public IronMultiQueuePoller addQueue(IronQueue queue, int priority, int weight) {
+        if (weight < 1) throw new IllegalArgumentException();
+        lock.lock();
+        try {
+            if (started) throw new IllegalStateException("Poller already started");
+            for (Lane lane : lanes) {
+                if (lane.queue == queue) throw new IllegalArgumentException("Queue " + queue.getName() + " already added");
+            }
+            lanes.add(new Lane(queue, priority, weight));
+        } finally {
+            lock.unlock();
+        }
+        return this;
+    }
+
+    public IronMultiQueuePoller start() {
+        lock.lock();
+        try {
+            if (started) throw new IllegalStateException("Poller already started");
+            if (!lifecycle.isRunning()) throw new IllegalStateException("Poller stopped");
+            if (lanes.isEmpty()) throw new IllegalStateException("No queue to poll");
+            started = true;
+            lanes.sort(Comparator.comparingInt((Lane lane) -> lane.priority).reversed());
+            IronClient client = lanes.get(0).queue.getProject().getClient();
+            IronSettings s = settings != null ? settings : lanes.get(0).queue.getProject().getSettings();
+            this.pollSettings = s.snapshot();
+            share(Math.max(1, Math.min(s.getPrefetchSize(), Math.min(2 * workers, IronSettings.MAX_BATCH))));
+            this.timeoutNanos = TimeUnit.SECONDS.toNanos(s.getMessageTimeout());
+            this.scheduler = client.getScheduler();
+            this.acknowledger = s.getAckBatchSize() > 1 ?
+                new IronAcknowledger(scheduler, s.getAckBatchSize(), s.getAckLinger(), TimeUnit.MILLISECONDS, onError) :
+                null;
+            this.metrics = client.getMetrics();
+        } finally {
+            lock.unlock();
+        }
+        metrics.onPollerStarted(this);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+        schedulePolls();
+        return this;
+    }
+
+    /**
+     * Splits the buffer of each priority among its lanes in proportion to their weights, at least one message each:
+     * a lane fetches at most its share per poll round trip, so equal buffers would fetch equal amounts whatever the weights.
+     */
+    private void share(int capacity) {
+        int from = 0;
+        while (from < lanes.size()) {
+            int priority = lanes.get(from).priority;
+            int to = from;
+            long total = 0;
+            while (to < lanes.size() && lanes.get(to).priority == priority) {
+                total += lanes.get(to++).weight;
+            }
+            for (int i = from; i < to; i++) {
+                Lane lane = lanes.get(i);
+                lane.capacity = (int) Math.max(1, capacity * lane.weight / total);
+            }
+            from = to;
+        }
+    }
+
+    /**
+     * The queue of the highest priority. See {@link #getLanes()} for all queues.
+     */
+    @Override
+    public IronQueue getQueue() {
+        lock.lock();
+        try {
+            return lanes.isEmpty() ? null : lanes.get(0).queue;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * One lane per queue, by descending priority once started
+     */
+    public List<Lane> getLanes() {
+        lock.lock();
+        try {
+            return Collections.unmodifiableList(new ArrayList<>(lanes));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the lane of this queue, or null if it was not added
+     */
+    public Lane getLane(IronQueue queue) {
+        for (Lane lane : getLanes()) {
+            if (lane.queue == queue) return lane;
+        }
+        return null;
+    }
+
+    @Override
+    public int getInFlight() {
+        int n = lifecycle.getHandling();
+        lock.lock();
+        try {
+            for (Lane lane : lanes) {
+                n += lane.buffer.size();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return n;
+    }
+
+    @Override
+    public void stop() {
+        stopAccepting();
+    }
+
+    @Override
+    public void stopAccepting() {
+        if (!lifecycle.stopAccepting()) return;
+        List<IronMessage> unprocessed = new ArrayList<>();
+        IronMetrics m;
+        lock.lock();
+        try {
+            for (Lane lane : lanes) {
+                unprocessed.addAll(lane.buffer);
+                lane.buffer.clear();
+            }
+            available.signalAll();
+            m = metrics;
+        } finally {
+            lock.unlock();
+        }
+        IronQueue.release(unprocessed);
+        if (m != null) {
+            m.onPollerStopped(this);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> drain(Duration timeout) {
+        stopAccepting();
+        ScheduledExecutorService s;
+        lock.lock();
+        try {
+            s = scheduler;
+        } finally {
+            lock.unlock();
+        }
+        // never started: already stopped, nothing to schedule
+        return lifecycle.drain(timeout, s);
+    }
+
+    @Override
+    public IronPollerState getState() {
+        return lifecycle.getState();
+    }
+
+    private void closeAcknowledger() {
+        IronAcknowledger a;
+        lock.lock();
+        try {
+            a = acknowledger;
+        } finally {
+            lock.unlock();
+        }
+        if (a != null) {
+            a.close();
+        }
+    }
+
+    private void schedulePolls() {
+        List<Lane> toPoll = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        long delay = -1;
+        lock.lock();
+        try {
+            if (!lifecycle.isRunning()) return;
+            long now = System.nanoTime();
+            Lane lane;
+            while (polling < maxConcurrentPolls && (lane = select(true, now)) != null) {
+                // exited once its messages are buffered or released
+                if (!lifecycle.enterPoll()) break;
+                int n = lane.capacity - lane.buffer.size() - lane.requested;
+                lane.requested += n;
+                polling++;
+                toPoll.add(lane);
+                sizes.add(n);
+            }
+            if (polling < maxConcurrentPolls) {
+                // wake up when the first skipped queue can be polled again
+                long next = 0;
+                boolean skipped = false;
+                int floor = backlogPriority();
+                for (Lane l : lanes) {
+                    if (l.priority < floor) break;
+                    if (l.buffer.size() + l.requested < l.capacity && (!skipped || l.nextPollAt - next < 0)) {
+                        next = l.nextPollAt;
+                        skipped = true;
+                    }
+                }
+                if (skipped && (!wakeupScheduled || next - wakeupAt < 0)) {
+                    wakeupScheduled = true;
+                    wakeupAt = next;
+                    delay = Math.max(0, next - now);
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (delay >= 0) {
+            scheduler.schedule(this::wakeup, delay, TimeUnit.NANOSECONDS);
+        }
+        for (int i = 0; i < toPoll.size(); i++) {
+            poll(toPoll.get(i), sizes.get(i));
+        }
+    }
+
+    private void wakeup() {
+        lock.lock();
+        try {
+            wakeupScheduled = false;
+        } finally {
+            lock.unlock();
+        }
+        schedulePolls();
+    }
+
+    private void poll(Lane lane, int n) {
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("Polling up to " + n + " messages from queue " + lane.queue.getName() + "...");
+        }
+        try {
+            lane.queue.pollBatchAsync(n, pollSettings).whenComplete((messages, e) -> polled(lane, n, messages, e));
+        } catch (RuntimeException e) {
+            polled(lane, n, null, e);
+        }
+    }
+
+    private void polled(Lane lane, int n, List<IronMessage> messages, Throwable error) {
+        List<IronMessage> unprocessed = Collections.emptyList();
+        lock.lock();
+        try {
+            polling--;
+            lane.requested -= n;
+            if (error != null || messages.isEmpty()) {
+                lane.emptyPolls++;
+                long skip = Math.min(MAX_SKIP_NANOS, MIN_SKIP_NANOS << Math.min(lane.emptyPolls - 1, 20));
+                // an open circuit fails every poll until it lets calls through
+                skip = Math.max(skip, TimeUnit.MILLISECONDS.toNanos(PollBackoff.retryAfter(error)));
+                lane.nextPollAt = System.nanoTime() + skip;
+            } else {
+                lane.emptyPolls = 0;
+                lane.nextPollAt = System.nanoTime();
+                if (lifecycle.isRunning()) {
+                    lane.buffer.addAll(messages);
+                    available.signalAll();
+                } else {
+                    // stopped during the poll
+                    unprocessed = messages;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (error != null) {
+            Throwable cause = error.getCause() != null ? error.getCause() : error;
+            LOGGER.log(Level.SEVERE, "Error in poller for queue " + lane.queue.getName() + " from project " + lane.queue.getProject().getId() + ": " + cause.getMessage(), cause);
+        }
+        IronQueue.release(unprocessed);
+        lifecycle.exitPoll();
+        schedulePolls();
+    }
+
+    /**
+     * Priority of the first lane having buffered messages, or still polling after a non-empty poll:
+     * lanes of lower priorities are not polled until it runs dry.
+     */
+    private int backlogPriority() {
+        for (Lane lane : lanes) {
+            if (!lane.buffer.isEmpty() || lane.requested > 0 && lane.emptyPolls == 0) return lane.priority;
+        }
+        return Integer.MIN_VALUE;
+    }
+
+    /**
+     * Smooth weighted round-robin among the eligible lanes of the highest priority having one:
+     * each eligible lane earns its weight, the richest is selected and pays the total.
+     *
+     * @param poll true to select a lane to poll, false a lane to take a message from
+     */
+    private Lane select(boolean poll, long now) {
+        Lane selected = null;
+        int total = 0;
+        int floor = poll ? backlogPriority() : Integer.MIN_VALUE;
+        for (Lane lane : lanes) {
+            if (lane.priority < floor || selected != null && lane.priority < selected.priority) break;
+            if (poll ? lane.buffer.size() + lane.requested >= lane.capacity || lane.nextPollAt - now > 0 : lane.buffer.isEmpty()) continue;
+            total += lane.weight;
+            if (poll) {
+                lane.pollCredit += lane.weight;
+                if (selected == null || lane.pollCredit > selected.pollCredit) selected = lane;
+            } else {
+                lane.takeCredit += lane.weight;
+                if (selected == null || lane.takeCredit > selected.takeCredit) selected = lane;
+            }
+        }
+        if (selected != null) {
+            if (poll) {
+                selected.pollCredit -= total;
+            } else {
+                selected.takeCredit -= total;
+            }
+        }
+        return selected;
+    }
+
+    private void work() {
+        while (lifecycle.isRunning() && !Thread.currentThread().isInterrupted()) {
+            Lane lane;
+            IronMessage message;
+            lock.lock();
+            try {
+                lane = select(false, 0);
+                if (lane == null) {
+                    if (lifecycle.isRunning()) {
+                        available.await(1, TimeUnit.SECONDS);
+                    }
+                    continue;
+                }
+                message = lane.buffer.poll();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } finally {
+                lock.unlock();
+            }
+            if (!lifecycle.enter()) {
+                // stopped after the buffers were released
+                IronQueue.release(Collections.singletonList(message));
+                return;
+            }
+            try {
+                // room in the buffer of this lane
+                schedulePolls();
+                handle(lane, message);
+            } finally {
+                lifecycle.exit();
+            }
+        }
+    }
+
+    private void handle(Lane lane, IronMessage message) {
+        if (System.nanoTime() - message.getReservedAt() >= timeoutNanos) {
+            // reservation lost while buffered: the message is back on the queue
+            LOGGER.warning("Skipping message " + message.getId() + " from queue " + lane.queue.getName() + ": reservation expired while buffered");
+            return;
+        }
+        IronLeaseManager.Lease lease = pollSettings.getLeaseMaxRenewals() > 0 ?
+            lane.queue.getProject().getClient().getLeaseManager().track(message, pollSettings.getLeaseMaxRenewals()) :
+            null;
+        try {
+            consumer.accept(message);
+        } catch (RuntimeException e) {
+            if (lease != null) {
+                lease.close();
+            }
+            onError.accept(message, e);
+            return;
+        } finally {
+            lane.handled.increment();
+        }
+        if (acknowledger != null) {
+            // the lease is closed once the batched delete is done
+            acknowledger.acknowledge(message, lease);
+            return;
+        }
+        try {
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("Removing message " + message.getId());
+            }
+            message.delete();
+        } catch (RuntimeException e) {
+            onError.accept(message, e);
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    /**
+     * A queue consumed by a {@link IronMultiQueuePoller}, with its scheduling parameters and its lag
+     */
+    public final class Lane {
+
+        private final IronQueue queue;
+        private final int priority;
+        private final int weight;
+        private final ArrayDeque<IronMessage> buffer = new ArrayDeque<>();
+        private final LongAdder handled = new LongAdder();
+        // guarded by the poller lock
+        private int capacity;
+        // messages asked by its running polls
+        private int requested;
+        private int emptyPolls;
+        private long nextPollAt = System.nanoTime();
+        private long pollCredit;
+        private long takeCredit;
+
+        private Lane(IronQueue queue, int priority, int weight) {
+            this.queue = queue;
+            this.priority = priority;
+            this.weight = weight;
+        }
+
+        public IronQueue getQueue() {
+            return queue;
+        }
+
+        public int getPriority() {
+            return priority;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        /**
+         * Number of messages handed to the consumer
+         */
+        public long getHandled() {
+            return handled.sum();
+        }
+
+        /**
+         * Number of reserved messages waiting for a worker
+         */
+        public int getBuffered() {
+            lock.lock();
+            try {
+                return buffer.size();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * How long the oldest buffered message has been waiting for a worker since it was reserved, or 0 if none is buffered
+         */
+        public long getLag(TimeUnit unit) {
+            lock.lock();
+            try {
+                IronMessage oldest = buffer.peek();
+                return oldest == null ? 0 : unit.convert(System.nanoTime() - oldest.getReservedAt(), TimeUnit.NANOSECONDS);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Number of consecutive empty or failed polls. The queue is skipped for a while after each of them.
+         */
+        public int getEmptyPolls() {
+            lock.lock();
+            try {
+                return emptyPolls;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return queue.getName() + " (priority=" + priority + ", weight=" + weight + ")";
+        }
+    }
+
+}
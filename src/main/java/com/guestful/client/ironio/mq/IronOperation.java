@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.ws.rs.HttpMethod;
+
+/**
+ * Kinds of requests sent to IronMQ, as reported to {@link IronMetrics}
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public enum IronOperation {
+
+    OFFER,
+    POLL,
+    DELETE,
+    TOUCH,
+    RELEASE,
+    INFO,
+    /**
+     * Queue listing, creation, update and deletion
+     */
+    ADMIN;
+
+    /**
+     * @param template endpoint template, i.e. <code>projects/123/queues/{queue}/messages/{id}/touch</code>
+     */
+    static IronOperation of(String method, String template) {
+        if (template.endsWith("/touch")) return TOUCH;
+        if (template.endsWith("/release")) return RELEASE;
+        if (template.endsWith("/messages")) {
+            switch (method) {
+                case HttpMethod.GET:
+                    return POLL;
+                case HttpMethod.POST:
+                    return OFFER;
+                case HttpMethod.DELETE:
+                    return DELETE;
+                default:
+                    return ADMIN;
+            }
+        }
+        if (template.endsWith("/messages/{id}") && HttpMethod.DELETE.equals(method)) return DELETE;
+        if (template.endsWith("/{queue}") && HttpMethod.GET.equals(method)) return INFO;
+        return ADMIN;
+    }
+
+}
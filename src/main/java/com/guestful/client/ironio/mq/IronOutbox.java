@@ -0,0 +1,212 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Durable local outbox: offers made with {@link IronSettings#setOutbox(IronOutbox)} are appended to a write-ahead log
+ * of memory-mapped files in a directory and return right away, whatever the latency or availability of IronMQ.
+ * <p>
+ * The log is flushed to disk every sync interval for all the messages appended meanwhile (group fsync):
+ * {@link #offer(IronQueue, List, IronSettings)} returns a future completed at that time.
+ * A background thread ships the log to IronMQ in batches of consecutive messages of a queue, with the settings of the project,
+ * and checkpoints its progress. Messages not shipped yet are shipped again after a restart with the same directory.
+ * <p>
+ * Delivery is at least once: a crash between a shipment and its checkpoint ships its batch again.
+ * Message delays count from the offer; timeouts and expirations from the shipment. Batches rejected by IronMQ
+ * as invalid (400) or too large (413) are logged and dropped, so that one bad message does not block the others.
+ * Any other failure, including authentication errors, is retried until IronMQ accepts the batch.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronOutbox implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(IronOutbox.class.getName());
+
+    public static final int DEF_SEGMENT_SIZE = 16 * 1024 * 1024;
+    public static final int MIN_SEGMENT_SIZE = 64 * 1024;
+    public static final long DEF_SYNC_INTERVAL = 10;
+
+    private static final long MIN_RETRY_DELAY = 100;
+    private static final long MAX_RETRY_DELAY = 30_000;
+
+    private final IronProject project;
+    private final WriteAheadLog log;
+    private final long syncIntervalMillis;
+    private final ScheduledExecutorService executor;
+    private volatile boolean running = true;
+
+    /**
+     * Opens or creates an outbox with segments of 16MB synced every 10ms
+     */
+    public IronOutbox(IronProject project, Path directory) throws IOException {
+        this(project, directory, DEF_SEGMENT_SIZE, DEF_SYNC_INTERVAL, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @param segmentSize  size of the log files in bytes, and maximum size of a message
+     * @param syncInterval time between two flushes of the log to disk
+     */
+    public IronOutbox(IronProject project, Path directory, int segmentSize, long syncInterval, TimeUnit unit) throws IOException {
+        if (segmentSize < MIN_SEGMENT_SIZE || syncInterval <= 0) throw new IllegalArgumentException();
+        this.project = project;
+        this.syncIntervalMillis = Math.max(1, unit.toMillis(syncInterval));
+        this.log = new WriteAheadLog(directory, segmentSize);
+        this.executor = Executors.newScheduledThreadPool(2, r -> {
+            Thread t = new Thread(r, "iron-mq-outbox");
+            t.setDaemon(true);
+            return t;
+        });
+        executor.scheduleWithFixedDelay(log::sync, syncIntervalMillis, syncIntervalMillis, TimeUnit.MILLISECONDS);
+        executor.execute(this::ship);
+    }
+
+    public IronProject getProject() {
+        return project;
+    }
+
+    /**
+     * Number of messages not shipped yet
+     */
+    public long getPending() {
+        return log.getPending();
+    }
+
+    /**
+     * Appends messages to the log. The delay, timeout and expiration of the settings are kept with them.
+     *
+     * @return a future completed when the messages are on disk
+     */
+    public CompletableFuture<Void> offer(IronQueue queue, List<String> bodies, IronSettings settings) {
+        if (queue.getProject() != project) {
+            throw new IllegalArgumentException("Queue " + queue.getName() + " does not belong to project " + project.getId());
+        }
+        if (!running) {
+            throw new IllegalStateException("Outbox closed");
+        }
+        try {
+            return log.append(queue.getName(), bodies, System.currentTimeMillis(), settings.getMessageDelay(), settings.getMessageTimeout(), settings.getMessageExpiration());
+        } catch (IOException e) {
+            throw new IronException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Waits until all the messages are shipped
+     *
+     * @return false if some were still pending at the end of the timeout
+     */
+    public boolean awaitEmpty(long timeout, TimeUnit unit) throws InterruptedException {
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (getPending() > 0) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            Thread.sleep(syncIntervalMillis);
+        }
+        return true;
+    }
+
+    /**
+     * Stops shipping and flushes the log. Messages not shipped yet stay in the directory for the next outbox opened on it.
+     */
+    @Override
+    public void close() {
+        running = false;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        log.close();
+    }
+
+    private void ship() {
+        long retryDelay = MIN_RETRY_DELAY;
+        while (running) {
+            IronSettings base = project.getSettings();
+            WriteAheadLog.Batch batch = log.read(IronSettings.MAX_BATCH, base.getProducerBatchBytes());
+            if (batch == null) {
+                sleep(syncIntervalMillis);
+                continue;
+            }
+            try {
+                IronQueue queue = project.getQueue(batch.queue);
+                queue.post(batch.getBodies(), settings(base, batch), batch.getBodies());
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.finest("Shipped " + batch.bodies.size() + " messages to queue " + batch.queue);
+                }
+                commit(batch);
+                retryDelay = MIN_RETRY_DELAY;
+            } catch (IronClientException e) {
+                if (e.getStatusCode() == 400 || e.getStatusCode() == 413) {
+                    LOGGER.log(Level.SEVERE, "Dropping " + batch.bodies.size() + " messages rejected by queue " + batch.queue + ": " + e.getMessage(), e);
+                    commit(batch);
+                } else {
+                    retryDelay = retry(batch, e, retryDelay);
+                }
+            } catch (RuntimeException e) {
+                retryDelay = retry(batch, e, retryDelay);
+            }
+        }
+    }
+
+    private long retry(WriteAheadLog.Batch batch, Exception e, long retryDelay) {
+        LOGGER.log(Level.WARNING, "Unable to ship " + batch.bodies.size() + " messages to queue " + batch.queue + ", retrying in " + retryDelay + "ms: " + e.getMessage(), e);
+        sleep(retryDelay);
+        return Math.min(MAX_RETRY_DELAY, retryDelay * 2);
+    }
+
+    private void commit(WriteAheadLog.Batch batch) {
+        try {
+            log.commit(batch);
+        } catch (IOException e) {
+            LOGGER.log(Level.SEVERE, "Unable to checkpoint outbox: " + e.getMessage(), e);
+        }
+    }
+
+    private void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static IronSettings settings(IronSettings base, WriteAheadLog.Batch batch) {
+        long elapsed = TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis() - batch.offeredAt);
+        return base.copy()
+            .setOutbox(null)
+            .setMessageDelay(Math.max(0, batch.delay - elapsed), TimeUnit.SECONDS)
+            .setMessageTimeout(batch.timeout, TimeUnit.SECONDS)
+            .setMessageExpiration(batch.expiration, TimeUnit.SECONDS);
+    }
+
+}
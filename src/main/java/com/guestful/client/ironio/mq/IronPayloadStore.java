@@ -0,0 +1,42 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.io.IOException;
+
+/**
+ * Storage of the message payloads too big to be sent to IronMQ (claim-check pattern):
+ * the payload is stored and only a reference to it is enqueued.
+ * <p>
+ * Producers and consumers of a queue must use the same store. See {@link IronSettings#setPayloadStore(IronPayloadStore)}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public interface IronPayloadStore {
+
+    /**
+     * @return the key of the stored payload, made of characters valid in a JSON string
+     */
+    String put(byte[] payload) throws IOException;
+
+    byte[] get(String key) throws IOException;
+
+    /**
+     * Called when the message referencing the payload is deleted. Removing an unknown key does nothing.
+     */
+    void remove(String key) throws IOException;
+
+}
@@ -15,6 +15,9 @@
  */
 package com.guestful.client.ironio.mq;
 
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
 /**
  * date 2014-06-04
  *
@@ -22,5 +25,43 @@ package com.guestful.client.ironio.mq;
  */
 public interface IronPoller {
     IronQueue getQueue();
+
     void stop();
+
+    /**
+     * Stops reserving messages and moves to {@link IronPollerState#DRAINING}. Messages reserved but not handed to a handler yet,
+     * including the ones returned later by a poll in progress, are released: they are visible again right away instead of after
+     * their timeout. Handlers in progress complete: see {@link #drain(Duration)} to wait for them.
+     * <p>
+     * Defaults to {@link #stop()} for pollers without a drain lifecycle.
+     */
+    default void stopAccepting() {
+        stop();
+    }
+
+    /**
+     * Stops accepting, then waits for the poll and the handlers in progress and the deletes of their messages.
+     * <p>
+     * Pollers without a drain lifecycle are stopped and cannot tell when their handlers are done: the default completes with false right away.
+     *
+     * @return completed with true once {@link IronPollerState#STOPPED}, or with false if handlers were still running after the timeout
+     */
+    default CompletableFuture<Boolean> drain(Duration timeout) {
+        stop();
+        return CompletableFuture.completedFuture(false);
+    }
+
+    /**
+     * Defaults to {@link IronPollerState#RUNNING} for pollers without a drain lifecycle, which do not track their state
+     */
+    default IronPollerState getState() {
+        return IronPollerState.RUNNING;
+    }
+
+    /**
+     * Number of messages reserved by this poller and not yet handled, buffered ones included
+     */
+    default int getInFlight() {
+        return 0;
+    }
 }
@@ -0,0 +1,242 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.lang.reflect.Method;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs many {@link IronQueue#asyncPoll(Executor, Consumer, BiConsumer, IronSettings)} pollers, one thread each.
+ * <p>
+ * On JDK 21+, these threads are virtual: a poller blocked in a long poll, a backoff sleep or waiting for a handler slot
+ * does not hold a platform thread, so thousands of mostly idle queues run on a few carrier threads.
+ * The client does not block while holding a monitor on these paths, so carriers are not pinned.
+ * On older JVMs, it falls back to one platform daemon thread per poller.
+ * <p>
+ * At most <code>maxConcurrentHandlers</code> consumers run at once, whatever the number of pollers.
+ * A poller waiting for a slot keeps its messages reserved: use {@link IronSettings#setLeaseMaxRenewals(int)} if the wait can be long.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronPollerRuntime implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(IronPollerRuntime.class.getName());
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final boolean virtual;
+    private final Executor executor;
+    private final ExecutorService platformPool;
+    private final int maxConcurrentHandlers;
+    private final Semaphore handlers;
+    private final Set<IronPoller> pollers = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Uses virtual threads when available, with as many concurrent handlers as processors
+     */
+    public IronPollerRuntime() {
+        this(Runtime.getRuntime().availableProcessors(), true);
+    }
+
+    public IronPollerRuntime(int maxConcurrentHandlers) {
+        this(maxConcurrentHandlers, true);
+    }
+
+    /**
+     * @param virtualThreads false to use platform threads even if virtual threads are available
+     */
+    public IronPollerRuntime(int maxConcurrentHandlers, boolean virtualThreads) {
+        if (maxConcurrentHandlers < 1) throw new IllegalArgumentException();
+        this.maxConcurrentHandlers = maxConcurrentHandlers;
+        this.handlers = new Semaphore(maxConcurrentHandlers);
+        ThreadFactory factory = virtualThreads ? virtualThreadFactory() : null;
+        this.virtual = factory != null;
+        if (virtual) {
+            this.platformPool = null;
+            this.executor = task -> factory.newThread(task).start();
+        } else {
+            this.platformPool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "iron-mq-poller-" + THREADS.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            this.executor = platformPool;
+        }
+    }
+
+    /**
+     * @return true if the JVM supports virtual threads (JDK 21+)
+     */
+    public static boolean isVirtualThreadsSupported() {
+        return virtualThreadFactory() != null;
+    }
+
+    /**
+     * @return true if pollers run on virtual threads
+     */
+    public boolean isVirtual() {
+        return virtual;
+    }
+
+    /**
+     * Executor starting a new thread per task, for other blocking work on the same threads
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    public int getMaxConcurrentHandlers() {
+        return maxConcurrentHandlers;
+    }
+
+    public int getRunningHandlers() {
+        return maxConcurrentHandlers - handlers.availablePermits();
+    }
+
+    /**
+     * Number of pollers started and not stopped
+     */
+    public int getPollers() {
+        return pollers.size();
+    }
+
+    public IronPoller poll(IronQueue queue, Consumer<IronMessage> consumer) {
+        return poll(queue, consumer, IronQueue::logError, queue.getProject().getSettings());
+    }
+
+    /**
+     * Starts a poller on this runtime, see {@link IronQueue#asyncPoll(Executor, Consumer, BiConsumer, IronSettings)}
+     */
+    public IronPoller poll(IronQueue queue, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        IronPoller poller = queue.asyncPoll(executor, message -> {
+            try {
+                handlers.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IronException("Interrupted while waiting for a handler slot", e);
+            }
+            try {
+                consumer.accept(message);
+            } finally {
+                handlers.release();
+            }
+        }, onError, settings);
+        IronPoller handle = new IronPoller() {
+            @Override
+            public IronQueue getQueue() {
+                return poller.getQueue();
+            }
+
+            @Override
+            public void stop() {
+                stopAccepting();
+            }
+
+            @Override
+            public void stopAccepting() {
+                pollers.remove(this);
+                poller.stopAccepting();
+            }
+
+            @Override
+            public CompletableFuture<Boolean> drain(Duration timeout) {
+                pollers.remove(this);
+                return poller.drain(timeout);
+            }
+
+            @Override
+            public IronPollerState getState() {
+                return poller.getState();
+            }
+
+            @Override
+            public int getInFlight() {
+                return poller.getInFlight();
+            }
+        };
+        pollers.add(handle);
+        return handle;
+    }
+
+    /**
+     * Drains all the pollers, see {@link IronPoller#drain(Duration)}
+     *
+     * @return completed with true once all the pollers are stopped, or with false if handlers were still running after the timeout
+     */
+    public CompletableFuture<Boolean> drain(Duration timeout) {
+        List<CompletableFuture<Boolean>> drains = new ArrayList<>();
+        for (IronPoller poller : pollers) {
+            drains.add(poller.drain(timeout));
+        }
+        return CompletableFuture.allOf(drains.toArray(new CompletableFuture<?>[0]))
+            .thenApply(v -> drains.stream().allMatch(CompletableFuture::join));
+    }
+
+    /**
+     * Stops all the pollers without waiting for their handlers. Threads blocked in a long poll end with it.
+     */
+    @Override
+    public void close() {
+        for (IronPoller poller : pollers) {
+            poller.stop();
+        }
+        if (platformPool != null) {
+            platformPool.shutdown();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return (virtual ? "virtual" : "platform") + " threads, pollers=" + getPollers() + ", handlers=" + getRunningHandlers() + "/" + maxConcurrentHandlers;
+    }
+
+    /**
+     * <code>Thread.ofVirtual().name("iron-mq-poller-", 0).factory()</code>, through reflection since this library targets Java 8
+     *
+     * @return null if virtual threads are not available
+     */
+    private static ThreadFactory virtualThreadFactory() {
+        try {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, "iron-mq-poller-", 0L);
+            Method factory = builderClass.getMethod("factory");
+            return (ThreadFactory) factory.invoke(builder);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            // before JDK 21, or JDK 19-20 without --enable-preview
+            if (LOGGER.isLoggable(Level.FINE)) {
+                LOGGER.fine("Virtual threads not available: " + e);
+            }
+            return null;
+        }
+    }
+
+}
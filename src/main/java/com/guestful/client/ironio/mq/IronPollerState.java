@@ -0,0 +1,40 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+/**
+ * See {@link IronPoller#getState()}
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public enum IronPollerState {
+
+    /**
+     * Reserving and handling messages
+     */
+    RUNNING,
+
+    /**
+     * Not reserving messages anymore: the handlers in progress are completing
+     */
+    DRAINING,
+
+    /**
+     * No handler is running and none will: reserved messages were all handled or released
+     */
+    STOPPED
+
+}
@@ -0,0 +1,236 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.JsonObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Buffers the messages offered to one queue with one set of settings and sends them in batches.
+ * A batch is sent when it reaches {@link IronSettings#getProducerBatchSize()} messages,
+ * {@link IronSettings#getProducerBatchBytes()} bytes of bodies, or when its first message has waited
+ * {@link IronSettings#getProducerLinger()} milliseconds.
+ * <p>
+ * Each call to {@link #send(JsonObject)} returns a future completed with the id assigned by IronMQ
+ * (<code>null</code> when the client is disabled), or completed exceptionally if its batch could not be sent.
+ * <p>
+ * Batches are sent from the executor given to {@link IronQueue#producer(Executor, IronSettings)}, or without blocking
+ * any thread when none was given: the linger timers run on the client scheduler, which never waits for IronMQ.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronProducer implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(IronProducer.class.getName());
+
+    // approximate size of the fields added around each body
+    private static final int MESSAGE_OVERHEAD = 64;
+
+    private final IronQueue queue;
+    private final IronSettings settings;
+    // null to send without blocking
+    private final Executor executor;
+    private final ScheduledExecutorService scheduler;
+    private final Object lock = new Object();
+    private List<Pending> batch = new ArrayList<>();
+    private int batchBytes;
+    private ScheduledFuture<?> lingerTask;
+    private boolean closed;
+
+    IronProducer(IronQueue queue, IronSettings settings, Executor executor, ScheduledExecutorService scheduler) {
+        this.queue = queue;
+        this.settings = settings.snapshot();
+        this.executor = executor;
+        this.scheduler = scheduler;
+    }
+
+    public IronQueue getQueue() {
+        return queue;
+    }
+
+    public IronSettings getSettings() {
+        return settings;
+    }
+
+    public CompletableFuture<String> send(JsonObject message) {
+        return send(message.toString());
+    }
+
+    /**
+     * Sends an already serialized message body
+     */
+    public CompletableFuture<String> send(String body) {
+        Pending pending = new Pending(body);
+        List<Pending> overflow = null;
+        List<Pending> full = null;
+        synchronized (lock) {
+            if (closed) throw new IronException("Producer for queue " + queue.getName() + " is closed");
+            if (!batch.isEmpty() && batchBytes + pending.size > settings.getProducerBatchBytes()) {
+                overflow = drain();
+            }
+            batch.add(pending);
+            batchBytes += pending.size;
+            if (batch.size() >= settings.getProducerBatchSize() || batchBytes >= settings.getProducerBatchBytes()) {
+                full = drain();
+            } else if (batch.size() == 1) {
+                lingerTask = scheduler.schedule(this::flushAsync, settings.getProducerLinger(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (overflow != null) {
+            dispatch(overflow);
+        }
+        if (full != null) {
+            dispatch(full);
+        }
+        return pending.future;
+    }
+
+    /**
+     * Sends the buffered messages now, on the calling thread.
+     */
+    public void flush() {
+        List<Pending> ready;
+        synchronized (lock) {
+            ready = drain();
+        }
+        send(ready);
+    }
+
+    /**
+     * Sends the buffered messages. Further calls to {@link #send(JsonObject)} fail.
+     */
+    @Override
+    public void close() {
+        synchronized (lock) {
+            closed = true;
+        }
+        flush();
+    }
+
+    private void flushAsync() {
+        List<Pending> ready;
+        synchronized (lock) {
+            ready = drain();
+        }
+        dispatch(ready);
+    }
+
+    // must hold lock
+    private List<Pending> drain() {
+        if (lingerTask != null) {
+            lingerTask.cancel(false);
+            lingerTask = null;
+        }
+        List<Pending> drained = batch;
+        batch = new ArrayList<>();
+        batchBytes = 0;
+        return drained;
+    }
+
+    private void dispatch(List<Pending> ready) {
+        if (ready.isEmpty()) return;
+        if (executor == null) {
+            sendAsync(ready);
+            return;
+        }
+        try {
+            executor.execute(() -> send(ready));
+        } catch (RuntimeException e) {
+            for (Pending pending : ready) {
+                pending.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void send(List<Pending> ready) {
+        if (ready.isEmpty()) return;
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("Sending " + ready.size() + " messages to queue " + queue.getName());
+        }
+        List<String> bodies = new ArrayList<>(ready.size());
+        for (Pending pending : ready) {
+            bodies.add(pending.body);
+        }
+        List<String> ids;
+        try {
+            ids = queue.post(bodies, settings, bodies);
+        } catch (RuntimeException e) {
+            failed(ready, e);
+            return;
+        }
+        sent(ready, ids);
+    }
+
+    private void sendAsync(List<Pending> ready) {
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("Sending " + ready.size() + " messages to queue " + queue.getName());
+        }
+        List<String> bodies = new ArrayList<>(ready.size());
+        for (Pending pending : ready) {
+            bodies.add(pending.body);
+        }
+        CompletionStage<List<String>> post;
+        try {
+            post = queue.postAsync(bodies, settings, bodies);
+        } catch (RuntimeException e) {
+            failed(ready, e);
+            return;
+        }
+        post.whenComplete((ids, e) -> {
+            if (e != null) {
+                Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                failed(ready, cause);
+            } else {
+                sent(ready, ids);
+            }
+        });
+    }
+
+    private void sent(List<Pending> ready, List<String> ids) {
+        for (int i = 0; i < ready.size(); i++) {
+            ready.get(i).future.complete(i < ids.size() ? ids.get(i) : null);
+        }
+    }
+
+    private void failed(List<Pending> ready, Throwable e) {
+        LOGGER.log(Level.WARNING, "Unable to send " + ready.size() + " messages to queue " + queue.getName() + " from project " + queue.getProject().getId() + ": " + e.getMessage(), e);
+        for (Pending pending : ready) {
+            pending.future.completeExceptionally(e);
+        }
+    }
+
+    private static final class Pending {
+        final String body;
+        final int size;
+        final CompletableFuture<String> future = new CompletableFuture<>();
+
+        Pending(String body) {
+            this.body = body;
+            this.size = body.length() + MESSAGE_OVERHEAD;
+        }
+    }
+
+}
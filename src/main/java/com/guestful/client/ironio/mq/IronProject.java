@@ -17,11 +17,15 @@ package com.guestful.client.ironio.mq;
 
 import javax.json.*;
 import javax.ws.rs.HttpMethod;
-import javax.ws.rs.core.MultivaluedHashMap;
-import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 /**
@@ -35,11 +39,17 @@ public class IronProject {
     private final String id;
     private final String token;
     private final IronSettings settings = new IronSettings();
+    private final Map<String, QueueInfoLoad> queueInfos = new ConcurrentHashMap<>();
+    private final Map<String, IronQueue> queues = new ConcurrentHashMap<>();
+    private final IronEndpoint endpoint;
+    private final IronEndpoint queuesEndpoint;
 
     IronProject(IronClient client, String id, String token) {
         this.client = client;
         this.id = id;
         this.token = token;
+        this.endpoint = new IronEndpoint(client.getTarget() == null ? null : client.getTarget().path("projects/" + id).queryParam("oauth", token), "projects/" + id, "projects/" + id);
+        this.queuesEndpoint = endpoint.path("queues");
     }
 
     public IronSettings getSettings() {
@@ -64,7 +74,14 @@ public class IronProject {
     }
 
     public Collection<IronQueue> getQueues() {
-        Response response = request(getSettings(), HttpMethod.GET, "queues");
+        return readQueues(getClient().request(getSettings(), HttpMethod.GET, queuesEndpoint, null));
+    }
+
+    public CompletionStage<Collection<IronQueue>> getQueuesAsync() {
+        return getClient().requestAsync(getSettings(), HttpMethod.GET, queuesEndpoint, null).thenApply(this::readQueues);
+    }
+
+    private Collection<IronQueue> readQueues(Response response) {
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
             throw new IronClientException(response);
         }
@@ -74,9 +91,20 @@ public class IronProject {
             .collect(Collectors.toList());
     }
 
+    /**
+     * Returns the handle of a queue. Handles are created once per name and reused.
+     * <p>
+     * The project keeps the handle of every name it was asked for, including the queues listed by {@link #getQueues()},
+     * until the queue is deleted with {@link IronQueue#delete()}. Applications using an unbounded set of queue names
+     * should delete the queues they are done with.
+     */
     public IronQueue getQueue(String name) {
-        ensureValidQueueName(name);
-        return new IronQueue(this, name);
+        IronQueue queue = queues.get(name);
+        if (queue == null) {
+            ensureValidQueueName(name);
+            queue = queues.computeIfAbsent(name, n -> new IronQueue(this, n));
+        }
+        return queue;
     }
 
     public IronQueue newPullQueue(String name) {
@@ -120,31 +148,93 @@ public class IronProject {
                 body.add("error_queue", settings.getErrorQueuename());
             }
         }
-        Response response = request(settings, HttpMethod.POST, "queues/" + name, body.build());
+        IronQueue queue = getQueue(name);
+        Response response = getClient().request(settings, HttpMethod.POST, queue.getEndpoint(), body.build());
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
             throw new IronClientException(response);
         }
-        return new IronQueue(this, name);
+        return queue;
     }
 
-    Response request(IronSettings settings, String method, String path) {
-        if (!path.startsWith("/")) path = "/" + path;
-        MultivaluedMap<String, Object> queryParams = new MultivaluedHashMap<>();
-        queryParams.putSingle("oauth", getToken());
-        return getClient().request(settings, method, "projects/" + getId() + path, queryParams);
+    IronEndpoint getQueuesEndpoint() {
+        return queuesEndpoint;
     }
 
-    Response request(IronSettings settings, String method, String path, JsonObject body) {
-        if (!path.startsWith("/")) path = "/" + path;
-        MultivaluedMap<String, Object> queryParams = new MultivaluedHashMap<>();
-        queryParams.putSingle("oauth", getToken());
-        return getClient().request(settings, method, "projects/" + getId() + path, body, queryParams);
+    IronQueueInfo getQueueInfo(IronQueue queue) {
+        QueueInfoLoad load = new QueueInfoLoad();
+        QueueInfoLoad current = queueInfoLoad(queue.getName(), load);
+        if (current == load) {
+            // this thread is the one loading
+            try {
+                load.complete(queue.readInfo(getClient().request(getSettings(), HttpMethod.GET, queue.getEndpoint(), null)));
+            } catch (RuntimeException e) {
+                load.fail(queueInfos, queue.getName(), e);
+                throw e;
+            }
+        }
+        try {
+            return current.future.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    CompletionStage<IronQueueInfo> getQueueInfoAsync(IronQueue queue) {
+        QueueInfoLoad load = new QueueInfoLoad();
+        QueueInfoLoad current = queueInfoLoad(queue.getName(), load);
+        if (current == load) {
+            getClient().requestAsync(getSettings(), HttpMethod.GET, queue.getEndpoint(), null)
+                .thenApply(queue::readInfo)
+                .whenComplete((info, e) -> {
+                    if (e != null) {
+                        load.fail(queueInfos, queue.getName(), e);
+                    } else {
+                        load.complete(info);
+                    }
+                });
+        }
+        return current.future;
     }
 
-    Response request(IronSettings settings, String method, String path, MultivaluedMap<String, Object> queryParams) {
-        if (!path.startsWith("/")) path = "/" + path;
-        queryParams.putSingle("oauth", getToken());
-        return getClient().request(settings, method, "projects/" + getId() + path, queryParams);
+    void removeQueue(IronQueue queue) {
+        queues.remove(queue.getName(), queue);
+        queueInfos.remove(queue.getName());
+    }
+
+    /**
+     * @return the load in progress or still fresh for this queue, or the given candidate if it must be started
+     */
+    private QueueInfoLoad queueInfoLoad(String name, QueueInfoLoad candidate) {
+        long ttl = TimeUnit.MILLISECONDS.toNanos(getSettings().getInfoCacheTtl());
+        while (true) {
+            QueueInfoLoad current = queueInfos.get(name);
+            if (current != null && current.isUsable(ttl)) {
+                return current;
+            }
+            if (current == null ? queueInfos.putIfAbsent(name, candidate) == null : queueInfos.replace(name, current, candidate)) {
+                return candidate;
+            }
+        }
+    }
+
+    private static final class QueueInfoLoad {
+        final CompletableFuture<IronQueueInfo> future = new CompletableFuture<>();
+        volatile long loadedAt;
+
+        boolean isUsable(long ttl) {
+            // in flight, or loaded and not expired
+            return !future.isDone() || !future.isCompletedExceptionally() && System.nanoTime() - loadedAt < ttl;
+        }
+
+        void complete(IronQueueInfo info) {
+            loadedAt = System.nanoTime();
+            future.complete(info);
+        }
+
+        void fail(Map<String, QueueInfoLoad> loads, String name, Throwable e) {
+            loads.remove(name, this);
+            future.completeExceptionally(e);
+        }
     }
 
     private static void ensureValidQueueName(String name) {
@@ -19,19 +19,25 @@ import javax.json.Json;
 import javax.json.JsonArray;
 import javax.json.JsonArrayBuilder;
 import javax.json.JsonObject;
+import javax.json.stream.JsonParser;
+import javax.json.stream.JsonParserFactory;
 import javax.ws.rs.HttpMethod;
-import javax.ws.rs.core.MultivaluedHashMap;
-import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
-import java.io.StringReader;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
@@ -44,13 +50,25 @@ import java.util.logging.Logger;
 public class IronQueue {
 
     private static final Logger LOGGER = Logger.getLogger(IronQueue.class.getName());
+    private static final JsonParserFactory PARSERS = Json.createParserFactory(null);
 
     private final IronProject project;
     private final String name;
+    private final String encodedName;
+    private final IronEndpoint endpoint;
+    private final IronEndpoint messagesEndpoint;
+    private volatile PollEndpoint lastPollEndpoint;
 
     IronQueue(IronProject project, String name) {
         this.project = project;
         this.name = name;
+        try {
+            this.encodedName = URLEncoder.encode(name, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e.getMessage(), e);
+        }
+        this.endpoint = project.getQueuesEndpoint().path(encodedName, "{queue}").queue(name);
+        this.messagesEndpoint = endpoint.path("messages");
     }
 
     public IronProject getProject() {
@@ -62,26 +80,37 @@ public class IronQueue {
     }
 
     public long getSize() {
-        Response response = getProject().request(getProject().getSettings(), HttpMethod.GET, "queues/" + getEncodedQueueName());
-        switch (response.getStatus()) {
-            case 404:
-                return 0;
-            case 200:
-                JsonObject body = response.readEntity(JsonObject.class);
-                return body.getJsonNumber("size").longValue();
-            default:
-                throw new IronClientException(response);
-        }
+        return getInfo().getSize();
+    }
+
+    public CompletionStage<Long> getSizeAsync() {
+        return getInfoAsync().thenApply(IronQueueInfo::getSize);
     }
 
     public long getCount() {
-        Response response = getProject().request(getProject().getSettings(), HttpMethod.GET, "queues/" + getEncodedQueueName());
+        return getInfo().getTotalMessages();
+    }
+
+    /**
+     * Reads all the queue metadata in one request.
+     * Concurrent callers share the same request, and the result is reused for {@link IronSettings#getInfoCacheTtl()} milliseconds.
+     */
+    public IronQueueInfo getInfo() {
+        return getProject().getQueueInfo(this);
+    }
+
+    public CompletionStage<IronQueueInfo> getInfoAsync() {
+        return getProject().getQueueInfoAsync(this);
+    }
+
+    IronQueueInfo readInfo(Response response) {
         switch (response.getStatus()) {
             case 404:
-                return 0;
+                return IronQueueInfo.missing(getName());
             case 200:
-                JsonObject body = response.readEntity(JsonObject.class);
-                return body.getJsonNumber("total_messages").longValue();
+                return response.hasEntity() ?
+                    IronQueueInfo.fromJson(getName(), response.readEntity(JsonObject.class)) :
+                    IronQueueInfo.missing(getName());
             default:
                 throw new IronClientException(response);
         }
@@ -95,7 +124,7 @@ public class IronQueue {
         JsonObject body = Json.createObjectBuilder()
             .add("subscribers", arrayBuilder)
             .build();
-        Response response = getProject().request(getProject().getSettings(), HttpMethod.POST, "queues/" + getEncodedQueueName(), body);
+        Response response = request(HttpMethod.POST, endpoint, body);
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
             throw new IronClientException(Collections.singletonList(body), response);
         }
@@ -126,26 +155,236 @@ public class IronQueue {
     }
 
     public void offer(Collection<JsonObject> messages, IronSettings settings) {
-        JsonArrayBuilder arrayBuilder = Json.createArrayBuilder();
+        List<String> bodies = new ArrayList<>(messages.size());
         for (JsonObject message : messages) {
-            arrayBuilder.add(Json.createObjectBuilder()
-                .add("body", message.toString())
-                .add("timeout", settings.getMessageTimeout())
-                .add("delay", settings.getMessageDelay())
-                .add("expires_in", settings.getMessageExpiration())
-                .build());
+            bodies.add(message.toString());
+        }
+        post(bodies, settings, messages);
+    }
+
+    public void offerRaw(String body) {
+        offerRaw(Collections.singletonList(body), getProject().getSettings());
+    }
+
+    public void offerRaw(Collection<String> bodies) {
+        offerRaw(bodies, getProject().getSettings());
+    }
+
+    /**
+     * Offers already serialized message bodies. They are written as is in the request.
+     */
+    public void offerRaw(Collection<String> bodies, IronSettings settings) {
+        List<String> list = bodies instanceof List ? (List<String>) bodies : new ArrayList<>(bodies);
+        post(list, settings, list);
+    }
+
+    /**
+     * Offers already serialized message bodies, encoded in UTF-8.
+     */
+    public void offerRawBytes(Collection<byte[]> bodies, IronSettings settings) {
+        if (settings.getOutbox() != null) {
+            List<String> strings = new ArrayList<>(bodies.size());
+            for (byte[] body : bodies) {
+                strings.add(new String(body, StandardCharsets.UTF_8));
+            }
+            settings.getOutbox().offer(this, strings, settings);
+            return;
+        }
+        List<byte[]> list = bodies instanceof List ? (List<byte[]>) bodies : new ArrayList<>(bodies);
+        send(list, settings, Collections.singletonList(list.size() + " messages"));
+    }
+
+    /**
+     * Creates a producer sending the messages of this queue in batches, using the project settings.
+     * Requests are sent without blocking: see {@link #offerAsync(Collection, IronSettings)}.
+     */
+    public IronProducer producer() {
+        return producer(getProject().getSettings());
+    }
+
+    public IronProducer producer(IronSettings settings) {
+        return new IronProducer(this, settings, null, getProject().getClient().getScheduler());
+    }
+
+    /**
+     * Creates a producer sending the messages of this queue in batches from the given executor.
+     */
+    public IronProducer producer(Executor executor, IronSettings settings) {
+        return new IronProducer(this, settings, executor, getProject().getClient().getScheduler());
+    }
+
+    /**
+     * Posts already serialized bodies and returns the ids assigned by IronMQ, in the same order.
+     * The returned list is empty when the client is disabled or when the bodies go to the {@link IronSettings#getOutbox()}.
+     */
+    List<String> post(List<String> bodies, IronSettings settings, Collection<?> messages) {
+        if (settings.getOutbox() != null) {
+            settings.getOutbox().offer(this, bodies, settings);
+            return Collections.emptyList();
+        }
+        return send(bodies, settings, messages);
+    }
+
+    private List<String> send(List<?> bodies, IronSettings settings, Collection<?> messages) {
+        MessagesBody body = messagesBody(bodies, settings);
+        Response response;
+        try {
+            response = getProject().getClient().request(settings, HttpMethod.POST, messagesEndpoint, body);
+        } catch (RuntimeException e) {
+            discardOffloaded(body, settings);
+            throw e;
         }
-        JsonObject body = Json.createObjectBuilder()
-            .add("messages", arrayBuilder.build())
-            .build();
-        Response response = getProject().request(settings, HttpMethod.POST, "queues/" + getEncodedQueueName() + "/messages", body);
+        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+            discardOffloaded(body, settings);
+        }
+        return readIds(response, messages);
+    }
+
+    public CompletionStage<List<String>> offerAsync(JsonObject message) {
+        return offerAsync(Collections.singletonList(message), getProject().getSettings());
+    }
+
+    public CompletionStage<List<String>> offerAsync(Collection<JsonObject> messages) {
+        return offerAsync(messages, getProject().getSettings());
+    }
+
+    /**
+     * Offers messages without blocking. The returned stage completes with the ids assigned by IronMQ.
+     */
+    public CompletionStage<List<String>> offerAsync(Collection<JsonObject> messages, IronSettings settings) {
+        List<String> bodies = new ArrayList<>(messages.size());
+        for (JsonObject message : messages) {
+            bodies.add(message.toString());
+        }
+        return postAsync(bodies, settings, messages);
+    }
+
+    /**
+     * With an {@link IronSettings#getOutbox()}, completes with no id once the bodies are on disk
+     */
+    CompletionStage<List<String>> postAsync(List<String> bodies, IronSettings settings, Collection<?> messages) {
+        if (settings.getOutbox() != null) {
+            return settings.getOutbox().offer(this, bodies, settings).thenApply(v -> Collections.emptyList());
+        }
+        MessagesBody body = messagesBody(bodies, settings);
+        CompletionStage<Response> request;
+        try {
+            request = getProject().getClient().requestAsync(settings, HttpMethod.POST, messagesEndpoint, body);
+        } catch (RuntimeException e) {
+            discardOffloaded(body, settings);
+            throw e;
+        }
+        return request
+            .whenComplete((response, e) -> {
+                if (e != null || response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
+                    discardOffloaded(body, settings);
+                }
+            })
+            .thenApply(response -> readIds(response, messages));
+    }
+
+    /**
+     * Removes the payloads stored for messages which were not enqueued: no message delete would remove them.
+     * Plain bodies starting with the claim check marker are escaped, so all the references of the body are ours.
+     */
+    private static void discardOffloaded(MessagesBody body, IronSettings settings) {
+        if (settings.getClaimCheckThreshold() == 0) return;
+        for (Object b : body.getBodies()) {
+            if (b instanceof String && ClaimCheck.isReference((String) b)) {
+                ClaimCheck.release((String) b, settings);
+            }
+        }
+    }
+
+    private MessagesBody messagesBody(List<?> bodies, IronSettings settings) {
+        if (settings.getClaimCheckThreshold() == 0 && settings.getCompressionThreshold() == 0 && !PlainBody.needsEscape(bodies)) {
+            return new MessagesBody(bodies, settings);
+        }
+        IronCompressionStats stats = getProject().getClient().getCompressionStats();
+        List<Object> encoded = new ArrayList<>(bodies.size());
+        for (Object body : bodies) {
+            Object b = ClaimCheck.offload(body, settings);
+            if (b == body) {
+                b = BodyCompression.compress(body, settings, stats);
+            }
+            encoded.add(b == body ? PlainBody.escape(body) : b);
+        }
+        return new MessagesBody(encoded, settings);
+    }
+
+    /**
+     * Returns a view of this queue sending and receiving payloads converted with the given codec
+     */
+    public <T> IronTypedQueue<T> typed(IronMessageCodec<T> codec) {
+        return new IronTypedQueue<>(this, codec);
+    }
+
+    private static List<String> readIds(Response response, Collection<?> messages) {
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
             throw new IronClientException(messages, response);
         }
+        if (!response.hasEntity()) {
+            return Collections.emptyList();
+        }
+        JsonArray ids = response.readEntity(JsonObject.class).getJsonArray("ids");
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<String> list = new ArrayList<>(ids.size());
+        for (int i = 0; i < ids.size(); i++) {
+            list.add(ids.getString(i));
+        }
+        return list;
+    }
+
+    /**
+     * Deletes reserved messages of this queue in one request (at most 100).
+     */
+    public void deleteMessages(Collection<IronMessage> messages) {
+        if (messages.isEmpty()) return;
+        Response response = request(HttpMethod.DELETE, messagesEndpoint, deleteBody(messages));
+        deleted(response, messages);
+    }
+
+    /**
+     * Same as {@link #deleteMessages(Collection)} without blocking
+     */
+    public CompletionStage<Void> deleteMessagesAsync(Collection<IronMessage> messages) {
+        if (messages.isEmpty()) return CompletableFuture.completedFuture(null);
+        return requestAsync(HttpMethod.DELETE, messagesEndpoint, deleteBody(messages))
+            .thenAccept(response -> deleted(response, messages));
+    }
+
+    private JsonObject deleteBody(Collection<IronMessage> messages) {
+        if (messages.size() > IronSettings.MAX_BATCH) throw new IllegalArgumentException("Cannot delete more than " + IronSettings.MAX_BATCH + " messages at once");
+        JsonArrayBuilder ids = Json.createArrayBuilder();
+        for (IronMessage message : messages) {
+            if (!message.getQueue().getName().equals(getName())) {
+                throw new IllegalArgumentException("Message " + message.getId() + " does not belong to queue " + getName());
+            }
+            ids.add(message.getId());
+        }
+        getProject().getClient().getMetrics().onBatch(IronOperation.DELETE, getName(), messages.size());
+        return Json.createObjectBuilder()
+            .add("ids", ids)
+            .build();
+    }
+
+    private static void deleted(Response response, Collection<IronMessage> messages) {
+        if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL && response.getStatus() != 404) {
+            throw new IronClientException(response);
+        }
+        for (IronMessage message : messages) {
+            message.markDeleted();
+        }
     }
 
+    /**
+     * Deletes the queue. The project forgets this handle: {@link IronProject#getQueue(String)} returns a new one afterwards.
+     */
     public boolean delete() {
-        Response response = getProject().request(getProject().getSettings(), HttpMethod.DELETE, "queues/" + getEncodedQueueName());
+        getProject().removeQueue(this);
+        Response response = request(HttpMethod.DELETE, endpoint, null);
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL && response.getStatus() != 404) {
             throw new IronClientException(response);
         }
@@ -157,27 +396,24 @@ public class IronQueue {
         return getName();
     }
 
-    Response request(String method, String path) {
-        if (!path.startsWith("/")) path = "/" + path;
-        return getProject().request(getProject().getSettings(), method, "queues/" + getEncodedQueueName() + path);
+    Response request(String method, IronEndpoint endpoint, JsonObject body) {
+        return getProject().getClient().request(getProject().getSettings(), method, endpoint, body);
     }
 
-    Response request(String method, String path, JsonObject body) {
-        if (!path.startsWith("/")) path = "/" + path;
-        return getProject().request(getProject().getSettings(), method, "queues/" + getEncodedQueueName() + path, body);
+    CompletionStage<Response> requestAsync(String method, IronEndpoint endpoint, JsonObject body) {
+        return getProject().getClient().requestAsync(getProject().getSettings(), method, endpoint, body);
     }
 
-    Response request(String method, String path, MultivaluedMap<String, Object> queryParams) {
-        if (!path.startsWith("/")) path = "/" + path;
-        return getProject().request(getProject().getSettings(), method, "queues/" + getEncodedQueueName() + path, queryParams);
+    String getEncodedQueueName() {
+        return encodedName;
     }
 
-    String getEncodedQueueName() {
-        try {
-            return URLEncoder.encode(getName(), "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            throw new RuntimeException(e.getMessage(), e);
-        }
+    IronEndpoint getEndpoint() {
+        return endpoint;
+    }
+
+    IronEndpoint getMessageEndpoint(String id) {
+        return messagesEndpoint.path(id, "{id}");
     }
 
     public IronPoller asyncPoll(Consumer<IronMessage> consumer) {
@@ -185,42 +421,127 @@ public class IronQueue {
     }
 
     public IronPoller asyncPoll(Executor executor, Consumer<IronMessage> consumer) {
-        return asyncPoll(
-            executor,
-            consumer,
-            (message, e) -> LOGGER.log(Level.SEVERE, "Error while processing message " + message.getId() + " from queue " + message.getQueue().getName() + " from project " + message.getQueue().getProject().getId() + ": " + e.getMessage() + "\nMessage: " + message, e));
+        return asyncPoll(executor, consumer, IronQueue::logError);
     }
 
     public IronPoller asyncPoll(Executor executor, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError) {
-        AtomicReference<Runnable> canRun = new AtomicReference<>();
-        canRun.set(() -> {
+        return asyncPoll(executor, consumer, onError, getProject().getSettings());
+    }
+
+    /**
+     * Long-polls the queue and reserves up to {@link IronSettings#getPollBatchSize()} messages per request.
+     * Each message of a batch is handled in turn and deleted if the consumer succeeds.
+     * Once the poller stops accepting, the rest of the batch and the messages returned by a long poll in progress are released.
+     * A drain waits for the long poll in progress, up to {@link IronSettings#MAX_WAIT} seconds.
+     * A failed poll is retried after a delay growing from 100ms to 10s, or once the open circuit of the endpoint lets calls through.
+     */
+    public IronPoller asyncPoll(Executor executor, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        IronSettings pollSettings = settings.copy().setPollWait(IronSettings.MAX_WAIT, TimeUnit.SECONDS).snapshot();
+        IronAcknowledger acknowledger = settings.getAckBatchSize() > 1 ?
+            new IronAcknowledger(getProject().getClient().getScheduler(), settings.getAckBatchSize(), settings.getAckLinger(), TimeUnit.MILLISECONDS, onError) :
+            null;
+        IronMetrics metrics = getProject().getClient().getMetrics();
+        AtomicInteger inFlight = new AtomicInteger();
+        PollerLifecycle lifecycle = new PollerLifecycle(() -> {
+            if (acknowledger != null) {
+                acknowledger.close();
+            }
+        });
+        AtomicReference<Runnable> loop = new AtomicReference<>();
+        loop.set(() -> {
+            PollBackoff backoff = new PollBackoff();
             try {
-                while (!Thread.currentThread().isInterrupted() && canRun.get() != null) {
-                    LOGGER.finest("Polling queue " + getName() + "...");
-                    IronMessage message = poll(IronSettings.MAX_WAIT, TimeUnit.SECONDS);
-                    if (message != null) {
-                        try {
-                            consumer.accept(message);
-                        } catch (RuntimeException e) {
-                            onError.accept(message, e);
-                            continue;
+                while (!Thread.currentThread().isInterrupted() && lifecycle.isRunning()) {
+                    if (LOGGER.isLoggable(Level.FINEST)) {
+                        LOGGER.finest("Polling queue " + getName() + "...");
+                    }
+                    if (!lifecycle.enterPoll()) break;
+                    Object event = FlightRecorder.beginPhase();
+                    List<IronMessage> batch;
+                    try {
+                        batch = pollBatch(pollSettings.getPollBatchSize(), pollSettings);
+                        backoff.reset();
+                    } catch (RuntimeException e) {
+                        lifecycle.exitPoll();
+                        FlightRecorder.endPhase(event, this, FlightRecorder.POLL, 0, null);
+                        LOGGER.log(Level.SEVERE, "Error polling queue " + getName() + " from project " + getProject().getId() + ": " + e.getMessage(), e);
+                        // do not hammer a failing IronMQ
+                        backoff.sleep(e);
+                        continue;
+                    }
+                    FlightRecorder.endPhase(event, this, FlightRecorder.POLL, batch.size(), null);
+                    inFlight.set(batch.size());
+                    // entered for the whole batch before leaving the poll: released messages are visible again once stopped
+                    boolean entered = lifecycle.enter();
+                    if (!entered) {
+                        // stopped during the poll
+                        release(batch);
+                    }
+                    lifecycle.exitPoll();
+                    if (!entered) break;
+                    try {
+                        for (int i = 0; i < batch.size(); i++) {
+                            IronMessage message = batch.get(i);
+                            if (!lifecycle.isRunning()) {
+                                // stopped during the batch
+                                release(batch.subList(i, batch.size()));
+                                break;
+                            }
+                            try {
+                                IronLeaseManager.Lease lease = pollSettings.getLeaseMaxRenewals() > 0 ?
+                                    getProject().getClient().getLeaseManager().track(message, pollSettings.getLeaseMaxRenewals()) :
+                                    null;
+                                event = FlightRecorder.beginPhase();
+                                try {
+                                    consumer.accept(message);
+                                } catch (RuntimeException e) {
+                                    if (lease != null) {
+                                        lease.close();
+                                    }
+                                    onError.accept(message, e);
+                                    continue;
+                                } finally {
+                                    FlightRecorder.endPhase(event, this, FlightRecorder.HANDLE, 1, message.getId());
+                                }
+                                event = FlightRecorder.beginPhase();
+                                if (acknowledger != null) {
+                                    // the delete itself is batched: this is the hand-off, and the lease is closed once it is done
+                                    acknowledger.acknowledge(message, lease);
+                                } else {
+                                    if (LOGGER.isLoggable(Level.FINEST)) {
+                                        LOGGER.finest("Removing message " + message.getId());
+                                    }
+                                    try {
+                                        message.delete();
+                                    } catch (RuntimeException e) {
+                                        // the rest of the batch is still handled
+                                        onError.accept(message, e);
+                                    } finally {
+                                        if (lease != null) {
+                                            lease.close();
+                                        }
+                                    }
+                                }
+                                FlightRecorder.endPhase(event, this, FlightRecorder.DELETE, 1, message.getId());
+                            } finally {
+                                inFlight.decrementAndGet();
+                            }
                         }
-                        LOGGER.finest("Removing message " + message.getId());
-                        message.delete();
+                    } finally {
+                        lifecycle.exit();
                     }
                 }
             } catch (Exception e) {
                 LOGGER.log(Level.SEVERE, "Error in poller for from queue " + getName() + " from project " + getProject().getId() + ": " + e.getMessage(), e);
             } finally {
+                inFlight.set(0);
                 // try to re-execute
-                Runnable me = canRun.get();
-                if (me != null) {
-                    executor.execute(me);
+                if (lifecycle.isRunning()) {
+                    executor.execute(loop.get());
                 }
             }
         });
-        executor.execute(canRun.get());
-        return new IronPoller() {
+        IronPoller poller = new IronPoller() {
             @Override
             public IronQueue getQueue() {
                 return IronQueue.this;
@@ -228,9 +549,83 @@ public class IronQueue {
 
             @Override
             public void stop() {
-                canRun.set(null);
+                stopAccepting();
+            }
+
+            @Override
+            public void stopAccepting() {
+                if (lifecycle.stopAccepting()) {
+                    metrics.onPollerStopped(this);
+                }
+            }
+
+            @Override
+            public CompletableFuture<Boolean> drain(Duration timeout) {
+                stopAccepting();
+                return lifecycle.drain(timeout, getProject().getClient().getScheduler());
+            }
+
+            @Override
+            public IronPollerState getState() {
+                return lifecycle.getState();
+            }
+
+            @Override
+            public int getInFlight() {
+                return inFlight.get();
             }
         };
+        metrics.onPollerStarted(poller);
+        executor.execute(loop.get());
+        return poller;
+    }
+
+    public IronPoller prefetchPoll(Executor executor, int workers, Consumer<IronMessage> consumer) {
+        return prefetchPoll(executor, workers, consumer, IronQueue::logError, getProject().getSettings());
+    }
+
+    /**
+     * Keeps a local buffer of reserved messages filled in the background and hands them to <code>workers</code> concurrent handlers.
+     * The buffer holds at most {@link IronSettings#getPrefetchSize()} messages, and never more than the workers can handle
+     * within the message timeout given their measured processing time.
+     * Buffered messages that were not processed are released when the poller is stopped. A drain waits for the long poll in progress.
+     * A failed poll is retried after 100ms, then twice as long after each further failure, up to 10s.
+     * <p>
+     * The executor must be able to run <code>workers + 1</code> tasks concurrently.
+     */
+    public IronPoller prefetchPoll(Executor executor, int workers, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        PrefetchingPoller poller = new PrefetchingPoller(this, workers, consumer, onError, settings);
+        poller.start(executor);
+        return poller;
+    }
+
+    public IronAutoscalingPoller autoscalePoll(Executor executor, int minPollers, int maxPollers, Consumer<IronMessage> consumer) {
+        return autoscalePoll(executor, minPollers, maxPollers, consumer, IronQueue::logError, getProject().getSettings());
+    }
+
+    /**
+     * Runs between <code>minPollers</code> and <code>maxPollers</code> pollers, scaled on the queue size and on their own load.
+     * The executor must be able to run <code>maxPollers</code> tasks concurrently.
+     */
+    public IronAutoscalingPoller autoscalePoll(Executor executor, int minPollers, int maxPollers, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        return new IronAutoscalingPoller(this, executor, minPollers, maxPollers, consumer, onError, settings);
+    }
+
+    /**
+     * Makes reserved messages that will not be handled visible again right away
+     */
+    static void release(List<IronMessage> messages) {
+        for (IronMessage message : messages) {
+            try {
+                message.release(0, TimeUnit.SECONDS);
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Unable to release message " + message.getId() + " from queue " + message.getQueue().getName() + ": " + e.getMessage(), e);
+            }
+        }
+    }
+
+    static void logError(IronMessage message, RuntimeException e) {
+        LOGGER.log(Level.SEVERE, "Error while processing message " + message.getId() + " from queue " + message.getQueue().getName() + " from project " + message.getQueue().getProject().getId() + ": " + e.getMessage() + "\nMessage: " + message, e);
     }
 
     public IronMessage poll() {
@@ -242,30 +637,165 @@ public class IronQueue {
     }
 
     public IronMessage poll(IronSettings settings) {
-        LOGGER.finest("poll() wait=" + settings.getPollWait());
-        MultivaluedMap<String, Object> qParams = new MultivaluedHashMap<>();
-        qParams.putSingle("n", 1);
-        qParams.putSingle("wait", settings.getPollWait());
-        qParams.putSingle("timeout", settings.getMessageTimeout());
-        qParams.putSingle("delete", settings.isPollDelete());
-        Response response = getProject().request(settings, HttpMethod.GET, "queues/" + getEncodedQueueName() + "/messages", qParams);
-        if (response.getStatus() == 404) return null;
+        List<IronMessage> messages = pollBatch(1, settings);
+        return messages.isEmpty() ? null : messages.get(0);
+    }
+
+    public List<IronMessage> pollBatch(int max) {
+        return pollBatch(max, getProject().getSettings());
+    }
+
+    /**
+     * Reserves up to <code>max</code> messages in one request. Returns an empty list if no message is available.
+     */
+    public List<IronMessage> pollBatch(int max, IronSettings settings) {
+        if (max < IronSettings.MIN_BATCH || max > IronSettings.MAX_BATCH) throw new IllegalArgumentException();
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("poll() n=" + max + ", wait=" + settings.getPollWait());
+        }
+        Response response = getProject().getClient().request(settings, HttpMethod.GET, pollEndpoint(max, settings), null);
+        return readMessages(response, settings.snapshot());
+    }
+
+    public CompletionStage<IronMessage> pollAsync() {
+        return pollAsync(getProject().getSettings());
+    }
+
+    public CompletionStage<IronMessage> pollAsync(IronSettings settings) {
+        return pollBatchAsync(1, settings).thenApply(messages -> messages.isEmpty() ? null : messages.get(0));
+    }
+
+    /**
+     * Reserves up to <code>max</code> messages without blocking. Long polls (see {@link IronSettings#getPollWait()}) do not hold any caller thread.
+     */
+    public CompletionStage<List<IronMessage>> pollBatchAsync(int max, IronSettings settings) {
+        if (max < IronSettings.MIN_BATCH || max > IronSettings.MAX_BATCH) throw new IllegalArgumentException();
+        if (LOGGER.isLoggable(Level.FINEST)) {
+            LOGGER.finest("pollAsync() n=" + max + ", wait=" + settings.getPollWait());
+        }
+        IronSettings snapshot = settings.snapshot();
+        return getProject().getClient().requestAsync(settings, HttpMethod.GET, pollEndpoint(max, settings), null)
+            .thenApply(response -> readMessages(response, snapshot));
+    }
+
+    /**
+     * Poll endpoints only differ by their query parameters: the last one is reused while a poller keeps polling with the same settings.
+     */
+    IronEndpoint pollEndpoint(int max, IronSettings settings) {
+        PollEndpoint last = lastPollEndpoint;
+        if (last == null || !last.matches(max, settings)) {
+            lastPollEndpoint = last = new PollEndpoint(max, settings, messagesEndpoint
+                .query("n", max)
+                .query("wait", settings.getPollWait())
+                .query("timeout", settings.getMessageTimeout())
+                .query("delete", settings.isPollDelete()));
+        }
+        return last.endpoint;
+    }
+
+    private static final class PollEndpoint {
+        final int max;
+        final int wait;
+        final int timeout;
+        final boolean delete;
+        final IronEndpoint endpoint;
+
+        PollEndpoint(int max, IronSettings settings, IronEndpoint endpoint) {
+            this.max = max;
+            this.wait = settings.getPollWait();
+            this.timeout = settings.getMessageTimeout();
+            this.delete = settings.isPollDelete();
+            this.endpoint = endpoint;
+        }
+
+        boolean matches(int max, IronSettings settings) {
+            return this.max == max && wait == settings.getPollWait() && timeout == settings.getMessageTimeout() && delete == settings.isPollDelete();
+        }
+    }
+
+    /**
+     * @param settings settings of the poll: polled messages decode their body with them
+     */
+    List<IronMessage> readMessages(Response response, IronSettings settings) {
+        List<IronMessage> messages = parseMessages(response, settings);
+        getProject().getClient().getMetrics().onBatch(IronOperation.POLL, getName(), messages.size());
+        return messages;
+    }
+
+    private List<IronMessage> parseMessages(Response response, IronSettings settings) {
+        if (response.getStatus() == 404) return Collections.emptyList();
         if (response.getStatusInfo().getFamily() != Response.Status.Family.SUCCESSFUL) {
             throw new IronClientException(response);
         }
-        if (response.hasEntity()) {
-            JsonObject body = response.readEntity(JsonObject.class);
-            JsonArray list = body.getJsonArray("messages");
-            if (list == null || list.isEmpty()) return null;
-            JsonObject message = list.getJsonObject(0);
-            JsonObject content = Json.createReader(new StringReader(message.getString("body"))).readObject();
-            return new IronMessage(
-                this,
-                message.getString("id"),
-                content,
-                message.getInt("timeout"));
-        }
-        return null;
+        if (!response.hasEntity()) return Collections.emptyList();
+        // {"messages":[{"id":"...","body":"...","timeout":60,"reserved_count":1,...},...]}
+        // bodies are kept as strings: they are only parsed if IronMessage.getBody() is called
+        List<IronMessage> messages = new ArrayList<>();
+        try (JsonParser parser = PARSERS.createParser(response.readEntity(InputStream.class))) {
+            while (parser.hasNext()) {
+                JsonParser.Event event = parser.next();
+                if (event == JsonParser.Event.KEY_NAME && "messages".equals(parser.getString())) {
+                    if (parser.next() != JsonParser.Event.START_ARRAY) continue;
+                    while (parser.next() == JsonParser.Event.START_OBJECT) {
+                        messages.add(readMessage(parser, settings));
+                    }
+                } else if (event == JsonParser.Event.KEY_NAME) {
+                    skipValue(parser, parser.next());
+                }
+            }
+        }
+        return messages;
+    }
+
+    private IronMessage readMessage(JsonParser parser, IronSettings settings) {
+        String id = null;
+        String body = null;
+        int timeout = 0;
+        int reservedCount = 0;
+        JsonParser.Event event;
+        while ((event = parser.next()) == JsonParser.Event.KEY_NAME) {
+            String key = parser.getString();
+            event = parser.next();
+            switch (key) {
+                case "id":
+                    id = parser.getString();
+                    break;
+                case "body":
+                    body = parser.getString();
+                    break;
+                case "timeout":
+                    timeout = parser.getInt();
+                    break;
+                case "reserved_count":
+                    reservedCount = parser.getInt();
+                    break;
+                default:
+                    skipValue(parser, event);
+            }
+        }
+        IronMessage message = new IronMessage(this, settings, id, body, timeout, reservedCount);
+        if (settings.isPollDelete()) {
+            message.resolveDeleted();
+        }
+        return message;
+    }
+
+    private static void skipValue(JsonParser parser, JsonParser.Event event) {
+        if (event != JsonParser.Event.START_OBJECT && event != JsonParser.Event.START_ARRAY) return;
+        int depth = 1;
+        while (depth > 0) {
+            switch (parser.next()) {
+                case START_OBJECT:
+                case START_ARRAY:
+                    depth++;
+                    break;
+                case END_OBJECT:
+                case END_ARRAY:
+                    depth--;
+                    break;
+                default:
+            }
+        }
     }
 
 }
@@ -0,0 +1,117 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonValue;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Queue metadata returned by {@link IronQueue#getInfo()}
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronQueueInfo {
+
+    private final String name;
+    private final boolean exists;
+    private final long size;
+    private final long totalMessages;
+    private final IronQueueType type;
+    private final List<IronSubscriber> subscribers;
+
+    IronQueueInfo(String name, boolean exists, long size, long totalMessages, IronQueueType type, List<IronSubscriber> subscribers) {
+        this.name = name;
+        this.exists = exists;
+        this.size = size;
+        this.totalMessages = totalMessages;
+        this.type = type;
+        this.subscribers = subscribers;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * false if the queue was not found: sizes are then 0
+     */
+    public boolean exists() {
+        return exists;
+    }
+
+    /**
+     * Number of messages currently on the queue
+     */
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * Number of messages ever posted to the queue
+     */
+    public long getTotalMessages() {
+        return totalMessages;
+    }
+
+    public IronQueueType getType() {
+        return type;
+    }
+
+    public List<IronSubscriber> getSubscribers() {
+        return subscribers;
+    }
+
+    @Override
+    public String toString() {
+        return getName() + " (" + getType() + ") size=" + getSize() + ", total=" + getTotalMessages();
+    }
+
+    static IronQueueInfo missing(String name) {
+        return new IronQueueInfo(name, false, 0, 0, IronQueueType.PULL, Collections.emptyList());
+    }
+
+    static IronQueueInfo fromJson(String name, JsonObject json) {
+        String pushType = json.getString("push_type", null);
+        List<IronSubscriber> subscribers = new ArrayList<>();
+        JsonArray subs = json.containsKey("subscribers") && !json.isNull("subscribers") ? json.getJsonArray("subscribers") : null;
+        if (subs != null) {
+            for (int i = 0; i < subs.size(); i++) {
+                JsonObject sub = subs.getJsonObject(i);
+                IronSubscriber subscriber = new IronSubscriber(sub.getString("url"));
+                JsonObject headers = sub.containsKey("headers") && !sub.isNull("headers") ? sub.getJsonObject("headers") : null;
+                if (headers != null) {
+                    for (Map.Entry<String, JsonValue> header : headers.entrySet()) {
+                        subscriber.header(header.getKey(), headers.getString(header.getKey()));
+                    }
+                }
+                subscribers.add(subscriber);
+            }
+        }
+        return new IronQueueInfo(
+            name,
+            true,
+            json.containsKey("size") ? json.getJsonNumber("size").longValue() : 0,
+            json.containsKey("total_messages") ? json.getJsonNumber("total_messages").longValue() : 0,
+            pushType == null ? IronQueueType.PULL : IronQueueType.valueOf(pushType.toUpperCase()),
+            Collections.unmodifiableList(subscribers));
+    }
+
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the retries of a client to a ratio of its requests, so that an IronMQ outage
+ * does not multiply the load sent by all clients.
+ * <p>
+ * Each request deposits <code>ratio</code> tokens, up to <code>maxRetries</code> tokens, and each retry withdraws one.
+ * A retry is not attempted when no token is left: the last error or response is returned to the caller.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronRetryBudget {
+
+    public static final double DEF_RATIO = 0.2;
+    public static final int DEF_MAX_RETRIES = 100;
+
+    // tokens are counted in thousandths
+    private static final long UNIT = 1000;
+
+    private final long deposit;
+    private final long max;
+    private final AtomicLong tokens;
+
+    public IronRetryBudget() {
+        this(DEF_RATIO, DEF_MAX_RETRIES);
+    }
+
+    public IronRetryBudget(double ratio, int maxRetries) {
+        if (ratio < 0 || maxRetries < 0) throw new IllegalArgumentException();
+        this.deposit = Math.round(ratio * UNIT);
+        this.max = maxRetries * UNIT;
+        this.tokens = new AtomicLong(max);
+    }
+
+    /**
+     * Number of retries currently allowed
+     */
+    public int getAvailable() {
+        return (int) (tokens.get() / UNIT);
+    }
+
+    void onRequest() {
+        if (deposit > 0) {
+            tokens.updateAndGet(t -> Math.min(max, t + deposit));
+        }
+    }
+
+    boolean tryRetry() {
+        while (true) {
+            long t = tokens.get();
+            if (t < UNIT) return false;
+            if (tokens.compareAndSet(t, t - UNIT)) return true;
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the delay before retrying a request which failed with an error or a 5xx status.
+ * The base delay is {@link IronSettings#getBackoffInterval()} and the growth factor {@link IronSettings#getBackoffFactor()}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@FunctionalInterface
+public interface IronRetryPolicy {
+
+    /**
+     * Delays grow by the backoff factor at each retry: 10s, 15s, 22s, ... with default settings.
+     * All clients failing at the same time retry at the same time.
+     */
+    IronRetryPolicy EXPONENTIAL = (settings, retry, previousDelay) ->
+        retry == 1 ? settings.getBackoffInterval() * 1000L : Math.round(previousDelay * settings.getBackoffFactor());
+
+    /**
+     * Random delay between 0 and the exponential delay.
+     */
+    IronRetryPolicy FULL_JITTER = (settings, retry, previousDelay) -> {
+        long ceiling = Math.round(settings.getBackoffInterval() * 1000L * Math.pow(settings.getBackoffFactor(), retry - 1));
+        return ThreadLocalRandom.current().nextLong(ceiling + 1);
+    };
+
+    /**
+     * Random delay between the backoff interval and three times the previous delay,
+     * capped at the exponential delay of the last allowed retry.
+     */
+    IronRetryPolicy DECORRELATED_JITTER = (settings, retry, previousDelay) -> {
+        long base = settings.getBackoffInterval() * 1000L;
+        long cap = Math.round(base * Math.pow(settings.getBackoffFactor(), settings.getBackoffRetries() - 1));
+        long upper = Math.max(base, previousDelay * 3);
+        return Math.min(cap, base + ThreadLocalRandom.current().nextLong(upper - base + 1));
+    };
+
+    /**
+     * @param retry         retry number, starting at 1
+     * @param previousDelay delay in milliseconds before the previous retry, 0 for the first one
+     * @return delay in milliseconds before this retry
+     */
+    long delay(IronSettings settings, int retry, long previousDelay);
+
+}
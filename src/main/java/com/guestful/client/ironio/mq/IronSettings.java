@@ -40,6 +40,50 @@ public class IronSettings {
     public static final int MAX_WAIT = 30;
     public static final int DEF_WAIT = MIN_WAIT;
 
+    public static final int MIN_BATCH = 1;
+    public static final int MAX_BATCH = 100;
+    public static final int DEF_BATCH = MIN_BATCH;
+
+    public static final long MIN_ACK_LINGER = 0;
+    public static final long MAX_ACK_LINGER = MIN_TIMEOUT * 1000L;
+    public static final long DEF_ACK_LINGER = 1000;
+
+    public static final int MIN_BATCH_BYTES = 1024;
+    public static final int MAX_BATCH_BYTES = 16 * 1024 * 1024;
+    public static final int DEF_BATCH_BYTES = 256 * 1024;
+
+    public static final long MIN_LINGER = 0;
+    public static final long MAX_LINGER = 60_000;
+    public static final long DEF_LINGER = 5;
+
+    public static final int MIN_PREFETCH = 1;
+    public static final int MAX_PREFETCH = 10_000;
+    public static final int DEF_PREFETCH = MAX_BATCH;
+
+    public static final int MIN_LEASE_RENEWALS = 0;
+    public static final int DEF_LEASE_RENEWALS = MIN_LEASE_RENEWALS;
+
+    public static final int MIN_AUTOSCALE_INTERVAL = 1;
+    public static final int MAX_AUTOSCALE_INTERVAL = 3_600;
+    public static final int DEF_AUTOSCALE_INTERVAL = 5;
+    public static final int MIN_AUTOSCALE_HYSTERESIS = 1;
+    public static final int DEF_AUTOSCALE_HYSTERESIS = 3;
+
+    public static final long MIN_INFO_TTL = 0;
+    public static final long MAX_INFO_TTL = 3_600_000;
+    public static final long DEF_INFO_TTL = MIN_INFO_TTL;
+
+    public static final int MIN_COMPRESSION_THRESHOLD = 0;
+    public static final int MAX_COMPRESSION_THRESHOLD = MAX_BATCH_BYTES;
+    public static final int DEF_COMPRESSION_THRESHOLD = MIN_COMPRESSION_THRESHOLD;
+    public static final int MIN_COMPRESSION_LEVEL = 1;
+    public static final int MAX_COMPRESSION_LEVEL = 9;
+    public static final int DEF_COMPRESSION_LEVEL = 6;
+
+    public static final int MIN_CLAIM_CHECK_THRESHOLD = 0;
+    public static final int MAX_CLAIM_CHECK_THRESHOLD = MAX_BATCH_BYTES;
+    public static final int DEF_CLAIM_CHECK_THRESHOLD = MIN_CLAIM_CHECK_THRESHOLD;
+
     public static final int MIN_RETRY = 0;
     public static final int MAX_RETRY = 100;
     public static final int DEF_RETRY = 3;
@@ -58,33 +102,110 @@ public class IronSettings {
     public static final float DEF_BACKOFF_FACTOR = 1.5f;
     public static final float MIN_BACKOFF_FACTOR = 1.0f;
 
+    public static final int MIN_BACKOFF_DEADLINE = 0;
+    public static final int MAX_BACKOFF_DEADLINE = MAX_TIMEOUT;
+    public static final int DEF_BACKOFF_DEADLINE = MIN_BACKOFF_DEADLINE;
+
+    public static final int MIN_BACKOFF_MAX_RETRY_AFTER = 0;
+    public static final int MAX_BACKOFF_MAX_RETRY_AFTER = MAX_TIMEOUT;
+    public static final int DEF_BACKOFF_MAX_RETRY_AFTER = 60;
+
     private int messageTimeout = DEF_TIMEOUT;
     private int messageDelay = DEF_DELAY;
     private int messageExpiration = DEF_EXPIRATION;
     private int pollWait = DEF_WAIT;
     private boolean pollDelete = false;
+    private int pollBatchSize = DEF_BATCH;
+    private int ackBatchSize = DEF_BATCH;
+    private long ackLinger = DEF_ACK_LINGER;
+    private int prefetchSize = DEF_PREFETCH;
+    private int leaseMaxRenewals = DEF_LEASE_RENEWALS;
+    private long infoCacheTtl = DEF_INFO_TTL;
+    private int autoscaleInterval = DEF_AUTOSCALE_INTERVAL;
+    private int autoscaleHysteresis = DEF_AUTOSCALE_HYSTERESIS;
+    private int producerBatchSize = MAX_BATCH;
+    private int producerBatchBytes = DEF_BATCH_BYTES;
+    private long producerLinger = DEF_LINGER;
+    private int compressionThreshold = DEF_COMPRESSION_THRESHOLD;
+    private int compressionLevel = DEF_COMPRESSION_LEVEL;
+    private byte[] compressionDictionary;
+    private int claimCheckThreshold = DEF_CLAIM_CHECK_THRESHOLD;
+    private IronPayloadStore payloadStore;
+    private IronOutbox outbox;
     private int pushRetries = DEF_RETRY;
     private int pushRetryDelay = DEF_RETRY_DELAY;
     private String errorQueuename;
     private int backoffRetries = DEF_BACKOFF_RETRY;
     private int backoffInterval = DEF_BACKOFF_INTERVAL;
     private float backoffFactor = DEF_BACKOFF_FACTOR;
+    private IronRetryPolicy backoffPolicy = IronRetryPolicy.EXPONENTIAL;
+    private int backoffDeadline = DEF_BACKOFF_DEADLINE;
+    private int backoffMaxRetryAfter = DEF_BACKOFF_MAX_RETRY_AFTER;
+    private boolean frozen;
 
     public float getBackoffFactor() {
         return backoffFactor;
     }
 
     public IronSettings setBackoffFactor(float backoffFactor) {
+        checkMutable();
         if (backoffFactor < MIN_BACKOFF_FACTOR) throw new IllegalArgumentException();
         this.backoffFactor = backoffFactor;
         return this;
     }
 
+    public IronRetryPolicy getBackoffPolicy() {
+        return backoffPolicy;
+    }
+
+    /**
+     * How retry delays are computed from the backoff interval and factor. Default is {@link IronRetryPolicy#EXPONENTIAL}.
+     * {@link IronRetryPolicy#FULL_JITTER} spreads the retries of clients failing at the same time.
+     */
+    public IronSettings setBackoffPolicy(IronRetryPolicy backoffPolicy) {
+        checkMutable();
+        if (backoffPolicy == null) throw new IllegalArgumentException();
+        this.backoffPolicy = backoffPolicy;
+        return this;
+    }
+
+    public int getBackoffDeadline() {
+        return backoffDeadline;
+    }
+
+    /**
+     * Time in seconds after which an operation is not retried anymore, counted from its first attempt. Default is 0 (no deadline).
+     */
+    public IronSettings setBackoffDeadline(long deadline, TimeUnit unit) {
+        checkMutable();
+        long t = unit.toSeconds(deadline);
+        if (t < MIN_BACKOFF_DEADLINE || t > MAX_BACKOFF_DEADLINE) throw new IllegalArgumentException();
+        this.backoffDeadline = Math.toIntExact(t);
+        return this;
+    }
+
+    public int getBackoffMaxRetryAfter() {
+        return backoffMaxRetryAfter;
+    }
+
+    /**
+     * Longest <code>Retry-After</code> delay in seconds honoured when no backoff deadline is set: longer delays asked by the server are cut to it. Default is 60.
+     * With a deadline, a retry which would wait past it is not attempted instead.
+     */
+    public IronSettings setBackoffMaxRetryAfter(long maxRetryAfter, TimeUnit unit) {
+        checkMutable();
+        long t = unit.toSeconds(maxRetryAfter);
+        if (t < MIN_BACKOFF_MAX_RETRY_AFTER || t > MAX_BACKOFF_MAX_RETRY_AFTER) throw new IllegalArgumentException();
+        this.backoffMaxRetryAfter = Math.toIntExact(t);
+        return this;
+    }
+
     public int getBackoffInterval() {
         return backoffInterval;
     }
 
     public IronSettings setBackoffInterval(long backoffInterval, TimeUnit unit) {
+        checkMutable();
         long t = unit.toSeconds(backoffInterval);
         if (t < MIN_BACKOFF_INTERVAL || t > MAX_BACKOFF_INTERVAL) throw new IllegalArgumentException();
         this.backoffInterval = Math.toIntExact(t);
@@ -96,6 +217,7 @@ public class IronSettings {
     }
 
     public IronSettings setBackoffRetries(int backoffRetries) {
+        checkMutable();
         if (backoffRetries < MIN_BACKOFF_RETRY) throw new IllegalArgumentException();
         this.backoffRetries = backoffRetries;
         return this;
@@ -106,6 +228,7 @@ public class IronSettings {
     }
 
     public IronSettings setErrorQueuename(String errorQueuename) {
+        checkMutable();
         this.errorQueuename = errorQueuename;
         return this;
     }
@@ -116,12 +239,280 @@ public class IronSettings {
 
     /**
      * true/false. This will delete the message on get. Be careful though, only use this if you are ok with losing a message if something goes wrong after you get it. Default is false.
+     * Offloaded bodies (see {@link #setClaimCheckThreshold(int)}) are then read with the poll and removed from the payload store.
      */
     public IronSettings setPollDelete(boolean pollDelete) {
+        checkMutable();
         this.pollDelete = pollDelete;
         return this;
     }
 
+    public int getPollBatchSize() {
+        return pollBatchSize;
+    }
+
+    /**
+     * Maximum number of messages to reserve in one poll request. Default is 1, maximum is 100.
+     */
+    public IronSettings setPollBatchSize(int pollBatchSize) {
+        checkMutable();
+        if (pollBatchSize < MIN_BATCH || pollBatchSize > MAX_BATCH) throw new IllegalArgumentException();
+        this.pollBatchSize = pollBatchSize;
+        return this;
+    }
+
+    public int getAckBatchSize() {
+        return ackBatchSize;
+    }
+
+    /**
+     * Number of consumed messages to acknowledge in one bulk delete request. Default is 1 (each message is deleted as soon as it is consumed), maximum is 100.
+     */
+    public IronSettings setAckBatchSize(int ackBatchSize) {
+        checkMutable();
+        if (ackBatchSize < MIN_BATCH || ackBatchSize > MAX_BATCH) throw new IllegalArgumentException();
+        this.ackBatchSize = ackBatchSize;
+        return this;
+    }
+
+    /**
+     * In milliseconds
+     */
+    public long getAckLinger() {
+        return ackLinger;
+    }
+
+    /**
+     * Maximum time a consumed message waits for its batch to fill before it is acknowledged. Default is 1 second, maximum is 30 seconds (the minimum message timeout).
+     */
+    public IronSettings setAckLinger(long linger, TimeUnit unit) {
+        checkMutable();
+        long t = unit.toMillis(linger);
+        if (t < MIN_ACK_LINGER || t > MAX_ACK_LINGER) throw new IllegalArgumentException();
+        this.ackLinger = t;
+        return this;
+    }
+
+    public int getPrefetchSize() {
+        return prefetchSize;
+    }
+
+    /**
+     * Maximum number of reserved messages a prefetching poller keeps in its local buffer. Default is 100.
+     */
+    public IronSettings setPrefetchSize(int prefetchSize) {
+        checkMutable();
+        if (prefetchSize < MIN_PREFETCH || prefetchSize > MAX_PREFETCH) throw new IllegalArgumentException();
+        this.prefetchSize = prefetchSize;
+        return this;
+    }
+
+    public int getLeaseMaxRenewals() {
+        return leaseMaxRenewals;
+    }
+
+    /**
+     * Maximum number of times a poller touches a message being handled to keep it reserved. Default is 0 (no renewal).
+     */
+    public IronSettings setLeaseMaxRenewals(int leaseMaxRenewals) {
+        checkMutable();
+        if (leaseMaxRenewals < MIN_LEASE_RENEWALS) throw new IllegalArgumentException();
+        this.leaseMaxRenewals = leaseMaxRenewals;
+        return this;
+    }
+
+    /**
+     * In milliseconds
+     */
+    public long getInfoCacheTtl() {
+        return infoCacheTtl;
+    }
+
+    /**
+     * How long queue metadata read by {@link IronQueue#getInfo()} is reused. Default is 0: concurrent callers still share one request. Maximum is 1 hour.
+     */
+    public IronSettings setInfoCacheTtl(long ttl, TimeUnit unit) {
+        checkMutable();
+        long t = unit.toMillis(ttl);
+        if (t < MIN_INFO_TTL || t > MAX_INFO_TTL) throw new IllegalArgumentException();
+        this.infoCacheTtl = t;
+        return this;
+    }
+
+    public int getAutoscaleInterval() {
+        return autoscaleInterval;
+    }
+
+    /**
+     * Time in seconds between two load samples of an autoscaling poller. Default is 5 seconds.
+     */
+    public IronSettings setAutoscaleInterval(long interval, TimeUnit unit) {
+        checkMutable();
+        long t = unit.toSeconds(interval);
+        if (t < MIN_AUTOSCALE_INTERVAL || t > MAX_AUTOSCALE_INTERVAL) throw new IllegalArgumentException();
+        this.autoscaleInterval = Math.toIntExact(t);
+        return this;
+    }
+
+    public int getAutoscaleHysteresis() {
+        return autoscaleHysteresis;
+    }
+
+    /**
+     * Number of consecutive samples which must agree before an autoscaling poller changes its poller count. Default is 3.
+     */
+    public IronSettings setAutoscaleHysteresis(int autoscaleHysteresis) {
+        checkMutable();
+        if (autoscaleHysteresis < MIN_AUTOSCALE_HYSTERESIS) throw new IllegalArgumentException();
+        this.autoscaleHysteresis = autoscaleHysteresis;
+        return this;
+    }
+
+    public int getProducerBatchSize() {
+        return producerBatchSize;
+    }
+
+    /**
+     * Maximum number of messages a producer sends in one request. Default and maximum is 100.
+     */
+    public IronSettings setProducerBatchSize(int producerBatchSize) {
+        checkMutable();
+        if (producerBatchSize < MIN_BATCH || producerBatchSize > MAX_BATCH) throw new IllegalArgumentException();
+        this.producerBatchSize = producerBatchSize;
+        return this;
+    }
+
+    public int getProducerBatchBytes() {
+        return producerBatchBytes;
+    }
+
+    /**
+     * Approximate maximum size in bytes of the message bodies a producer sends in one request. Default is 256KB.
+     * A message bigger than this size is sent alone.
+     */
+    public IronSettings setProducerBatchBytes(int producerBatchBytes) {
+        checkMutable();
+        if (producerBatchBytes < MIN_BATCH_BYTES || producerBatchBytes > MAX_BATCH_BYTES) throw new IllegalArgumentException();
+        this.producerBatchBytes = producerBatchBytes;
+        return this;
+    }
+
+    /**
+     * In milliseconds
+     */
+    public long getProducerLinger() {
+        return producerLinger;
+    }
+
+    /**
+     * Maximum time a producer waits for more messages before sending an incomplete batch. Default is 5 milliseconds, maximum is 1 minute.
+     */
+    public IronSettings setProducerLinger(long linger, TimeUnit unit) {
+        checkMutable();
+        long t = unit.toMillis(linger);
+        if (t < MIN_LINGER || t > MAX_LINGER) throw new IllegalArgumentException();
+        this.producerLinger = t;
+        return this;
+    }
+
+    /**
+     * In bytes
+     */
+    public int getCompressionThreshold() {
+        return compressionThreshold;
+    }
+
+    /**
+     * Message bodies of at least this size in bytes (UTF-8) are sent deflated, when it makes them smaller. Default is 0 (no compression).
+     * Compressed bodies are recognized and inflated automatically when polled, whatever this setting: plain bodies starting with
+     * <code>@deflate:</code> are always sent escaped with <code>@plain:</code>, which consumers of earlier versions do not remove.
+     */
+    public IronSettings setCompressionThreshold(int compressionThreshold) {
+        checkMutable();
+        if (compressionThreshold < MIN_COMPRESSION_THRESHOLD || compressionThreshold > MAX_COMPRESSION_THRESHOLD) throw new IllegalArgumentException();
+        this.compressionThreshold = compressionThreshold;
+        return this;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Deflate level, from 1 (fastest) to 9 (smallest). Default is 6.
+     */
+    public IronSettings setCompressionLevel(int compressionLevel) {
+        checkMutable();
+        if (compressionLevel < MIN_COMPRESSION_LEVEL || compressionLevel > MAX_COMPRESSION_LEVEL) throw new IllegalArgumentException();
+        this.compressionLevel = compressionLevel;
+        return this;
+    }
+
+    public byte[] getCompressionDictionary() {
+        return compressionDictionary == null ? null : compressionDictionary.clone();
+    }
+
+    /**
+     * Preset deflate dictionary, typically the JSON keys and values common to the messages of a queue.
+     * It greatly improves the compression of small messages. Consumers must be configured with the same dictionary. Default is none.
+     */
+    public IronSettings setCompressionDictionary(byte[] compressionDictionary) {
+        checkMutable();
+        this.compressionDictionary = compressionDictionary == null ? null : compressionDictionary.clone();
+        return this;
+    }
+
+    byte[] compressionDictionary() {
+        return compressionDictionary;
+    }
+
+    /**
+     * In bytes
+     */
+    public int getClaimCheckThreshold() {
+        return claimCheckThreshold;
+    }
+
+    /**
+     * Message bodies of at least this size in bytes (UTF-8) are written to the {@link #getPayloadStore()} and only a reference is enqueued.
+     * IronMQ limits messages to 64KB. Default is 0 (disabled).
+     * Payloads are removed from the store when their message is deleted, polled with {@link #setPollDelete(boolean)}, or could not be enqueued.
+     * Plain bodies starting with <code>@claim:</code> are sent escaped.
+     */
+    public IronSettings setClaimCheckThreshold(int claimCheckThreshold) {
+        checkMutable();
+        if (claimCheckThreshold < MIN_CLAIM_CHECK_THRESHOLD || claimCheckThreshold > MAX_CLAIM_CHECK_THRESHOLD) throw new IllegalArgumentException();
+        this.claimCheckThreshold = claimCheckThreshold;
+        return this;
+    }
+
+    public IronPayloadStore getPayloadStore() {
+        return payloadStore;
+    }
+
+    /**
+     * Store of the payloads bigger than {@link #getClaimCheckThreshold()}. Consumers need it to read these messages. Default is none.
+     */
+    public IronSettings setPayloadStore(IronPayloadStore payloadStore) {
+        checkMutable();
+        this.payloadStore = payloadStore;
+        return this;
+    }
+
+    public IronOutbox getOutbox() {
+        return outbox;
+    }
+
+    /**
+     * Outbox receiving the offers made with these settings: they return once the messages are appended to its local log,
+     * and are shipped to IronMQ in the background. No message id is returned. Default is none (offers are sent right away).
+     */
+    public IronSettings setOutbox(IronOutbox outbox) {
+        checkMutable();
+        this.outbox = outbox;
+        return this;
+    }
+
     public int getPollWait() {
         return pollWait;
     }
@@ -130,6 +521,7 @@ public class IronSettings {
      * Time in seconds to wait for a message to become available. This enables long polling. Default is 0 (does not wait), maximum is 30.
      */
     public IronSettings setPollWait(long wait, TimeUnit unit) {
+        checkMutable();
         long t = unit.toSeconds(wait);
         if (t < MIN_WAIT || t > MAX_WAIT) throw new IllegalArgumentException();
         this.pollWait = Math.toIntExact(t);
@@ -144,6 +536,7 @@ public class IronSettings {
      * After timeout (in seconds), item will be placed back onto queue. You must delete the message from the queue to ensure it does not go back onto the queue. Default is 60 seconds. Minimum is 30 seconds, and maximum is 86,400 seconds (24 hours).
      */
     public IronSettings setMessageTimeout(long timeout, TimeUnit unit) {
+        checkMutable();
         long t = unit.toSeconds(timeout);
         if (t < MIN_TIMEOUT || t > MAX_TIMEOUT) throw new IllegalArgumentException();
         this.messageTimeout = Math.toIntExact(t);
@@ -158,6 +551,7 @@ public class IronSettings {
      * The item will not be available on the queue until this many seconds have passed. Default is 0 seconds. Maximum is 604,800 seconds (7 days).
      */
     public IronSettings setMessageDelay(long delay, TimeUnit unit) {
+        checkMutable();
         long t = unit.toSeconds(delay);
         if (t < MIN_DELAY || t > MAX_DELAY) throw new IllegalArgumentException();
         this.messageDelay = Math.toIntExact(t);
@@ -172,6 +566,7 @@ public class IronSettings {
      * How long in seconds to keep the item on the queue before it is deleted. Default is 604,800 seconds (7 days). Maximum is 2,592,000 seconds (30 days).
      */
     public IronSettings setMessageExpiration(long expiration, TimeUnit unit) {
+        checkMutable();
         long t = unit.toSeconds(expiration);
         if (t < MIN_EXPIRATION || t > MAX_EXPIRATION) throw new IllegalArgumentException();
         this.messageExpiration = Math.toIntExact(t);
@@ -186,6 +581,7 @@ public class IronSettings {
      * Number of times to retry. Default is 3. Maximum is 100.
      */
     public IronSettings setPushRetries(int pushRetries) {
+        checkMutable();
         if (pushRetries < MIN_RETRY || pushRetries > MAX_RETRY) throw new IllegalArgumentException();
         this.pushRetries = pushRetries;
         return this;
@@ -199,25 +595,80 @@ public class IronSettings {
      * Time in seconds between retries. Default is 60. Minimum is 3 and maximum is 86400 seconds.
      */
     public IronSettings setPushRetryDelay(long pushRetryDelay, TimeUnit unit) {
+        checkMutable();
         long t = unit.toSeconds(pushRetryDelay);
         if (t < MIN_RETRY_DELAY || t > MAX_RETRY_DELAY) throw new IllegalArgumentException();
         this.pushRetryDelay = Math.toIntExact(t);
         return this;
     }
 
+    /**
+     * Copies all the fields: values are already valid and are not checked again. The copy can be modified, even the copy of a {@link #snapshot()}.
+     */
     public IronSettings copy() {
-        return new IronSettings()
-            .setMessageTimeout(getMessageTimeout(), TimeUnit.SECONDS)
-            .setMessageExpiration(getMessageExpiration(), TimeUnit.SECONDS)
-            .setMessageDelay(getMessageDelay(), TimeUnit.SECONDS)
-            .setPollWait(getPollWait(), TimeUnit.SECONDS)
-            .setPollDelete(isPollDelete())
-            .setPushRetries(getPushRetries())
-            .setPushRetryDelay(getPushRetryDelay(), TimeUnit.SECONDS)
-            .setErrorQueuename(getErrorQueuename())
-            .setBackoffFactor(getBackoffFactor())
-            .setBackoffInterval(getBackoffInterval(), TimeUnit.SECONDS)
-            .setBackoffRetries(getBackoffRetries());
+        IronSettings copy = new IronSettings();
+        copy.messageTimeout = messageTimeout;
+        copy.messageDelay = messageDelay;
+        copy.messageExpiration = messageExpiration;
+        copy.pollWait = pollWait;
+        copy.pollDelete = pollDelete;
+        copy.pollBatchSize = pollBatchSize;
+        copy.ackBatchSize = ackBatchSize;
+        copy.ackLinger = ackLinger;
+        copy.prefetchSize = prefetchSize;
+        copy.leaseMaxRenewals = leaseMaxRenewals;
+        copy.infoCacheTtl = infoCacheTtl;
+        copy.autoscaleInterval = autoscaleInterval;
+        copy.autoscaleHysteresis = autoscaleHysteresis;
+        copy.producerBatchSize = producerBatchSize;
+        copy.producerBatchBytes = producerBatchBytes;
+        copy.producerLinger = producerLinger;
+        copy.compressionThreshold = compressionThreshold;
+        copy.compressionLevel = compressionLevel;
+        copy.compressionDictionary = compressionDictionary;
+        copy.claimCheckThreshold = claimCheckThreshold;
+        copy.payloadStore = payloadStore;
+        copy.outbox = outbox;
+        copy.pushRetries = pushRetries;
+        copy.pushRetryDelay = pushRetryDelay;
+        copy.errorQueuename = errorQueuename;
+        copy.backoffRetries = backoffRetries;
+        copy.backoffInterval = backoffInterval;
+        copy.backoffFactor = backoffFactor;
+        copy.backoffPolicy = backoffPolicy;
+        copy.backoffDeadline = backoffDeadline;
+        copy.backoffMaxRetryAfter = backoffMaxRetryAfter;
+        return copy;
+    }
+
+    /**
+     * Immutable copy of these settings, which can be kept and shared between threads: its setters throw an {@link IllegalStateException}.
+     * Returns these settings if they are already a snapshot. Use {@link #copy()} for a copy to modify.
+     */
+    public IronSettings snapshot() {
+        if (frozen) {
+            return this;
+        }
+        IronSettings snapshot = copy();
+        snapshot.frozen = true;
+        return snapshot;
+    }
+
+    /**
+     * true for a {@link #snapshot()}
+     */
+    public boolean isFrozen() {
+        return frozen;
+    }
+
+    private void checkMutable() {
+        if (frozen) throw new IllegalStateException("Settings snapshot cannot be modified");
+    }
+
+    static int toSeconds(long value, TimeUnit unit, int min, int max) {
+        long t = unit.toSeconds(value);
+        if (t < min || t > max) throw new IllegalArgumentException();
+        return Math.toIntExact(t);
     }
 
 }
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A polled message whose body is decoded with a {@link IronMessageCodec} on first access.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronTypedMessage<T> {
+
+    private final IronMessage message;
+    private final IronMessageCodec<T> codec;
+    private volatile T payload;
+
+    IronTypedMessage(IronMessage message, IronMessageCodec<T> codec) {
+        this.message = message;
+        this.codec = codec;
+    }
+
+    public IronMessage getMessage() {
+        return message;
+    }
+
+    public String getId() {
+        return message.getId();
+    }
+
+    public T getPayload() {
+        T p = payload;
+        if (p == null) {
+            payload = p = codec.decode(message.getRawBody());
+        }
+        return p;
+    }
+
+    public void touch() {
+        message.touch();
+    }
+
+    public void release() {
+        message.release();
+    }
+
+    public void release(long delay, TimeUnit unit) {
+        message.release(delay, unit);
+    }
+
+    public void delete() {
+        message.delete();
+    }
+
+    @Override
+    public String toString() {
+        return message.toString();
+    }
+
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * View of a {@link IronQueue} exchanging payloads of type T, converted to and from message bodies by a {@link IronMessageCodec}.
+ * Payloads are encoded straight to the body string and only decoded when {@link IronTypedMessage#getPayload()} is called.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronTypedQueue<T> {
+
+    private final IronQueue queue;
+    private final IronMessageCodec<T> codec;
+
+    IronTypedQueue(IronQueue queue, IronMessageCodec<T> codec) {
+        this.queue = queue;
+        this.codec = codec;
+    }
+
+    public IronQueue getQueue() {
+        return queue;
+    }
+
+    public IronMessageCodec<T> getCodec() {
+        return codec;
+    }
+
+    public void offer(T payload) {
+        offer(Collections.singletonList(payload), queue.getProject().getSettings());
+    }
+
+    public void offer(Collection<T> payloads) {
+        offer(payloads, queue.getProject().getSettings());
+    }
+
+    public void offer(Collection<T> payloads, IronSettings settings) {
+        List<String> bodies = encode(payloads);
+        queue.post(bodies, settings, bodies);
+    }
+
+    public CompletionStage<List<String>> offerAsync(T payload) {
+        return offerAsync(Collections.singletonList(payload), queue.getProject().getSettings());
+    }
+
+    public CompletionStage<List<String>> offerAsync(Collection<T> payloads, IronSettings settings) {
+        List<String> bodies = encode(payloads);
+        return queue.postAsync(bodies, settings, bodies);
+    }
+
+    /**
+     * Sends a payload through a producer of this queue, batched with the other messages of the producer
+     */
+    public CompletionStage<String> send(IronProducer producer, T payload) {
+        if (producer.getQueue() != queue) {
+            throw new IllegalArgumentException("Producer of queue " + producer.getQueue() + " cannot send to queue " + queue);
+        }
+        return producer.send(codec.encode(payload));
+    }
+
+    public IronTypedMessage<T> poll() {
+        return wrap(queue.poll());
+    }
+
+    public IronTypedMessage<T> poll(IronSettings settings) {
+        return wrap(queue.poll(settings));
+    }
+
+    public List<IronTypedMessage<T>> pollBatch(int max, IronSettings settings) {
+        List<IronMessage> messages = queue.pollBatch(max, settings);
+        List<IronTypedMessage<T>> typed = new ArrayList<>(messages.size());
+        for (IronMessage message : messages) {
+            typed.add(wrap(message));
+        }
+        return typed;
+    }
+
+    public CompletionStage<IronTypedMessage<T>> pollAsync() {
+        return queue.pollAsync().thenApply(this::wrap);
+    }
+
+    public IronPoller asyncPoll(Executor executor, Consumer<IronTypedMessage<T>> consumer) {
+        return queue.asyncPoll(executor, message -> consumer.accept(wrap(message)));
+    }
+
+    public IronPoller asyncPoll(Executor executor, Consumer<IronTypedMessage<T>> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        return queue.asyncPoll(executor, message -> consumer.accept(wrap(message)), onError, settings);
+    }
+
+    @Override
+    public String toString() {
+        return queue.toString();
+    }
+
+    private List<String> encode(Collection<T> payloads) {
+        List<String> bodies = new ArrayList<>(payloads.size());
+        for (T payload : payloads) {
+            bodies.add(codec.encode(payload));
+        }
+        return bodies;
+    }
+
+    private IronTypedMessage<T> wrap(IronMessage message) {
+        return message == null ? null : new IronTypedMessage<>(message, codec);
+    }
+
+}
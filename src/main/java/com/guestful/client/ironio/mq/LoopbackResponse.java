@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.json.JsonStructure;
+import javax.json.JsonWriter;
+import javax.ws.rs.ProcessingException;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.GenericType;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.Link;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.NewCookie;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Inbound response of the {@link IronLoopback} engine. The entity is kept as JSON bytes, as received from the network,
+ * so that reading it costs what it costs with a real server.
+ * <p>
+ * Entities can be read as {@link JsonObject}, {@link JsonArray}, {@link JsonStructure}, {@link InputStream}, String or byte[].
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class LoopbackResponse extends Response {
+
+    private final StatusType status;
+    private final byte[] entity;
+    private boolean closed;
+
+    LoopbackResponse(int status, byte[] entity) {
+        this.status = statusOf(status);
+        this.entity = entity;
+    }
+
+    static LoopbackResponse of(int status, JsonStructure json) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        try (JsonWriter writer = Json.createWriter(out)) {
+            writer.write(json);
+        }
+        return new LoopbackResponse(status, out.toByteArray());
+    }
+
+    static LoopbackResponse message(int status, String msg) {
+        return of(status, Json.createObjectBuilder().add("msg", msg).build());
+    }
+
+    @Override
+    public int getStatus() {
+        return status.getStatusCode();
+    }
+
+    @Override
+    public StatusType getStatusInfo() {
+        return status;
+    }
+
+    @Override
+    public Object getEntity() {
+        if (closed) throw new IllegalStateException("Response is closed");
+        return entity == null ? null : new ByteArrayInputStream(entity);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T readEntity(Class<T> type) {
+        if (closed) throw new IllegalStateException("Response is closed");
+        if (entity == null) return null;
+        if (type == InputStream.class) return (T) new ByteArrayInputStream(entity);
+        if (type == String.class) return (T) new String(entity, StandardCharsets.UTF_8);
+        if (type == byte[].class) return (T) entity.clone();
+        if (type == JsonObject.class || type == JsonArray.class || type == JsonStructure.class) {
+            try (JsonReader reader = Json.createReader(new ByteArrayInputStream(entity))) {
+                return type.cast(reader.read());
+            } catch (ClassCastException e) {
+                throw new ProcessingException("Entity is not a " + type.getSimpleName(), e);
+            }
+        }
+        throw new ProcessingException("No reader for " + type.getName());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T readEntity(GenericType<T> type) {
+        return (T) readEntity(type.getRawType());
+    }
+
+    @Override
+    public <T> T readEntity(Class<T> type, Annotation[] annotations) {
+        return readEntity(type);
+    }
+
+    @Override
+    public <T> T readEntity(GenericType<T> type, Annotation[] annotations) {
+        return readEntity(type);
+    }
+
+    @Override
+    public boolean hasEntity() {
+        if (closed) throw new IllegalStateException("Response is closed");
+        return entity != null;
+    }
+
+    @Override
+    public boolean bufferEntity() {
+        if (closed) throw new IllegalStateException("Response is closed");
+        return entity != null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    @Override
+    public MediaType getMediaType() {
+        return entity == null ? null : MediaType.APPLICATION_JSON_TYPE;
+    }
+
+    @Override
+    public Locale getLanguage() {
+        return null;
+    }
+
+    @Override
+    public int getLength() {
+        return entity == null ? -1 : entity.length;
+    }
+
+    @Override
+    public Set<String> getAllowedMethods() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public Map<String, NewCookie> getCookies() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public EntityTag getEntityTag() {
+        return null;
+    }
+
+    @Override
+    public Date getDate() {
+        return null;
+    }
+
+    @Override
+    public Date getLastModified() {
+        return null;
+    }
+
+    @Override
+    public URI getLocation() {
+        return null;
+    }
+
+    @Override
+    public Set<Link> getLinks() {
+        return Collections.emptySet();
+    }
+
+    @Override
+    public boolean hasLink(String relation) {
+        return false;
+    }
+
+    @Override
+    public Link getLink(String relation) {
+        return null;
+    }
+
+    @Override
+    public Link.Builder getLinkBuilder(String relation) {
+        return null;
+    }
+
+    @Override
+    public MultivaluedMap<String, Object> getMetadata() {
+        MultivaluedMap<String, Object> headers = new MultivaluedHashMap<>();
+        if (entity != null) {
+            headers.putSingle(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+            headers.putSingle(HttpHeaders.CONTENT_LENGTH, entity.length);
+        }
+        return headers;
+    }
+
+    @Override
+    public MultivaluedMap<String, String> getStringHeaders() {
+        MultivaluedMap<String, String> headers = new MultivaluedHashMap<>();
+        for (Map.Entry<String, List<Object>> header : getMetadata().entrySet()) {
+            headers.putSingle(header.getKey(), String.valueOf(header.getValue().get(0)));
+        }
+        return headers;
+    }
+
+    @Override
+    public String getHeaderString(String name) {
+        return getStringHeaders().getFirst(name);
+    }
+
+    @Override
+    public String toString() {
+        return status.getStatusCode() + " " + status.getReasonPhrase() + (entity == null ? "" : ": " + new String(entity, StandardCharsets.UTF_8));
+    }
+
+    private static StatusType statusOf(int code) {
+        Status known = Status.fromStatusCode(code);
+        if (known != null) return known;
+        // i.e. 429, not in the JAX-RS 2.0 enum
+        return new StatusType() {
+            @Override
+            public int getStatusCode() {
+                return code;
+            }
+
+            @Override
+            public Status.Family getFamily() {
+                return Status.Family.familyOf(code);
+            }
+
+            @Override
+            public String getReasonPhrase() {
+                return code == 429 ? "Too Many Requests" : "";
+            }
+        };
+    }
+
+}
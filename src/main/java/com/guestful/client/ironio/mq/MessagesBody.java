@@ -0,0 +1,120 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.Json;
+import javax.json.stream.JsonGenerator;
+import javax.json.stream.JsonGeneratorFactory;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Body of a POST /messages request, written straight to the connection:
+ * <code>{"messages":[{"body":"...","timeout":60,"delay":0,"expires_in":604800},...]}</code>
+ * <p>
+ * Message bodies are already serialized: no intermediate JSON tree is built.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class MessagesBody implements StreamingOutput {
+
+    private static final JsonGeneratorFactory GENERATORS = Json.createGeneratorFactory(null);
+
+    private final List<?> bodies;
+    private final int timeout;
+    private final int delay;
+    private final int expiration;
+
+    /**
+     * @param bodies String or UTF-8 byte[] bodies
+     */
+    MessagesBody(List<?> bodies, IronSettings settings) {
+        this.bodies = bodies;
+        this.timeout = settings.getMessageTimeout();
+        this.delay = settings.getMessageDelay();
+        this.expiration = settings.getMessageExpiration();
+    }
+
+    int size() {
+        return bodies.size();
+    }
+
+    List<?> getBodies() {
+        return bodies;
+    }
+
+    int getTimeout() {
+        return timeout;
+    }
+
+    int getDelay() {
+        return delay;
+    }
+
+    int getExpiration() {
+        return expiration;
+    }
+
+    /**
+     * UTF-8 size of the bodies, without the JSON envelope
+     */
+    long getPayloadBytes() {
+        long bytes = 0;
+        for (Object body : bodies) {
+            bytes += body instanceof byte[] ? ((byte[]) body).length : utf8Length((String) body);
+        }
+        return bytes;
+    }
+
+    private static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) n++;
+            else if (c < 0x800) n += 2;
+            else if (Character.isHighSurrogate(c)) {
+                n += 4;
+                i++;
+            } else n += 3;
+        }
+        return n;
+    }
+
+    @Override
+    public void write(OutputStream output) {
+        JsonGenerator generator = GENERATORS.createGenerator(output, StandardCharsets.UTF_8);
+        generator.writeStartObject().writeStartArray("messages");
+        for (Object body : bodies) {
+            generator.writeStartObject()
+                .write("body", body instanceof byte[] ? new String((byte[]) body, StandardCharsets.UTF_8) : (String) body)
+                .write("timeout", timeout)
+                .write("delay", delay)
+                .write("expires_in", expiration)
+                .writeEnd();
+        }
+        generator.writeEnd().writeEnd();
+        // the entity stream is closed by the JAX-RS runtime
+        generator.flush();
+    }
+
+    @Override
+    public String toString() {
+        return bodies.size() + " messages";
+    }
+
+}
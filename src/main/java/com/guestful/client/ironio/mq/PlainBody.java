@@ -0,0 +1,90 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Escape of the plain message bodies which start like an envelope (<code>@deflate:</code>, <code>@claim:</code> or this escape):
+ * <code>@plain:&lt;body&gt;</code>. Consumers recognize envelopes by their prefix only, so that such a body would otherwise
+ * be inflated or looked up in the payload store.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class PlainBody {
+
+    static final String MARKER = "@plain:";
+
+    private static final String[] MARKERS = {BodyCompression.MARKER, ClaimCheck.MARKER, MARKER};
+
+    private PlainBody() {
+    }
+
+    /**
+     * @param bodies String or UTF-8 byte[] bodies
+     */
+    static boolean needsEscape(List<?> bodies) {
+        for (Object body : bodies) {
+            if (needsEscape(body)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param body String or UTF-8 byte[] body
+     * @return the escaped body if it starts like an envelope, otherwise the body itself
+     */
+    static Object escape(Object body) {
+        if (!needsEscape(body)) return body;
+        return MARKER + (body instanceof byte[] ? new String((byte[]) body, StandardCharsets.UTF_8) : (String) body);
+    }
+
+    static boolean isEscaped(String body) {
+        return body != null && body.startsWith(MARKER);
+    }
+
+    static String unescape(String body) {
+        return body.substring(MARKER.length());
+    }
+
+    private static boolean needsEscape(Object body) {
+        if (body instanceof byte[]) {
+            byte[] bytes = (byte[]) body;
+            // markers are ASCII
+            if (bytes.length == 0 || bytes[0] != '@') return false;
+            for (String marker : MARKERS) {
+                if (startsWith(bytes, marker)) return true;
+            }
+            return false;
+        }
+        String s = (String) body;
+        if (s.isEmpty() || s.charAt(0) != '@') return false;
+        for (String marker : MARKERS) {
+            if (s.startsWith(marker)) return true;
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] bytes, String marker) {
+        if (bytes.length < marker.length()) return false;
+        for (int i = 0; i < marker.length(); i++) {
+            if (bytes[i] != marker.charAt(i)) return false;
+        }
+        return true;
+    }
+
+}
@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+/**
+ * Delay before a poller polls again after a failed poll: 100ms, doubled after each consecutive failure up to 10s,
+ * and back to 100ms after a successful poll. Used by one poller thread at a time.
+ * <p>
+ * When the poll failed on an open circuit, the delay lasts at least until the circuit lets trial calls through.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class PollBackoff {
+
+    static final long MIN_DELAY = 100;
+    static final long MAX_DELAY = 10_000;
+
+    private long delay;
+
+    /**
+     * @return the delay in milliseconds before the next poll
+     */
+    long next() {
+        delay = delay == 0 ? MIN_DELAY : Math.min(MAX_DELAY, delay * 2);
+        return delay;
+    }
+
+    /**
+     * @return the delay in milliseconds before the next poll after this error
+     */
+    long next(Throwable error) {
+        return Math.max(next(), retryAfter(error));
+    }
+
+    void reset() {
+        delay = 0;
+    }
+
+    /**
+     * Sleeps for the next delay after this error
+     *
+     * @return false if interrupted
+     */
+    boolean sleep(Throwable error) {
+        try {
+            Thread.sleep(next(error));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    /**
+     * @return the milliseconds before the open circuit which failed the poll lets calls through, 0 for other errors
+     */
+    static long retryAfter(Throwable error) {
+        while (error != null && !(error instanceof IronCircuitOpenException)) {
+            error = error.getCause();
+        }
+        return error == null ? 0 : ((IronCircuitOpenException) error).getRetryAfter();
+    }
+
+}
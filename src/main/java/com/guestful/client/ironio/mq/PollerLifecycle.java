@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * State of a poller and count of its running handlers and polls, moving from {@link IronPollerState#RUNNING} to
+ * {@link IronPollerState#DRAINING} on {@link #stopAccepting()}, then to {@link IronPollerState#STOPPED}
+ * once the last handler and the last poll exit.
+ * <p>
+ * Workers call {@link #enter()} before handling a reserved message and {@link #exit()} after. A worker that cannot enter
+ * must release its message: nothing will handle it.
+ * Pollers call {@link #enterPoll()} before a poll and {@link #exitPoll()} once its messages are handed over or released,
+ * so that a poller is not stopped while a long poll can still return messages.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class PollerLifecycle {
+
+    private static final Logger LOGGER = Logger.getLogger(PollerLifecycle.class.getName());
+
+    private final AtomicReference<IronPollerState> state = new AtomicReference<>(IronPollerState.RUNNING);
+    private final AtomicInteger handling = new AtomicInteger();
+    private final AtomicInteger polling = new AtomicInteger();
+    private final CompletableFuture<Void> stopped = new CompletableFuture<>();
+    private final Runnable onStopped;
+
+    /**
+     * @param onStopped run once, when the state becomes {@link IronPollerState#STOPPED}
+     */
+    PollerLifecycle(Runnable onStopped) {
+        this.onStopped = onStopped;
+    }
+
+    IronPollerState getState() {
+        return state.get();
+    }
+
+    boolean isRunning() {
+        return state.get() == IronPollerState.RUNNING;
+    }
+
+    int getHandling() {
+        return handling.get();
+    }
+
+    /**
+     * @return false if the poller is not running anymore: the message must be released instead of handled
+     */
+    boolean enter() {
+        handling.incrementAndGet();
+        if (isRunning()) {
+            return true;
+        }
+        exit();
+        return false;
+    }
+
+    void exit() {
+        if (handling.decrementAndGet() == 0 && polling.get() == 0 && state.get() == IronPollerState.DRAINING) {
+            terminate();
+        }
+    }
+
+    /**
+     * @return false if the poller is not running anymore: the poll must not be sent
+     */
+    boolean enterPoll() {
+        polling.incrementAndGet();
+        if (isRunning()) {
+            return true;
+        }
+        exitPoll();
+        return false;
+    }
+
+    void exitPoll() {
+        if (polling.decrementAndGet() == 0 && handling.get() == 0 && state.get() == IronPollerState.DRAINING) {
+            terminate();
+        }
+    }
+
+    /**
+     * @return true if this call moved the poller out of {@link IronPollerState#RUNNING}
+     */
+    boolean stopAccepting() {
+        if (!state.compareAndSet(IronPollerState.RUNNING, IronPollerState.DRAINING)) {
+            return false;
+        }
+        if (handling.get() == 0 && polling.get() == 0) {
+            terminate();
+        }
+        return true;
+    }
+
+    /**
+     * @return completed with true when stopped, or with false if handlers or polls were still running after the timeout
+     */
+    CompletableFuture<Boolean> drain(Duration timeout, ScheduledExecutorService scheduler) {
+        CompletableFuture<Boolean> drained = new CompletableFuture<>();
+        stopped.thenRun(() -> drained.complete(true));
+        if (!drained.isDone()) {
+            ScheduledFuture<?> expiry = scheduler.schedule(() -> drained.complete(false), timeout.toNanos(), TimeUnit.NANOSECONDS);
+            drained.whenComplete((done, e) -> expiry.cancel(false));
+        }
+        return drained;
+    }
+
+    private void terminate() {
+        if (state.compareAndSet(IronPollerState.DRAINING, IronPollerState.STOPPED)) {
+            try {
+                onStopped.run();
+            } catch (RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Error while stopping poller: " + e.getMessage(), e);
+            } finally {
+                stopped.complete(null);
+            }
+        }
+    }
+
+}
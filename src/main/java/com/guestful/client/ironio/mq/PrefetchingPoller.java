@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Poller filling a bounded local buffer from one task while several worker tasks consume it.
+ * See {@link IronQueue#prefetchPoll(Executor, int, Consumer, BiConsumer, IronSettings)}
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+class PrefetchingPoller implements IronPoller {
+
+    private static final Logger LOGGER = Logger.getLogger(PrefetchingPoller.class.getName());
+
+    // weight of the last processing time in the moving average
+    private static final double EWMA_ALPHA = 0.2;
+
+    private final IronQueue queue;
+    private final int workers;
+    private final Consumer<IronMessage> consumer;
+    private final BiConsumer<IronMessage, RuntimeException> onError;
+    private final IronSettings pollSettings;
+    private final IronAcknowledger acknowledger;
+    private final long timeoutNanos;
+    private final BlockingQueue<IronMessage> buffer = new LinkedBlockingQueue<>();
+    private final AtomicLong avgProcessingNanos = new AtomicLong();
+    private final IronMetrics metrics;
+    private final PollerLifecycle lifecycle;
+    private final Object room = new Object();
+
+    PrefetchingPoller(IronQueue queue, int workers, Consumer<IronMessage> consumer, BiConsumer<IronMessage, RuntimeException> onError, IronSettings settings) {
+        if (workers < 1) throw new IllegalArgumentException();
+        this.queue = queue;
+        this.workers = workers;
+        this.consumer = consumer;
+        this.onError = onError;
+        this.pollSettings = settings.copy().setPollWait(IronSettings.MAX_WAIT, TimeUnit.SECONDS).snapshot();
+        this.timeoutNanos = TimeUnit.SECONDS.toNanos(settings.getMessageTimeout());
+        this.acknowledger = settings.getAckBatchSize() > 1 ?
+            new IronAcknowledger(queue.getProject().getClient().getScheduler(), settings.getAckBatchSize(), settings.getAckLinger(), TimeUnit.MILLISECONDS, onError) :
+            null;
+        this.metrics = queue.getProject().getClient().getMetrics();
+        this.lifecycle = new PollerLifecycle(() -> {
+            if (acknowledger != null) {
+                acknowledger.close();
+            }
+        });
+    }
+
+    @Override
+    public IronQueue getQueue() {
+        return queue;
+    }
+
+    @Override
+    public int getInFlight() {
+        return buffer.size() + lifecycle.getHandling();
+    }
+
+    @Override
+    public void stop() {
+        stopAccepting();
+    }
+
+    @Override
+    public void stopAccepting() {
+        if (!lifecycle.stopAccepting()) return;
+        synchronized (room) {
+            room.notifyAll();
+        }
+        releaseBuffer();
+        metrics.onPollerStopped(this);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> drain(Duration timeout) {
+        stopAccepting();
+        return lifecycle.drain(timeout, queue.getProject().getClient().getScheduler());
+    }
+
+    @Override
+    public IronPollerState getState() {
+        return lifecycle.getState();
+    }
+
+    void start(Executor executor) {
+        metrics.onPollerStarted(this);
+        executor.execute(this::fetch);
+        for (int i = 0; i < workers; i++) {
+            executor.execute(this::work);
+        }
+    }
+
+    /**
+     * Number of messages the buffer may hold: what the workers can process in half the reservation time,
+     * so that the last buffered message is still reserved when its turn comes.
+     */
+    int capacity() {
+        long avg = avgProcessingNanos.get();
+        if (avg == 0) {
+            // nothing measured yet: one message per worker
+            return Math.min(pollSettings.getPrefetchSize(), workers);
+        }
+        long max = timeoutNanos / 2 / avg * workers;
+        return (int) Math.max(1, Math.min(pollSettings.getPrefetchSize(), max));
+    }
+
+    private void fetch() {
+        PollBackoff backoff = new PollBackoff();
+        while (lifecycle.isRunning() && !Thread.currentThread().isInterrupted()) {
+            try {
+                int free = capacity() - buffer.size();
+                if (free <= 0) {
+                    synchronized (room) {
+                        if (lifecycle.isRunning() && buffer.size() >= capacity()) {
+                            room.wait(1000);
+                        }
+                    }
+                    continue;
+                }
+                if (LOGGER.isLoggable(Level.FINEST)) {
+                    LOGGER.finest("Prefetching up to " + free + " messages from queue " + queue.getName() + "...");
+                }
+                if (!lifecycle.enterPoll()) break;
+                try {
+                    List<IronMessage> messages = queue.pollBatch(Math.min(free, IronSettings.MAX_BATCH), pollSettings);
+                    backoff.reset();
+                    buffer.addAll(messages);
+                    if (!lifecycle.isRunning()) {
+                        // stopped during the long poll
+                        releaseBuffer();
+                    }
+                } finally {
+                    lifecycle.exitPoll();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                LOGGER.log(Level.SEVERE, "Error in poller for from queue " + queue.getName() + " from project " + queue.getProject().getId() + ": " + e.getMessage(), e);
+                // do not hammer a failing IronMQ
+                backoff.sleep(e);
+            }
+        }
+    }
+
+    private void work() {
+        while (lifecycle.isRunning() && !Thread.currentThread().isInterrupted()) {
+            IronMessage message;
+            try {
+                message = buffer.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            if (message == null) continue;
+            if (!lifecycle.enter()) {
+                // stopped after the buffer was released
+                IronQueue.release(Collections.singletonList(message));
+                return;
+            }
+            try {
+                synchronized (room) {
+                    room.notifyAll();
+                }
+                if (System.nanoTime() - message.getReservedAt() >= timeoutNanos) {
+                    // reservation lost while buffered: the message is back on the queue
+                    LOGGER.warning("Skipping message " + message.getId() + " from queue " + queue.getName() + ": reservation expired while prefetched");
+                    continue;
+                }
+                IronLeaseManager.Lease lease = pollSettings.getLeaseMaxRenewals() > 0 ?
+                    queue.getProject().getClient().getLeaseManager().track(message, pollSettings.getLeaseMaxRenewals()) :
+                    null;
+                long start = System.nanoTime();
+                try {
+                    consumer.accept(message);
+                } catch (RuntimeException e) {
+                    if (lease != null) {
+                        lease.close();
+                    }
+                    onError.accept(message, e);
+                    continue;
+                } finally {
+                    record(System.nanoTime() - start);
+                }
+                acknowledge(message, lease);
+            } finally {
+                lifecycle.exit();
+            }
+        }
+    }
+
+    /**
+     * Deletes a handled message. Its lease is closed once the delete is done, so that it stays reserved until then.
+     */
+    private void acknowledge(IronMessage message, IronLeaseManager.Lease lease) {
+        if (acknowledger != null) {
+            acknowledger.acknowledge(message, lease);
+            return;
+        }
+        try {
+            if (LOGGER.isLoggable(Level.FINEST)) {
+                LOGGER.finest("Removing message " + message.getId());
+            }
+            message.delete();
+        } catch (RuntimeException e) {
+            onError.accept(message, e);
+        } finally {
+            if (lease != null) {
+                lease.close();
+            }
+        }
+    }
+
+    private void record(long nanos) {
+        avgProcessingNanos.updateAndGet(avg -> avg == 0 ? Math.max(1, nanos) : Math.max(1, Math.round(avg + EWMA_ALPHA * (nanos - avg))));
+    }
+
+    private void releaseBuffer() {
+        List<IronMessage> unprocessed = new ArrayList<>();
+        buffer.drainTo(unprocessed);
+        IronQueue.release(unprocessed);
+    }
+
+}
@@ -0,0 +1,136 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Hashed timing wheel: scheduling and expiring a task are O(1), which a {@link java.util.concurrent.ScheduledExecutorService}
+ * cannot offer for millions of pending timeouts.
+ * <p>
+ * Tasks are added to a lock-free queue and moved to their bucket by the worker thread, which is the only one touching the buckets.
+ * Tasks run on the worker thread, up to two ticks late, and cannot be cancelled: they must check themselves whether they still apply.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class TimingWheel implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(TimingWheel.class.getName());
+
+    // bounds the work of a tick when tasks are scheduled faster than they are sorted
+    private static final int MAX_TRANSFERS = 1 << 20;
+
+    private final long tick;
+    private final List<Timeout>[] buckets;
+    private final int mask;
+    private final Queue<Timeout> pending = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private final long start = System.nanoTime();
+    private volatile boolean running = true;
+
+    /**
+     * @param size number of buckets, rounded up to a power of 2
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    TimingWheel(String name, long tick, TimeUnit unit, int size) {
+        if (tick <= 0 || size <= 0) throw new IllegalArgumentException();
+        this.tick = unit.toNanos(tick);
+        int n = 1;
+        while (n < size) {
+            n <<= 1;
+        }
+        this.buckets = new List[n];
+        for (int i = 0; i < n; i++) {
+            buckets[i] = new ArrayList<>();
+        }
+        this.mask = n - 1;
+        this.worker = new Thread(this::run, name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    void schedule(long delay, TimeUnit unit, Runnable task) {
+        if (!running) throw new IllegalStateException("Timing wheel is closed");
+        pending.offer(new Timeout(System.nanoTime() + unit.toNanos(delay), task));
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        worker.interrupt();
+    }
+
+    private void run() {
+        // tick being completed: its bucket is expired once the tick is over
+        for (long current = 0; running; current++) {
+            long deadline = start + (current + 1) * tick;
+            long sleep;
+            while ((sleep = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, sleep);
+                if (!running) return;
+            }
+            long now = System.nanoTime();
+            Timeout timeout;
+            for (int i = 0; i < MAX_TRANSFERS && (timeout = pending.poll()) != null; i++) {
+                if (timeout.deadline - now <= 0) {
+                    execute(timeout);
+                } else {
+                    // the tick during which the deadline falls, never a past one
+                    long ticks = Math.max((timeout.deadline - start) / tick, current);
+                    buckets[(int) (ticks & mask)].add(timeout);
+                }
+            }
+            List<Timeout> bucket = buckets[(int) (current & mask)];
+            int kept = 0;
+            for (int i = 0, size = bucket.size(); i < size; i++) {
+                timeout = bucket.get(i);
+                if (timeout.deadline - now <= 0) {
+                    execute(timeout);
+                } else {
+                    // due in a later round
+                    bucket.set(kept++, timeout);
+                }
+            }
+            bucket.subList(kept, bucket.size()).clear();
+        }
+    }
+
+    private static void execute(Timeout timeout) {
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.SEVERE, "Timeout task failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static final class Timeout {
+        final long deadline;
+        final Runnable task;
+
+        Timeout(long deadline, Runnable task) {
+            this.deadline = deadline;
+            this.task = task;
+        }
+    }
+
+}
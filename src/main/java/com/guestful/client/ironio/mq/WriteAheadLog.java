@@ -0,0 +1,426 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Segmented log of messages to offer, on memory-mapped files of a fixed size named after their index (<code>00000000000000000003.wal</code>).
+ * <p>
+ * Each record holds one message: <code>[length:int][crc32:int][offeredAt:long][delay:int][timeout:int][expiration:int][queue length:short][queue][body]</code>, UTF-8.
+ * A zero length ends a segment: new segments are zero-filled. On open, the last segment is scanned to find the end of the valid records,
+ * so a record torn by a crash is dropped.
+ * <p>
+ * Appends are made by any thread and made durable by {@link #sync()}, which completes their futures (group fsync).
+ * Records are read by a single thread with {@link #read(int, int)} and forgotten once {@link #commit(Batch)} is called:
+ * the read position is saved in a <code>checkpoint</code> file and fully read segments are deleted.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class WriteAheadLog implements Closeable {
+
+    private static final Logger LOGGER = Logger.getLogger(WriteAheadLog.class.getName());
+
+    static final int HEADER = 8;
+    // offeredAt, delay, timeout, expiration, queue length
+    static final int FIELDS = 8 + 4 + 4 + 4 + 2;
+    private static final String SUFFIX = ".wal";
+    private static final String CHECKPOINT = "checkpoint";
+
+    private final Path directory;
+    private final int segmentSize;
+    // guarded by this
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final List<Segment> dirty = new ArrayList<>();
+    private List<CompletableFuture<Void>> waiting = new ArrayList<>();
+    private Segment writeSegment;
+    private int writePosition;
+    private long pending;
+    private boolean closed;
+    // only used by the reader
+    private Segment readSegment;
+    private int readPosition;
+
+    WriteAheadLog(Path directory, int segmentSize) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        recover();
+    }
+
+    /**
+     * Largest body size in UTF-8 for a queue name
+     */
+    int maxBodyBytes(String queue) {
+        return segmentSize - HEADER - FIELDS - queue.getBytes(StandardCharsets.UTF_8).length;
+    }
+
+    /**
+     * @return a future completed when the records are on disk
+     */
+    CompletableFuture<Void> append(String queue, List<String> bodies, long offeredAt, int delay, int timeout, int expiration) throws IOException {
+        byte[] name = queue.getBytes(StandardCharsets.UTF_8);
+        List<byte[]> records = new ArrayList<>(bodies.size());
+        for (String body : bodies) {
+            byte[] b = body.getBytes(StandardCharsets.UTF_8);
+            if (b.length > segmentSize - HEADER - FIELDS - name.length) {
+                throw new IllegalArgumentException("Message of " + b.length + " bytes does not fit in a segment of " + segmentSize + " bytes");
+            }
+            ByteBuffer record = ByteBuffer.allocate(HEADER + FIELDS + name.length + b.length);
+            record.position(HEADER);
+            record.putLong(offeredAt).putInt(delay).putInt(timeout).putInt(expiration).putShort((short) name.length).put(name).put(b);
+            CRC32 crc = new CRC32();
+            crc.update(record.array(), HEADER, record.capacity() - HEADER);
+            record.putInt(0, record.capacity() - HEADER).putInt(4, (int) crc.getValue());
+            records.add(record.array());
+        }
+        CompletableFuture<Void> durable = new CompletableFuture<>();
+        synchronized (this) {
+            if (closed) throw new IllegalStateException("Closed");
+            for (byte[] record : records) {
+                if (writePosition + record.length > segmentSize) {
+                    writeSegment = newSegment(writeSegment.index + 1);
+                    writePosition = 0;
+                }
+                ByteBuffer buffer = writeSegment.buffer.duplicate();
+                buffer.position(writePosition);
+                buffer.put(record);
+                writePosition += record.length;
+                // a rollover leaves records in the previous segment too
+                if (dirty.isEmpty() || dirty.get(dirty.size() - 1) != writeSegment) {
+                    dirty.add(writeSegment);
+                }
+            }
+            pending += records.size();
+            waiting.add(durable);
+        }
+        return durable;
+    }
+
+    /**
+     * Flushes the appended records to disk and completes their futures
+     */
+    void sync() {
+        List<Segment> segs;
+        List<CompletableFuture<Void>> done;
+        synchronized (this) {
+            if (waiting.isEmpty()) return;
+            segs = new ArrayList<>(dirty);
+            dirty.clear();
+            done = waiting;
+            waiting = new ArrayList<>();
+        }
+        try {
+            for (Segment segment : segs) {
+                segment.buffer.force();
+            }
+        } catch (RuntimeException e) {
+            done.forEach(f -> f.completeExceptionally(e));
+            return;
+        }
+        done.forEach(f -> f.complete(null));
+    }
+
+    synchronized long getPending() {
+        return pending;
+    }
+
+    /**
+     * Reads the next records of the same queue and options, from the last committed position.
+     *
+     * @return null if there is nothing to read
+     */
+    Batch read(int maxRecords, int maxBytes) {
+        Segment lastSegment;
+        int lastPosition;
+        synchronized (this) {
+            lastSegment = writeSegment;
+            lastPosition = writePosition;
+        }
+        Segment segment = readSegment;
+        int position = readPosition;
+        Batch batch = null;
+        while (batch == null || batch.bodies.size() < maxRecords) {
+            if (segment == lastSegment && position >= lastPosition) {
+                break;
+            }
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int length = position + HEADER <= segmentSize ? buffer.getInt(position) : 0;
+            if (length == 0) {
+                if (segment == lastSegment) break;
+                // end of a full segment
+                synchronized (this) {
+                    segment = segments.higherEntry(segment.index).getValue();
+                }
+                position = 0;
+                continue;
+            }
+            Record record = length < 0 || position + HEADER + length > segmentSize ? null : decode(buffer, position, length);
+            if (record == null) {
+                // only possible if the file was altered: skip the rest of the segment
+                LOGGER.severe("Corrupted record in " + segment.file + " at " + position + ", skipping the rest of the segment");
+                if (segment == lastSegment) break;
+                synchronized (this) {
+                    segment = segments.higherEntry(segment.index).getValue();
+                }
+                position = 0;
+                continue;
+            }
+            if (batch == null) {
+                batch = new Batch(record);
+            } else if (!batch.accepts(record) || batch.bytes + record.bytes > maxBytes) {
+                break;
+            }
+            batch.bodies.add(record.body);
+            batch.bytes += record.bytes;
+            position += HEADER + length;
+            batch.segment = segment;
+            batch.position = position;
+        }
+        return batch;
+    }
+
+    /**
+     * Forgets the records of a batch returned by {@link #read(int, int)}, and all those before
+     */
+    void commit(Batch batch) throws IOException {
+        readSegment = batch.segment;
+        readPosition = batch.position;
+        List<Segment> obsolete;
+        synchronized (this) {
+            pending -= batch.bodies.size();
+            Map<Long, Segment> head = segments.headMap(readSegment.index);
+            obsolete = new ArrayList<>(head.values());
+            head.clear();
+        }
+        // if this fails, the records are shipped again after a restart
+        writeCheckpoint(readSegment.index, readPosition);
+        for (Segment segment : obsolete) {
+            // the mapping is released when collected
+            Files.deleteIfExists(segment.file);
+        }
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            closed = true;
+        }
+        sync();
+    }
+
+    private void recover() throws IOException {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    long index = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+                    segments.put(index, new Segment(index, file, map(file)));
+                } catch (NumberFormatException e) {
+                    LOGGER.warning("Ignoring file " + file);
+                }
+            }
+        }
+        long checkpointSegment = 0;
+        int checkpointPosition = 0;
+        Path checkpoint = directory.resolve(CHECKPOINT);
+        if (Files.exists(checkpoint)) {
+            String[] parts = new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim().split(" ");
+            checkpointSegment = Long.parseLong(parts[0]);
+            checkpointPosition = Integer.parseInt(parts[1]);
+        }
+        // segments already shipped
+        for (Segment segment : new ArrayList<>(segments.headMap(checkpointSegment).values())) {
+            segments.remove(segment.index);
+            Files.deleteIfExists(segment.file);
+        }
+        if (segments.isEmpty()) {
+            newSegment(checkpointSegment);
+        }
+        if (segments.firstKey() != checkpointSegment) {
+            // checkpoint segment lost: start from the oldest one
+            checkpointPosition = 0;
+        }
+        readSegment = segments.firstEntry().getValue();
+        readPosition = checkpointPosition;
+        // count the records to ship and find the end of the last segment
+        for (Segment segment : segments.values()) {
+            ByteBuffer buffer = segment.buffer.duplicate();
+            int position = segment == readSegment ? readPosition : 0;
+            while (position + HEADER <= segmentSize) {
+                int length = buffer.getInt(position);
+                if (length <= 0 || position + HEADER + length > segmentSize || decode(buffer, position, length) == null) {
+                    break;
+                }
+                pending++;
+                position += HEADER + length;
+            }
+            writeSegment = segment;
+            writePosition = position;
+        }
+        // drop a torn record, if any
+        ByteBuffer tail = writeSegment.buffer.duplicate();
+        for (int i = writePosition; i < segmentSize; i++) {
+            // reading does not dirty the pages
+            if (tail.get(i) != 0) {
+                tail.put(i, (byte) 0);
+            }
+        }
+        if (pending > 0) {
+            LOGGER.info("Recovered " + pending + " messages to offer from " + directory);
+        }
+    }
+
+    private Segment newSegment(long index) throws IOException {
+        Path file = directory.resolve(String.format("%020d", index) + SUFFIX);
+        Segment segment = new Segment(index, file, map(file));
+        segments.put(index, segment);
+        return segment;
+    }
+
+    private MappedByteBuffer map(Path file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file.toFile(), "rw")) {
+            if (raf.length() != segmentSize) {
+                raf.setLength(segmentSize);
+            }
+            // the mapping stays valid once the channel is closed
+            return raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private void writeCheckpoint(long segment, int position) throws IOException {
+        Path tmp = Files.createTempFile(directory, CHECKPOINT, ".tmp");
+        try {
+            Files.write(tmp, (segment + " " + position).getBytes(StandardCharsets.UTF_8));
+            Files.move(tmp, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Files.deleteIfExists(tmp);
+            throw e;
+        }
+    }
+
+    /**
+     * @return null if the checksum does not match
+     */
+    private static Record decode(ByteBuffer buffer, int position, int length) {
+        if (length < FIELDS) {
+            return null;
+        }
+        byte[] data = new byte[length];
+        ByteBuffer b = buffer.duplicate();
+        b.position(position + HEADER);
+        b.get(data);
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, length);
+        if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+            return null;
+        }
+        ByteBuffer in = ByteBuffer.wrap(data);
+        long offeredAt = in.getLong();
+        int delay = in.getInt();
+        int timeout = in.getInt();
+        int expiration = in.getInt();
+        int nameLength = in.getShort() & 0xFFFF;
+        if (nameLength > length - FIELDS) {
+            return null;
+        }
+        String queue = new String(data, FIELDS, nameLength, StandardCharsets.UTF_8);
+        String body = new String(data, FIELDS + nameLength, length - FIELDS - nameLength, StandardCharsets.UTF_8);
+        return new Record(queue, body, length - FIELDS - nameLength, offeredAt, delay, timeout, expiration);
+    }
+
+    private static final class Segment {
+        final long index;
+        final Path file;
+        final MappedByteBuffer buffer;
+
+        Segment(long index, Path file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+
+    private static final class Record {
+        final String queue;
+        final String body;
+        final int bytes;
+        final long offeredAt;
+        final int delay;
+        final int timeout;
+        final int expiration;
+
+        Record(String queue, String body, int bytes, long offeredAt, int delay, int timeout, int expiration) {
+            this.queue = queue;
+            this.body = body;
+            this.bytes = bytes;
+            this.offeredAt = offeredAt;
+            this.delay = delay;
+            this.timeout = timeout;
+            this.expiration = expiration;
+        }
+    }
+
+    /**
+     * Consecutive records of a queue offered with the same options
+     */
+    static final class Batch {
+        final String queue;
+        final long offeredAt;
+        final int delay;
+        final int timeout;
+        final int expiration;
+        final List<String> bodies = new ArrayList<>();
+        long bytes;
+        private Segment segment;
+        private int position;
+
+        private Batch(Record first) {
+            this.queue = first.queue;
+            this.offeredAt = first.offeredAt;
+            this.delay = first.delay;
+            this.timeout = first.timeout;
+            this.expiration = first.expiration;
+        }
+
+        private boolean accepts(Record record) {
+            return queue.equals(record.queue) && delay == record.delay && timeout == record.timeout && expiration == record.expiration;
+        }
+
+        List<String> getBodies() {
+            return Collections.unmodifiableList(bodies);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class BodyCompressionTest {
+
+    private static final String BIG = "{\"items\":[" + IntStream.range(0, 100).mapToObj(i -> "{\"name\":\"item\",\"price\":10}").collect(Collectors.joining(",")) + "]}";
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("compression");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_big_bodies_are_compressed_and_inflated() throws Exception {
+        IronSettings settings = project.getSettings().copy().setCompressionThreshold(1024);
+        queue.offerRaw(Arrays.asList(BIG, "{\"small\":true}"), settings);
+        List<IronMessage> messages = queue.pollBatch(10);
+        assertTrue(messages.get(0).isCompressed());
+        // logged as posted
+        assertEquals(messages.get(0).getId() + " " + BIG, messages.get(0).toString());
+        assertEquals(BIG, messages.get(0).getRawBody());
+        assertEquals(100, messages.get(0).getBody().getJsonArray("items").size());
+        assertFalse(messages.get(1).isCompressed());
+        assertEquals("{\"small\":true}", messages.get(1).getRawBody());
+
+        IronCompressionStats stats = project.getClient().getCompressionStats();
+        assertEquals(1, stats.getCompressedMessages());
+        assertEquals(BIG.length(), stats.getBytesBeforeCompression());
+        assertTrue(stats.getBytesSaved() > 0);
+        assertEquals(1, stats.getDecompressedMessages());
+    }
+
+    @Test
+    public void test_plain_bodies_looking_compressed_are_escaped() throws Exception {
+        List<String> bodies = Arrays.asList("@deflate:not compressed", "@plain:as is", "@other", "");
+        queue.offerRaw(bodies);
+        queue.offerRawBytes(Collections.singletonList("@deflate:bytes".getBytes(StandardCharsets.UTF_8)), project.getSettings());
+        List<IronMessage> messages = queue.pollBatch(10);
+        assertEquals(5, messages.size());
+        for (IronMessage message : messages) {
+            assertFalse(message.isCompressed());
+        }
+        assertEquals(bodies, messages.subList(0, 4).stream().map(IronMessage::getRawBody).collect(Collectors.toList()));
+        assertEquals("@deflate:bytes", messages.get(4).getRawBody());
+        assertEquals(messages.get(0).getId() + " @deflate:not compressed", messages.get(0).toString());
+    }
+
+    @Test
+    public void test_plain_bodies_looking_compressed_are_escaped_when_compressing() throws Exception {
+        IronSettings settings = project.getSettings().copy().setCompressionThreshold(1024);
+        queue.offerRaw(Collections.singletonList("@deflate:short"), settings);
+        IronMessage message = queue.poll();
+        assertFalse(message.isCompressed());
+        assertEquals("@deflate:short", message.getRawBody());
+    }
+
+    @Test
+    public void test_bodies_are_inflated_with_the_dictionary_of_the_poll() throws Exception {
+        byte[] dictionary = "{\"name\":\"item\",\"price\":10}".getBytes(StandardCharsets.UTF_8);
+        IronSettings settings = project.getSettings().copy()
+            .setCompressionThreshold(1024)
+            .setCompressionDictionary(dictionary);
+        queue.offerRaw(Arrays.asList(BIG, BIG), settings);
+
+        // the project settings have no dictionary
+        IronMessage polled = queue.pollBatch(1, settings).get(0);
+        assertTrue(polled.isCompressed());
+        assertEquals(BIG, polled.getRawBody());
+
+        IronMessage unknown = queue.poll();
+        try {
+            unknown.getRawBody();
+            fail();
+        } catch (IronException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("unknown dictionary"));
+        }
+    }
+
+}
@@ -0,0 +1,167 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class ClaimCheckTest {
+
+    private static final String BIG = "{\"data\":\"" + IntStream.range(0, 2000).mapToObj(Integer::toString).collect(Collectors.joining()) + "\"}";
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+    private Path directory;
+    private IronSettings settings;
+
+    @Before
+    public void setUp() throws IOException {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("claims");
+        directory = Files.createTempDirectory("payloads");
+        settings = project.getSettings().copy()
+            .setClaimCheckThreshold(1024)
+            .setPayloadStore(new IronFilesystemPayloadStore(directory));
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        engine.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : files.collect(Collectors.toList())) {
+                Files.delete(file);
+            }
+        }
+        Files.delete(directory);
+    }
+
+    @Test
+    public void test_big_bodies_are_offloaded_until_deleted() throws Exception {
+        queue.offerRaw(Arrays.asList(BIG, "{}"), settings);
+        assertEquals(1, stored());
+        List<IronMessage> messages = queue.pollBatch(10, settings);
+        assertTrue(messages.get(0).isOffloaded());
+        assertEquals(BIG, messages.get(0).getRawBody());
+        assertFalse(messages.get(1).isOffloaded());
+        messages.get(0).delete();
+        assertEquals(0, stored());
+    }
+
+    @Test
+    public void test_plain_bodies_looking_like_references_are_escaped() throws Exception {
+        queue.offerRaw(Collections.singletonList("@claim:not-a-key"));
+        queue.offerRaw(Collections.singletonList("@claim:short"), settings);
+        for (IronMessage message : queue.pollBatch(10, settings)) {
+            assertFalse(message.isOffloaded());
+            assertTrue(message.getRawBody().startsWith("@claim:"));
+            message.delete();
+        }
+    }
+
+    @Test
+    public void test_payloads_are_removed_when_the_post_fails() throws Exception {
+        IronLoopback down = new IronLoopback();
+        down.close();
+        project.getClient().setLoopback(down);
+        IronSettings noRetry = settings.copy().setBackoffRetries(0);
+        try {
+            queue.offerRaw(Collections.singletonList(BIG), noRetry);
+            fail();
+        } catch (IronClientException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(0, stored());
+        try {
+            queue.offerRawBytes(Collections.singletonList(BIG.getBytes("UTF-8")), noRetry);
+            fail();
+        } catch (IronClientException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        assertEquals(0, stored());
+        try {
+            queue.postAsync(Collections.singletonList(BIG), noRetry, Collections.singletonList(BIG)).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(503, ((IronClientException) e.getCause()).getStatusCode());
+        }
+        assertEquals(0, stored());
+    }
+
+    @Test
+    public void test_payloads_are_removed_with_the_store_of_the_poll() throws Exception {
+        queue.offerRaw(Collections.singletonList(BIG), settings);
+        // the project settings have no payload store
+        IronMessage message = queue.pollBatch(1, settings).get(0);
+        assertEquals(BIG, message.getRawBody());
+        message.delete();
+        assertEquals(0, stored());
+    }
+
+    @Test
+    public void test_payloads_are_removed_when_the_poll_deletes() throws Exception {
+        queue.offerRaw(Arrays.asList(BIG, "{}"), settings);
+        queue.offerRaw(Collections.singletonList(BIG), settings);
+        assertEquals(2, stored());
+        List<IronMessage> messages = queue.pollBatch(10, settings.copy().setPollDelete(true));
+        assertEquals(3, messages.size());
+        assertEquals(0, stored());
+        assertEquals(BIG, messages.get(0).getRawBody());
+        assertEquals(BIG, messages.get(2).getRawBody());
+    }
+
+    @Test
+    public void test_unreadable_payloads_are_kept_when_the_poll_deletes() throws Exception {
+        queue.offerRaw(Collections.singletonList(BIG), settings);
+        IronMessage message = queue.pollBatch(1, settings.copy().setPayloadStore(null).setPollDelete(true)).get(0);
+        assertEquals(1, stored());
+        try {
+            message.getRawBody();
+            fail();
+        } catch (IronException e) {
+            assertEquals(1, stored());
+        }
+    }
+
+    private long stored() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.count();
+        }
+    }
+
+}
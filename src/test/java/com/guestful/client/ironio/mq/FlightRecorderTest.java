@@ -0,0 +1,150 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the JDK Flight Recorder events emitted for requests, retries and pollers against {@link IronMQStandInServer}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class FlightRecorderTest {
+
+    private IronMQStandInServer server;
+    private IronProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new IronMQStandInServer();
+        project = server.createClient().getProject("project", "token");
+        project.getSettings()
+            .setMessageDelay(0, TimeUnit.SECONDS)
+            .setMessageTimeout(30, TimeUnit.SECONDS)
+            .setBackoffInterval(0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void test_flight_recorder_events() throws Exception {
+        IronQueue queue = project.getQueue("jfr");
+        Path file = Files.createTempFile("iron-mq", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.enable("com.guestful.ironmq.Request").withoutThreshold();
+            recording.enable("com.guestful.ironmq.Retry");
+            recording.enable("com.guestful.ironmq.Poller").withoutThreshold();
+            recording.start();
+
+            queue.offerRaw(Arrays.asList("{\"i\":1}", "{\"i\":2}"));
+            CountDownLatch handled = new CountDownLatch(2);
+            ExecutorService executor = Executors.newSingleThreadExecutor();
+            IronPoller poller = queue.asyncPoll(executor, message -> handled.countDown());
+            assertTrue(handled.await(10, TimeUnit.SECONDS));
+            // deleted once no longer in flight
+            while (poller.getInFlight() > 0) {
+                Thread.sleep(10);
+            }
+            poller.stop();
+            executor.shutdownNow();
+
+            server.setErrors(1, 503);
+            IronSettings settings = project.getSettings().copy()
+                .setBackoffInterval(1, TimeUnit.SECONDS)
+                .setBackoffPolicy((s, retry, previous) -> 10)
+                .setBackoffRetries(2);
+            try {
+                queue.offerRaw(Arrays.asList("{\"i\":3}"), settings);
+                fail();
+            } catch (IronClientException ignored) {
+            }
+
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+        Files.delete(file);
+
+        List<RecordedEvent> offers = events.stream()
+            .filter(e -> e.getEventType().getName().equals("com.guestful.ironmq.Request") && "POST".equals(e.getString("method")))
+            .collect(Collectors.toList());
+        assertEquals(2, offers.size());
+        assertEquals("project", offers.get(0).getString("project"));
+        assertEquals("jfr", offers.get(0).getString("queue"));
+        assertEquals(200, offers.get(0).getInt("status"));
+        assertEquals(14, offers.get(0).getLong("requestBytes"));
+        assertEquals(0, offers.get(0).getInt("retries"));
+        assertEquals(503, offers.get(1).getInt("status"));
+        assertEquals(2, offers.get(1).getInt("retries"));
+
+        List<RecordedEvent> retries = events.stream()
+            .filter(e -> e.getEventType().getName().equals("com.guestful.ironmq.Retry"))
+            .collect(Collectors.toList());
+        assertEquals(2, retries.size());
+        assertEquals(1, retries.get(0).getInt("retry"));
+        assertEquals(10, retries.get(0).getDuration("sleep").toMillis());
+
+        List<String> phases = events.stream()
+            .filter(e -> e.getEventType().getName().equals("com.guestful.ironmq.Poller"))
+            .map(e -> e.getString("phase"))
+            .collect(Collectors.toList());
+        assertTrue(phases.contains("poll"));
+        assertEquals(2, phases.stream().filter("handle"::equals).count());
+        assertEquals(2, phases.stream().filter("delete"::equals).count());
+    }
+
+    @Test
+    public void test_events_are_disabled_by_default() throws Exception {
+        IronQueue queue = project.getQueue("jfr-default");
+        Path file = Files.createTempFile("iron-mq", ".jfr");
+        try (Recording recording = new Recording()) {
+            recording.start();
+            queue.offerRaw(Arrays.asList("{\"i\":1}"));
+            queue.deleteMessages(queue.pollBatch(1));
+            recording.stop();
+            recording.dump(file);
+        }
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        assertEquals(0, events.stream().filter(e -> e.getEventType().getName().startsWith("com.guestful.ironmq.")).count());
+    }
+
+}
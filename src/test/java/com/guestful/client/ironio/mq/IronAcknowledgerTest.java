@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronAcknowledgerTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+    private ScheduledExecutorService scheduler;
+    private final List<IronMessage> errors = new CopyOnWriteArrayList<>();
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("ack");
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+    }
+
+    @After
+    public void tearDown() {
+        scheduler.shutdownNow();
+        engine.close();
+    }
+
+    @Test
+    public void test_full_batch_is_deleted_in_one_request() throws Exception {
+        queue.offerRaw(Arrays.asList("{}", "{}", "{}"));
+        List<IronMessage> messages = queue.pollBatch(3);
+        IronAcknowledger acknowledger = new IronAcknowledger(scheduler, 3, 1, TimeUnit.MINUTES, (m, e) -> errors.add(m));
+        acknowledger.acknowledge(messages.get(0));
+        acknowledger.acknowledge(messages.get(1));
+        assertFalse(messages.get(0).isDeleted());
+        acknowledger.acknowledge(messages.get(2));
+        awaitDeleted(messages);
+
+        IronMetricsRegistry.Stats delete = ((IronMetricsRegistry) project.getClient().getMetrics()).get(IronOperation.DELETE, "ack");
+        assertEquals(1, delete.getBatchSize().getCount());
+        assertEquals(3, delete.getBatchSize().getMax());
+        assertEquals(0, engine.getSize("project", "ack"));
+        assertTrue(errors.isEmpty());
+    }
+
+    @Test
+    public void test_incomplete_batch_is_deleted_after_linger() throws Exception {
+        queue.offerRaw("{}");
+        IronMessage message = queue.poll();
+        IronAcknowledger acknowledger = new IronAcknowledger(scheduler, 10, 100, TimeUnit.MILLISECONDS, (m, e) -> errors.add(m));
+        long start = System.nanoTime();
+        acknowledger.acknowledge(message);
+        assertFalse(message.isDeleted());
+        awaitDeleted(Arrays.asList(message));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(0, engine.getSize("project", "ack"));
+    }
+
+    @Test
+    public void test_failed_flush_is_reported() throws Exception {
+        queue.offerRaw(Arrays.asList("{}", "{}"));
+        List<IronMessage> messages = queue.pollBatch(2);
+        IronLoopback down = new IronLoopback();
+        down.close();
+        project.getClient().setLoopback(down);
+        IronAcknowledger acknowledger = new IronAcknowledger(scheduler, 2, 1, TimeUnit.MINUTES, (m, e) -> errors.add(m));
+        acknowledger.acknowledge(messages.get(0));
+        acknowledger.acknowledge(messages.get(1));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (errors.size() < 2 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(messages, errors);
+        assertFalse(messages.get(0).isDeleted());
+        assertFalse(messages.get(1).isDeleted());
+    }
+
+    @Test
+    public void test_close_flushes_pending_messages() {
+        queue.offerRaw(Arrays.asList("{}", "{}"));
+        List<IronMessage> messages = queue.pollBatch(2);
+        IronAcknowledger acknowledger = new IronAcknowledger(scheduler, 10, 1, TimeUnit.MINUTES, (m, e) -> errors.add(m));
+        acknowledger.acknowledge(messages.get(0));
+        acknowledger.close();
+        assertTrue(messages.get(0).isDeleted());
+        // deleted right away once closed
+        acknowledger.acknowledge(messages.get(1));
+        assertTrue(messages.get(1).isDeleted());
+        assertEquals(0, engine.getSize("project", "ack"));
+    }
+
+    private static void awaitDeleted(List<IronMessage> messages) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!messages.stream().allMatch(IronMessage::isDeleted)) {
+            assertTrue("not deleted in time", System.nanoTime() - deadline < 0);
+            Thread.sleep(10);
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronAutoscalingPollerTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+    private ExecutorService executor;
+    private IronSettings settings;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("autoscale");
+        executor = Executors.newCachedThreadPool();
+        // sample every second, one vote is enough
+        settings = project.getSettings().copy()
+            .setAutoscaleInterval(1, TimeUnit.SECONDS)
+            .setAutoscaleHysteresis(1);
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        engine.close();
+    }
+
+    @Test
+    public void test_starts_with_min_pollers() throws Exception {
+        IronAutoscalingPoller poller = queue.autoscalePoll(executor, 2, 4, message -> {
+        });
+        try {
+            assertEquals(2, poller.getActivePollers());
+            assertEquals(IronPollerState.RUNNING, poller.getState());
+        } finally {
+            poller.stop();
+        }
+        assertEquals(0, poller.getActivePollers());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_max_pollers_cannot_be_below_min_pollers() throws Exception {
+        queue.autoscalePoll(executor, 3, 2, message -> {
+        });
+    }
+
+    @Test
+    public void test_scales_up_on_backlog_then_down_when_idle() throws Exception {
+        queue.offerRaw(IntStream.range(0, 300).mapToObj(i -> "{}").collect(Collectors.toList()));
+        AtomicInteger handled = new AtomicInteger();
+        IronAutoscalingPoller poller = queue.autoscalePoll(executor, 1, 4, message -> {
+            sleep(10);
+            handled.incrementAndGet();
+        }, IronQueue::logError, settings);
+        try {
+            // one poller needs 3s for the backlog: more than one interval
+            await(() -> poller.getActivePollers() > 1, 5);
+            assertTrue(poller.getLastQueueSize() > 0);
+            assertTrue(poller.getAverageHandlingTime() >= TimeUnit.MILLISECONDS.toNanos(10));
+            await(() -> handled.get() == 300, 10);
+            // empty queue and idle pollers
+            await(() -> poller.getActivePollers() == 1, 10);
+            assertEquals(0, poller.getLastQueueSize());
+            assertTrue(poller.getIdleRatio() >= 0.8);
+        } finally {
+            poller.stop();
+        }
+    }
+
+    @Test
+    public void test_stopped_pollers_do_not_handle_new_messages() throws Exception {
+        AtomicInteger handled = new AtomicInteger();
+        IronAutoscalingPoller poller = queue.autoscalePoll(executor, 2, 2, message -> handled.incrementAndGet(), IronQueue::logError, settings);
+        queue.offerRaw("{}");
+        await(() -> handled.get() == 1, 5);
+        poller.stop();
+        assertEquals(0, poller.getActivePollers());
+        queue.offerRaw("{}");
+        Thread.sleep(500);
+        assertEquals(1, handled.get());
+    }
+
+    private static void await(BooleanSupplier condition, int seconds) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() - deadline < 0);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
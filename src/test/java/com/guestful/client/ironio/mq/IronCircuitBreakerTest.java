@@ -0,0 +1,219 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.ws.rs.client.AsyncInvoker;
+import javax.ws.rs.client.Client;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronCircuitBreakerTest {
+
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @After
+    public void tearDown() throws Exception {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void test_circuit_breaking_is_disabled_by_default() throws Exception {
+        IronClient client = new IronClient(restClient());
+        assertNull(client.getCircuitBreakerSettings());
+        IronQueue queue = client.getProject("project", "token").getQueue("q");
+        for (int i = 0; i < 20; i++) {
+            try {
+                queue.pollBatch(1, noRetry());
+                fail();
+            } catch (IronClientException e) {
+                assertEquals(503, e.getStatusCode());
+            }
+        }
+        assertEquals(20, calls.get());
+        assertTrue(client.getCircuitBreakers().isEmpty());
+    }
+
+    @Test
+    public void test_circuit_opens_on_failure_rate() throws Exception {
+        List<IronCircuitBreaker.State> states = new ArrayList<>();
+        IronCircuitBreaker breaker = new IronCircuitBreaker("GET q", settings().setOpenDuration(1, TimeUnit.MINUTES), (b, from, to) -> states.add(to));
+        breaker.acquire();
+        breaker.record(false, 0);
+        breaker.acquire();
+        breaker.record(false, 0);
+        assertEquals(IronCircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.acquire();
+        breaker.record(true, 0);
+        assertEquals(IronCircuitBreaker.State.OPEN, breaker.getState());
+        assertEquals(Arrays.asList(IronCircuitBreaker.State.OPEN), states);
+        try {
+            breaker.acquire();
+            fail();
+        } catch (IronCircuitOpenException e) {
+            assertEquals("GET q", e.getEndpoint());
+            assertTrue(e.getRetryAfter() > 50_000 && e.getRetryAfter() <= 60_000);
+        }
+    }
+
+    @Test
+    public void test_trial_calls_close_or_reopen_the_circuit() throws Exception {
+        IronCircuitBreaker breaker = new IronCircuitBreaker("GET q", settings().setOpenDuration(50, TimeUnit.MILLISECONDS), null);
+        open(breaker);
+        Thread.sleep(100);
+        breaker.acquire();
+        assertEquals(IronCircuitBreaker.State.HALF_OPEN, breaker.getState());
+        breaker.acquire();
+        try {
+            breaker.acquire();
+            fail();
+        } catch (IronCircuitOpenException e) {
+            assertEquals(0, e.getRetryAfter());
+        }
+        breaker.record(false, 0);
+        breaker.record(true, 0);
+        assertEquals(IronCircuitBreaker.State.OPEN, breaker.getState());
+
+        Thread.sleep(100);
+        breaker.acquire();
+        breaker.acquire();
+        breaker.record(false, 0);
+        breaker.record(false, 0);
+        assertEquals(IronCircuitBreaker.State.CLOSED, breaker.getState());
+    }
+
+    @Test
+    public void test_async_send_failing_synchronously_gives_back_its_trial_permit() throws Exception {
+        IronClient client = new IronClient(restClient());
+        client.setCircuitBreakerSettings(settings().setOpenDuration(50, TimeUnit.MILLISECONDS));
+        IronQueue queue = client.getProject("project", "token").getQueue("q");
+        pollAsync(queue);
+        pollAsync(queue);
+        IronCircuitBreaker breaker = client.getCircuitBreakers().iterator().next();
+        assertEquals(IronCircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(100);
+        // the trial call fails before reaching the network: the circuit opens again instead of staying half-open without permits
+        pollAsync(queue);
+        assertEquals(IronCircuitBreaker.State.OPEN, breaker.getState());
+        Thread.sleep(100);
+        pollAsync(queue);
+        assertEquals(IronCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void test_poller_waits_for_an_open_circuit() throws Exception {
+        IronClient client = new IronClient(restClient());
+        client.setCircuitBreakerSettings(settings().setOpenDuration(1, TimeUnit.MINUTES));
+        IronQueue queue = client.getProject("project", "token").getQueue("q");
+        IronPoller poller = queue.asyncPoll(executor, message -> fail(), (message, e) -> fail(), noRetry());
+        Thread.sleep(1000);
+        poller.stop();
+        // 503, 503, then the open circuit makes the poller wait
+        assertEquals(2, calls.get());
+        long polls = ((IronMetricsRegistry) client.getMetrics()).get(IronOperation.POLL, "q").getLatency().getCount();
+        assertEquals(3, polls);
+    }
+
+    @Test
+    public void test_poll_wait_is_only_deducted_from_long_polls() throws Exception {
+        IronClient client = new IronClient(RestClientStub.client((method, args) -> {
+            Thread.sleep(50);
+            return LoopbackResponse.message(200, "ok");
+        }));
+        client.setCircuitBreakerSettings(settings()
+            .setSlowCallRateThreshold(0.5f)
+            .setSlowCallDuration(20, TimeUnit.MILLISECONDS));
+        IronProject project = client.getProject("project", "token");
+        project.getSettings().setPollWait(30, TimeUnit.SECONDS);
+        // slow calls whatever the poll wait of the project
+        project.getQueue("q").delete();
+        project.getQueue("q").delete();
+        IronCircuitBreaker breaker = client.getCircuitBreakers().iterator().next();
+        assertEquals(IronCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void test_poll_backoff_waits_until_circuit_lets_calls_through() throws Exception {
+        PollBackoff backoff = new PollBackoff();
+        assertEquals(PollBackoff.MIN_DELAY, backoff.next(new IronClientException(503, "down")));
+        assertEquals(5_000, backoff.next(new CompletionException(new IronCircuitOpenException("GET q", 5_000))));
+        assertEquals(PollBackoff.MIN_DELAY * 4, backoff.next(new IronCircuitOpenException("GET q")));
+    }
+
+    private static IronCircuitBreakerSettings settings() {
+        return new IronCircuitBreakerSettings()
+            .setWindowSize(2)
+            .setMinimumCalls(2)
+            .setFailureRateThreshold(0.5f)
+            .setHalfOpenCalls(2);
+    }
+
+    private static IronSettings noRetry() {
+        return new IronSettings().setBackoffRetries(0);
+    }
+
+    private static void open(IronCircuitBreaker breaker) {
+        breaker.acquire();
+        breaker.record(true, 0);
+        breaker.acquire();
+        breaker.record(true, 0);
+        assertEquals(IronCircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private static void pollAsync(IronQueue queue) {
+        try {
+            queue.pollBatchAsync(1, noRetry()).toCompletableFuture().join();
+            fail();
+        } catch (IllegalStateException | CompletionException e) {
+            // the JAX-RS client refuses the request, or the circuit is open
+        }
+    }
+
+    /**
+     * JAX-RS client answering 503 to every synchronous request and failing every asynchronous request before sending it
+     */
+    private Client restClient() {
+        return RestClientStub.client((method, args) -> {
+            if (method.getDeclaringClass() == AsyncInvoker.class) {
+                throw new IllegalStateException("no async");
+            }
+            calls.incrementAndGet();
+            return LoopbackResponse.message(503, "down");
+        });
+    }
+
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronLeaseManagerTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+    private ScheduledExecutorService scheduler;
+    private IronLeaseManager leaseManager;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("lease");
+        scheduler = Executors.newSingleThreadScheduledExecutor();
+        leaseManager = new IronLeaseManager(scheduler, 50, TimeUnit.MILLISECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        leaseManager.close();
+        scheduler.shutdownNow();
+        engine.close();
+    }
+
+    @Test
+    public void test_reservation_is_renewed_before_it_expires() throws Exception {
+        IronLeaseManager.Lease lease = leaseManager.track(shortLived(), 10);
+        // touched when less than a third of the 1s timeout remains
+        await(() -> lease.getRenewals() >= 1);
+        assertEquals(1, leaseManager.getInFlight());
+        assertTrue(leaseManager.getRenewals() >= 1);
+        assertEquals(0, leaseManager.getFailedRenewals());
+        lease.close();
+        assertEquals(0, leaseManager.getInFlight());
+    }
+
+    @Test
+    public void test_lease_ends_after_max_renewals() throws Exception {
+        IronLeaseManager.Lease lease = leaseManager.track(shortLived(), 1);
+        await(() -> leaseManager.getInFlight() == 0);
+        assertEquals(1, lease.getRenewals());
+    }
+
+    @Test
+    public void test_lease_ends_when_message_is_deleted() throws Exception {
+        IronMessage message = shortLived();
+        IronLeaseManager.Lease lease = leaseManager.track(message, 10);
+        message.delete();
+        await(() -> leaseManager.getInFlight() == 0);
+        assertEquals(0, lease.getRenewals());
+    }
+
+    @Test
+    public void test_poller_keeps_lease_until_batched_delete() throws Exception {
+        queue.offerRaw("{}");
+        CountDownLatch handled = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        IronLeaseManager clientLeases = project.getClient().getLeaseManager();
+        IronPoller poller = queue.asyncPoll(executor, message -> handled.countDown(), IronQueue::logError, project.getSettings().copy()
+            .setLeaseMaxRenewals(5)
+            .setAckBatchSize(10)
+            .setAckLinger(500, TimeUnit.MILLISECONDS));
+        try {
+            assertTrue(handled.await(5, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            // handled but not deleted yet: still reserved
+            assertEquals(1, clientLeases.getInFlight());
+            assertEquals(1, engine.getSize("project", "lease"));
+            await(() -> clientLeases.getInFlight() == 0);
+            assertEquals(0, engine.getSize("project", "lease"));
+        } finally {
+            poller.stop();
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * A reserved message seen with a timeout of 1 second, so that renewals happen quickly
+     */
+    private IronMessage shortLived() {
+        queue.offerRaw("{}");
+        IronMessage reserved = queue.poll();
+        return new IronMessage(queue, queue.getProject().getSettings(), reserved.getId(), reserved.getRawBody(), 1, 1);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (!condition.getAsBoolean()) {
+            assertTrue("condition not met in time", System.nanoTime() - deadline < 0);
+            Thread.sleep(10);
+        }
+    }
+
+}
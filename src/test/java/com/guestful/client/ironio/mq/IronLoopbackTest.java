@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronLoopbackTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("loopback");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_messages_are_delivered_in_order_and_reserved_once() throws Exception {
+        queue.offer(json(1), json(2), json(3));
+        List<IronMessage> batch = queue.pollBatch(2);
+        assertEquals(2, batch.size());
+        assertEquals(1, batch.get(0).getBody().getInt("i"));
+        assertEquals(2, batch.get(1).getBody().getInt("i"));
+        assertEquals(1, batch.get(0).getReservedCount());
+        assertEquals(3, queue.poll().getBody().getInt("i"));
+        assertNull(queue.poll());
+        // reserved messages are still on the queue
+        assertEquals(3, engine.getSize("project", "loopback"));
+        assertEquals(-1, engine.getSize("project", "other"));
+    }
+
+    @Test
+    public void test_released_messages_are_available_again() throws Exception {
+        queue.offer(json(1));
+        queue.poll().release();
+        IronMessage message = queue.poll();
+        assertEquals(2, message.getReservedCount());
+        message.release(1, TimeUnit.SECONDS);
+        assertNull(queue.poll());
+        Thread.sleep(1200);
+        assertEquals(3, queue.poll().getReservedCount());
+    }
+
+    @Test
+    public void test_delayed_messages_are_available_after_their_delay() throws Exception {
+        queue.offer(json(1), 1, TimeUnit.SECONDS);
+        assertNull(queue.poll());
+        Thread.sleep(1200);
+        assertEquals(1, queue.poll().getBody().getInt("i"));
+    }
+
+    @Test
+    public void test_touched_messages_stay_reserved() throws Exception {
+        queue.offer(json(1));
+        IronMessage message = queue.poll();
+        message.touch();
+        assertNull(queue.poll());
+        message.delete();
+        assertEquals(0, engine.getSize("project", "loopback"));
+    }
+
+    @Test
+    public void test_reserve_and_delete() throws Exception {
+        queue.offer(json(1), json(2));
+        assertEquals(2, queue.pollBatch(10, project.getSettings().copy().setPollDelete(true)).size());
+        assertEquals(0, engine.getSize("project", "loopback"));
+    }
+
+    @Test
+    public void test_long_poll_is_answered_by_a_post_on_a_callback_thread() throws Exception {
+        queue.offer(json(0));
+        queue.poll().delete();
+        AtomicReference<Thread> callback = new AtomicReference<>();
+        CompletableFuture<IronMessage> poll = queue.pollAsync(project.getSettings().copy().setPollWait(5, TimeUnit.SECONDS))
+            .thenApply(message -> {
+                callback.set(Thread.currentThread());
+                return message;
+            })
+            .toCompletableFuture();
+        Thread.sleep(100);
+        assertFalse(poll.isDone());
+        queue.offer(json(1));
+        assertEquals(1, poll.get(2, TimeUnit.SECONDS).getBody().getInt("i"));
+        assertNotSame(Thread.currentThread(), callback.get());
+        assertEquals("iron-mq-loopback-callback", callback.get().getName());
+    }
+
+    @Test
+    public void test_long_poll_times_out_on_a_callback_thread() throws Exception {
+        queue.offer(json(0));
+        queue.poll().delete();
+        AtomicReference<Thread> callback = new AtomicReference<>();
+        long start = System.nanoTime();
+        IronMessage message = queue.pollAsync(project.getSettings().copy().setPollWait(1, TimeUnit.SECONDS))
+            .thenApply(m -> {
+                callback.set(Thread.currentThread());
+                return m;
+            })
+            .toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertNull(message);
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+        // not the timing wheel
+        assertEquals("iron-mq-loopback-callback", callback.get().getName());
+    }
+
+    @Test
+    public void test_long_poll_callbacks_run_on_the_given_executor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "custom"));
+        try (IronLoopback custom = new IronLoopback(IronLoopback.DEF_TICK, TimeUnit.MILLISECONDS, IronLoopback.DEF_WHEEL_SIZE, executor)) {
+            IronProject p = new IronClient(custom).getProject("project", "token");
+            IronQueue q = p.getQueue("custom");
+            q.offer(json(0));
+            q.poll().delete();
+            AtomicReference<Thread> callback = new AtomicReference<>();
+            CompletableFuture<IronMessage> poll = q.pollAsync(p.getSettings().copy().setPollWait(5, TimeUnit.SECONDS))
+                .thenApply(message -> {
+                    callback.set(Thread.currentThread());
+                    return message;
+                })
+                .toCompletableFuture();
+            q.offer(json(1));
+            assertNotNull(poll.get(2, TimeUnit.SECONDS));
+            assertEquals("custom", callback.get().getName());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_deleted_queue_ends_long_polls() throws Exception {
+        queue.offer(json(0));
+        queue.poll().delete();
+        CompletableFuture<IronMessage> poll = queue.pollAsync(project.getSettings().copy().setPollWait(30, TimeUnit.SECONDS)).toCompletableFuture();
+        Thread.sleep(100);
+        engine.clear();
+        assertNull(poll.get(2, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_closed_engine_is_unavailable() throws Exception {
+        engine.close();
+        try {
+            queue.offer(json(1));
+            fail();
+        } catch (IronClientException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+    }
+
+    private static JsonObject json(int i) {
+        return Json.createObjectBuilder().add("i", i).build();
+    }
+
+}
@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.json.Json;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Drives producers and consumers through {@link IronClient} and reports the throughput and the end-to-end latency percentiles
+ * (from offer to reception by a consumer).
+ * <p>
+ * Usage: <code>IronMQLoadGenerator [producers] [consumers] [messages] [batch] [loopback|http]</code>.
+ * The <code>http</code> mode goes through an {@link IronMQStandInServer} and Jersey, the <code>loopback</code> mode measures the client alone.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronMQLoadGenerator {
+
+    private final IronClient client;
+    private int producers = 4;
+    private int consumers = 4;
+    private int messages = 100_000;
+    private int batch = IronSettings.MAX_BATCH;
+
+    public IronMQLoadGenerator(IronClient client) {
+        this.client = client;
+    }
+
+    public IronMQLoadGenerator setProducers(int producers) {
+        this.producers = producers;
+        return this;
+    }
+
+    public IronMQLoadGenerator setConsumers(int consumers) {
+        this.consumers = consumers;
+        return this;
+    }
+
+    /**
+     * Total number of messages, shared between the producers
+     */
+    public IronMQLoadGenerator setMessages(int messages) {
+        this.messages = messages;
+        return this;
+    }
+
+    /**
+     * Number of messages per offer and per reservation
+     */
+    public IronMQLoadGenerator setBatch(int batch) {
+        this.batch = batch;
+        return this;
+    }
+
+    public Report run(IronQueue queue) throws Exception {
+        IronSettings settings = queue.getProject().getSettings().copy().setPollWait(1, TimeUnit.SECONDS);
+        AtomicLong received = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(producers + consumers);
+        try {
+            long start = System.nanoTime();
+            List<Future<long[]>> latencies = new ArrayList<>(consumers);
+            for (int c = 0; c < consumers; c++) {
+                latencies.add(executor.submit(() -> consume(queue, settings, received)));
+            }
+            List<Future<?>> sent = new ArrayList<>(producers);
+            for (int p = 0; p < producers; p++) {
+                int count = messages / producers + (p < messages % producers ? 1 : 0);
+                sent.add(executor.submit(() -> produce(queue, settings, count)));
+            }
+            for (Future<?> future : sent) {
+                future.get();
+            }
+            long[] all = new long[0];
+            for (Future<long[]> future : latencies) {
+                long[] l = future.get();
+                int from = all.length;
+                all = Arrays.copyOf(all, from + l.length);
+                System.arraycopy(l, 0, all, from, l.length);
+            }
+            return new Report(all, System.nanoTime() - start);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Void produce(IronQueue queue, IronSettings settings, int count) {
+        List<String> bodies = new ArrayList<>(batch);
+        for (int i = 0; i < count; i++) {
+            bodies.add(Json.createObjectBuilder().add("t", System.nanoTime()).build().toString());
+            if (bodies.size() == batch || i == count - 1) {
+                queue.offerRaw(bodies, settings);
+                bodies.clear();
+            }
+        }
+        return null;
+    }
+
+    private long[] consume(IronQueue queue, IronSettings settings, AtomicLong received) {
+        long[] latencies = new long[1024];
+        int n = 0;
+        while (received.get() < messages) {
+            List<IronMessage> reserved = queue.pollBatch(batch, settings);
+            long now = System.nanoTime();
+            for (IronMessage message : reserved) {
+                if (n == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, n * 2);
+                }
+                latencies[n++] = now - message.getBody().getJsonNumber("t").longValue();
+            }
+            if (!reserved.isEmpty()) {
+                queue.deleteMessages(reserved);
+                received.addAndGet(reserved.size());
+            }
+        }
+        return Arrays.copyOf(latencies, n);
+    }
+
+    public static final class Report {
+
+        private final long[] latencies;
+        private final long elapsed;
+
+        Report(long[] latencies, long elapsed) {
+            this.latencies = latencies.clone();
+            this.elapsed = elapsed;
+            Arrays.sort(this.latencies);
+        }
+
+        public int getMessages() {
+            return latencies.length;
+        }
+
+        public double getThroughput() {
+            return latencies.length * 1e9 / elapsed;
+        }
+
+        /**
+         * @param percentile from 0 to 100
+         */
+        public long getLatency(double percentile, TimeUnit unit) {
+            if (latencies.length == 0) return 0;
+            int index = (int) Math.ceil(percentile / 100 * latencies.length) - 1;
+            return unit.convert(latencies[Math.max(0, Math.min(index, latencies.length - 1))], TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d messages in %d ms: %.0f msg/s, latency p50=%dus p90=%dus p99=%dus p99.9=%dus max=%dus",
+                getMessages(), TimeUnit.NANOSECONDS.toMillis(elapsed), getThroughput(),
+                getLatency(50, TimeUnit.MICROSECONDS), getLatency(90, TimeUnit.MICROSECONDS), getLatency(99, TimeUnit.MICROSECONDS),
+                getLatency(99.9, TimeUnit.MICROSECONDS), getLatency(100, TimeUnit.MICROSECONDS));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int producers = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int consumers = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int messages = args.length > 2 ? Integer.parseInt(args[2]) : 100_000;
+        int batch = args.length > 3 ? Integer.parseInt(args[3]) : IronSettings.MAX_BATCH;
+        boolean http = args.length > 4 && "http".equals(args[4]);
+
+        try (IronMQStandInServer server = new IronMQStandInServer()) {
+            IronClient client = http ? server.createClient() : new IronClient(server.getEngine());
+            IronQueue queue = client.getProject("load", "token").getQueue("load-" + System.currentTimeMillis());
+            Report report = new IronMQLoadGenerator(client)
+                .setProducers(producers)
+                .setConsumers(consumers)
+                .setMessages(messages)
+                .setBatch(batch)
+                .run(queue);
+            System.out.println((http ? "http" : "loopback") + " " + producers + "x" + consumers + ": " + report);
+        }
+    }
+
+}
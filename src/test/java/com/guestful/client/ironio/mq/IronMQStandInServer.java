@@ -0,0 +1,210 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.glassfish.jersey.jsonp.JsonProcessingFeature;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import javax.ws.rs.client.Client;
+import javax.ws.rs.client.ClientBuilder;
+import javax.ws.rs.client.WebTarget;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local HTTP server implementing the IronMQ v1 endpoints used by the client, backed by an {@link IronLoopback} engine.
+ * Latency and errors can be injected to exercise retries, circuit breakers and pollers reproducibly.
+ * <p>
+ * Point a client at it by overriding {@link IronClient#buildWebTarget()} with {@link #getBaseUri()}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+public class IronMQStandInServer implements AutoCloseable {
+
+    private static final Logger LOGGER = Logger.getLogger(IronMQStandInServer.class.getName());
+    private static final String PREFIX = "/1/";
+
+    private final IronLoopback engine = new IronLoopback();
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService delayer = Executors.newSingleThreadScheduledExecutor();
+    private volatile long latency;
+    private volatile long latencyJitter;
+    private volatile double errorRate;
+    private volatile int errorStatus = 503;
+
+    /**
+     * @param port 0 for any free port
+     */
+    public IronMQStandInServer(int port, int threads) throws IOException {
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 1024);
+        this.server.createContext(PREFIX, this::handle);
+        this.server.setExecutor(executor);
+        this.server.start();
+    }
+
+    public IronMQStandInServer() throws IOException {
+        this(0, Runtime.getRuntime().availableProcessors() * 2);
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    public String getBaseUri() {
+        return "http://127.0.0.1:" + getPort() + "/1";
+    }
+
+    public IronLoopback getEngine() {
+        return engine;
+    }
+
+    /**
+     * @return a new client sending its requests to this server
+     */
+    public IronClient createClient() {
+        Client restClient = ClientBuilder.newBuilder().build();
+        restClient.register(JsonProcessingFeature.class);
+        return new IronClient(restClient) {
+            @Override
+            protected WebTarget buildWebTarget() {
+                return getClient().target(getBaseUri());
+            }
+        };
+    }
+
+    /**
+     * Delays each response by <code>latency</code> plus a random value up to <code>jitter</code>
+     */
+    public IronMQStandInServer setLatency(long latency, long jitter, TimeUnit unit) {
+        if (latency < 0 || jitter < 0) throw new IllegalArgumentException();
+        this.latency = unit.toNanos(latency);
+        this.latencyJitter = unit.toNanos(jitter);
+        return this;
+    }
+
+    /**
+     * Answers this ratio of the requests (0 to 1) with the given status, without processing them
+     */
+    public IronMQStandInServer setErrors(double rate, int status) {
+        if (rate < 0 || rate > 1) throw new IllegalArgumentException();
+        this.errorRate = rate;
+        this.errorStatus = status;
+        return this;
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        delayer.shutdownNow();
+        executor.shutdownNow();
+        engine.close();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            String path = exchange.getRequestURI().getRawPath().substring(PREFIX.length());
+            IronEndpoint endpoint = new IronEndpoint(null, path, path);
+            String query = exchange.getRequestURI().getRawQuery();
+            if (query != null) {
+                for (String param : query.split("&")) {
+                    int eq = param.indexOf('=');
+                    endpoint = eq == -1 ?
+                        endpoint.query(decode(param), "") :
+                        endpoint.query(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+                }
+            }
+            JsonObject body = readBody(exchange.getRequestBody());
+            if (errorRate > 0 && ThreadLocalRandom.current().nextDouble() < errorRate) {
+                send(exchange, LoopbackResponse.message(errorStatus, "Injected error"));
+                return;
+            }
+            engine.handle(exchange.getRequestMethod(), endpoint, body).whenComplete((response, e) -> {
+                if (e != null) {
+                    send(exchange, LoopbackResponse.message(500, e.toString()));
+                    return;
+                }
+                long delay = latency + (latencyJitter == 0 ? 0 : ThreadLocalRandom.current().nextLong(latencyJitter));
+                if (delay == 0) {
+                    send(exchange, response);
+                } else {
+                    delayer.schedule(() -> send(exchange, response), delay, TimeUnit.NANOSECONDS);
+                }
+            });
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to handle " + exchange.getRequestURI() + ": " + e.getMessage(), e);
+            send(exchange, LoopbackResponse.message(500, e.toString()));
+        }
+    }
+
+    private static void send(HttpExchange exchange, Response response) {
+        try {
+            byte[] entity = response.readEntity(byte[].class);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.sendResponseHeaders(response.getStatus(), entity == null ? -1 : entity.length);
+            if (entity != null) {
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(entity);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.FINE, "Unable to answer " + exchange.getRequestURI() + ": " + e.getMessage(), e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static JsonObject readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n; (n = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, n);
+        }
+        if (out.size() == 0) return null;
+        try (JsonReader reader = Json.createReader(new ByteArrayInputStream(out.toByteArray()))) {
+            return reader.readObject();
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the client against {@link IronMQStandInServer}: no credentials nor network needed.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronMQStandInServerTest {
+
+    private IronMQStandInServer server;
+    private IronProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new IronMQStandInServer();
+        project = server.createClient().getProject("project", "token");
+        project.getSettings()
+            .setMessageDelay(1, TimeUnit.SECONDS)
+            .setMessageTimeout(30, TimeUnit.SECONDS)
+            .setBackoffInterval(0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void test_poll() {
+        JsonObject data = Json.createObjectBuilder().add("mykey", "myvalue").build();
+        IronQueue queue = project.getQueue("stand-in");
+
+        assertFalse(queue.delete());
+        assertEquals(0, queue.getSize());
+
+        queue.offer(data);
+        assertEquals(1, queue.getSize());
+        assertEquals(1, queue.getCount());
+
+        // delay
+        assertNull(queue.poll());
+        IronMessage message = queue.poll(2, TimeUnit.SECONDS);
+        assertNotNull(message);
+        assertEquals(data, message.getBody());
+        assertEquals(1, message.getReservedCount());
+
+        // message reserved
+        assertNull(queue.poll());
+
+        message.release(0, TimeUnit.SECONDS);
+        IronMessage message2 = queue.poll();
+        assertNotNull(message2);
+        assertEquals(message.getId(), message2.getId());
+        assertEquals(2, message2.getReservedCount());
+
+        message.delete();
+        assertEquals(0, queue.getSize());
+        assertEquals(1, queue.getCount());
+
+        // has no effect
+        message2.touch();
+        message2.release();
+        message2.delete();
+
+        assertTrue(queue.delete());
+    }
+
+    @Test
+    public void test_bulk() {
+        IronQueue queue = project.getQueue("bulk");
+        IronSettings settings = project.getSettings().copy().setMessageDelay(0, TimeUnit.SECONDS);
+        queue.offerRaw(Arrays.asList("{\"i\":1}", "{\"i\":2}", "{\"i\":3}"), settings);
+
+        List<IronMessage> messages = queue.pollBatch(10, settings);
+        assertEquals(3, messages.size());
+        assertEquals(1, messages.get(0).getBody().getInt("i"));
+        assertEquals("{\"i\":3}", messages.get(2).getRawBody());
+
+        queue.deleteMessages(messages);
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void test_injected_errors_are_retried() throws Exception {
+        server.setErrors(0.2, 503).setLatency(1, 1, TimeUnit.MILLISECONDS);
+        project.getSettings()
+            .setMessageDelay(0, TimeUnit.SECONDS)
+            .setBackoffInterval(1, TimeUnit.SECONDS)
+            .setBackoffPolicy((settings, retry, previous) -> 1)
+            .setBackoffRetries(10);
+        IronMQLoadGenerator.Report report = new IronMQLoadGenerator(project.getClient())
+            .setProducers(2)
+            .setConsumers(2)
+            .setMessages(2_000)
+            .setBatch(50)
+            .run(project.getQueue("load"));
+        assertEquals(2_000, report.getMessages());
+        assertTrue(report.getLatency(50, TimeUnit.MICROSECONDS) <= report.getLatency(99, TimeUnit.MICROSECONDS));
+    }
+
+}
@@ -0,0 +1,147 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronMessageCodecTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private final AtomicInteger decoded = new AtomicInteger();
+
+    // "x,y"
+    private final IronMessageCodec<int[]> points = new IronMessageCodec<int[]>() {
+        @Override
+        public String encode(int[] payload) {
+            return payload[0] + "," + payload[1];
+        }
+
+        @Override
+        public int[] decode(String body) {
+            decoded.incrementAndGet();
+            String[] parts = body.split(",");
+            return new int[]{Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+        }
+    };
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_builtin_codecs_round_trip() throws Exception {
+        assertEquals("a\"b", IronMessageCodec.STRING.decode(IronMessageCodec.STRING.encode("a\"b")));
+        byte[] bytes = {0, 1, (byte) 0xFF, 42};
+        assertEquals("AAH/Kg==", IronMessageCodec.BYTES.encode(bytes));
+        assertArrayEquals(bytes, IronMessageCodec.BYTES.decode(IronMessageCodec.BYTES.encode(bytes)));
+        JsonObject json = Json.createObjectBuilder().add("a", 1).add("b", Json.createArrayBuilder().add("c")).build();
+        assertEquals(json, IronMessageCodec.JSON.decode(IronMessageCodec.JSON.encode(json)));
+    }
+
+    @Test
+    public void test_typed_queue_round_trip() throws Exception {
+        IronTypedQueue<int[]> queue = project.getQueue("points").typed(points);
+        assertSame(points, queue.getCodec());
+        queue.offer(Arrays.asList(new int[]{1, 2}, new int[]{3, 4}));
+        assertEquals("1,2", project.getQueue("points").poll().getRawBody());
+        IronTypedMessage<int[]> message = queue.poll();
+        assertEquals(0, decoded.get());
+        assertEquals("[3, 4]", Arrays.toString(message.getPayload()));
+        assertEquals("[3, 4]", Arrays.toString(message.getPayload()));
+        // decoded once, on demand
+        assertEquals(1, decoded.get());
+        message.delete();
+        assertEquals(1, engine.getSize("project", "points"));
+    }
+
+    @Test
+    public void test_typed_batches_and_async_offers() throws Exception {
+        IronTypedQueue<byte[]> queue = project.getQueue("bytes").typed(IronMessageCodec.BYTES);
+        assertEquals(2, queue.offerAsync(Arrays.asList(new byte[]{1}, new byte[]{2}), project.getSettings()).toCompletableFuture().get(5, TimeUnit.SECONDS).size());
+        List<IronTypedMessage<byte[]>> messages = queue.pollBatch(10, project.getSettings());
+        assertEquals(Arrays.asList(1, 2), messages.stream().map(m -> (int) m.getPayload()[0]).collect(Collectors.toList()));
+        assertEquals(messages.get(0).getMessage().getId(), messages.get(0).getId());
+    }
+
+    @Test
+    public void test_typed_sends_go_through_the_producer_of_the_queue() throws Exception {
+        IronTypedQueue<int[]> queue = project.getQueue("points").typed(points);
+        IronProducer producer = project.getQueue("points").producer();
+        IronProducer other = project.getQueue("other").producer();
+        try {
+            assertNotNull(queue.send(producer, new int[]{5, 6}).toCompletableFuture().get(5, TimeUnit.SECONDS));
+            assertEquals("[5, 6]", Arrays.toString(queue.poll().getPayload()));
+            try {
+                queue.send(other, new int[]{7, 8});
+                fail();
+            } catch (IllegalArgumentException ignored) {
+            }
+        } finally {
+            producer.close();
+            other.close();
+        }
+    }
+
+    @Test
+    public void test_typed_poller_decodes_payloads() throws Exception {
+        IronTypedQueue<int[]> queue = project.getQueue("points").typed(points);
+        queue.offer(new int[]{9, 10});
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        CountDownLatch handled = new CountDownLatch(1);
+        AtomicInteger sum = new AtomicInteger();
+        IronPoller poller = queue.asyncPoll(executor, message -> {
+            sum.set(message.getPayload()[0] + message.getPayload()[1]);
+            handled.countDown();
+        });
+        try {
+            assertTrue(handled.await(5, TimeUnit.SECONDS));
+        } finally {
+            poller.stop();
+            executor.shutdownNow();
+        }
+        assertEquals(19, sum.get());
+    }
+
+}
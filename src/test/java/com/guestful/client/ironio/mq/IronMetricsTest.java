@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the metrics recorded per operation and queue against {@link IronMQStandInServer}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronMetricsTest {
+
+    private IronMQStandInServer server;
+    private IronProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new IronMQStandInServer();
+        project = server.createClient().getProject("project", "token");
+        project.getSettings()
+            .setMessageDelay(0, TimeUnit.SECONDS)
+            .setMessageTimeout(30, TimeUnit.SECONDS)
+            .setBackoffInterval(0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void test_metrics() {
+        IronQueue queue = project.getQueue("metrics");
+        IronSettings settings = project.getSettings().copy().setMessageDelay(0, TimeUnit.SECONDS);
+        queue.offerRaw(Arrays.asList("{\"i\":1}", "{\"i\":2}", "{\"i\":3}"), settings);
+        List<IronMessage> messages = queue.pollBatch(10, settings);
+        assertTrue(queue.pollBatch(10, settings).isEmpty());
+        queue.deleteMessages(messages);
+
+        IronMetricsRegistry metrics = (IronMetricsRegistry) project.getClient().getMetrics();
+        IronMetricsRegistry.Stats offer = metrics.get(IronOperation.OFFER, "metrics");
+        assertEquals(1, offer.getLatency().getCount());
+        assertEquals(3, offer.getBatchSize().getMax());
+        assertEquals(0, offer.getErrors());
+
+        IronMetricsRegistry.Stats poll = metrics.get(IronOperation.POLL, "metrics");
+        assertEquals(2, poll.getLatency().getCount());
+        assertEquals(0.5, poll.getEmptyPollRatio(), 0.001);
+
+        assertEquals(1, metrics.get(IronOperation.DELETE, "metrics").getBatchSize().getCount());
+        assertNull(metrics.get(IronOperation.TOUCH, "metrics"));
+        assertTrue(metrics.getQueues().contains("metrics"));
+    }
+
+}
@@ -0,0 +1,114 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the scheduling of {@link IronMultiQueuePoller} against {@link IronMQStandInServer}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronMultiQueuePollerTest {
+
+    private IronMQStandInServer server;
+    private IronProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new IronMQStandInServer();
+        project = server.createClient().getProject("project", "token");
+        project.getSettings()
+            .setMessageDelay(0, TimeUnit.SECONDS)
+            .setMessageTimeout(30, TimeUnit.SECONDS)
+            .setBackoffInterval(0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void test_multi_queue_poller() throws Exception {
+        IronQueue urgent = project.getQueue("urgent");
+        IronQueue a = project.getQueue("bulk-a");
+        IronQueue b = project.getQueue("bulk-b");
+        IronQueue idle = project.getQueue("idle");
+        urgent.offerRaw(IntStream.range(0, 10).mapToObj(i -> "{}").collect(Collectors.toList()));
+        a.offerRaw(IntStream.range(0, 40).mapToObj(i -> "{}").collect(Collectors.toList()));
+        b.offerRaw(IntStream.range(0, 40).mapToObj(i -> "{}").collect(Collectors.toList()));
+        List<String> handled = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(90);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        IronMultiQueuePoller poller = new IronMultiQueuePoller(executor, 2, 4, message -> {
+            handled.add(message.getQueue().getName());
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            done.countDown();
+        })
+            .addQueue(idle, 2, 1)
+            .addQueue(urgent, 1, 1)
+            .addQueue(a, 0, 3)
+            .addQueue(b, 0, 1)
+            .start();
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            poller.stop();
+            executor.shutdownNow();
+        }
+        // strict priority: bulk queues are not polled before the urgent one is drained
+        assertEquals(9, handled.lastIndexOf("urgent"));
+        // weighted: 3 messages of a for 1 of b while both have a backlog
+        List<String> bulk = handled.stream().filter(name -> !name.equals("urgent")).limit(40).collect(Collectors.toList());
+        long fromA = bulk.stream().filter("bulk-a"::equals).count();
+        assertTrue(fromA >= 24 && fromA < 40);
+        // empty queue skipped for longer and longer
+        IronMultiQueuePoller.Lane idleLane = poller.getLane(idle);
+        assertTrue(idleLane.getEmptyPolls() >= 1 && idleLane.getEmptyPolls() < 10);
+        assertEquals(0, idleLane.getHandled());
+        assertEquals(40, poller.getLane(a).getHandled());
+        assertEquals(0, poller.getLane(b).getLag(TimeUnit.MILLISECONDS));
+        // the last handled message may still be deleting
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (poller.getInFlight() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, poller.getInFlight());
+        assertEquals(idle, poller.getQueue());
+    }
+
+}
@@ -0,0 +1,146 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks that {@link IronOutbox} keeps and ships messages while {@link IronMQStandInServer} is failing.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronOutboxTest {
+
+    private IronMQStandInServer server;
+    private IronProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new IronMQStandInServer();
+        project = server.createClient().getProject("project", "token");
+        project.getSettings()
+            .setMessageDelay(0, TimeUnit.SECONDS)
+            .setMessageTimeout(30, TimeUnit.SECONDS)
+            .setBackoffInterval(0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void test_outbox() throws Exception {
+        IronQueue queue = project.getQueue("outbox");
+        Path directory = Files.createTempDirectory("iron-mq-outbox");
+        IronOutbox outbox = new IronOutbox(project, directory);
+        IronSettings settings = project.getSettings().copy()
+            .setMessageDelay(0, TimeUnit.SECONDS)
+            .setOutbox(outbox);
+
+        // IronMQ down: offers still return
+        server.setErrors(1, 503);
+        queue.offerRaw(Arrays.asList("{\"i\":1}", "{\"i\":2}"), settings);
+        queue.offerRaw(Arrays.asList("{\"i\":3}"), settings);
+        assertFalse(outbox.awaitEmpty(200, TimeUnit.MILLISECONDS));
+        assertEquals(3, outbox.getPending());
+
+        server.setErrors(0, 503);
+        assertTrue(outbox.awaitEmpty(10, TimeUnit.SECONDS));
+        assertEquals(3, queue.getSize());
+        List<IronMessage> messages = queue.pollBatch(10, settings);
+        assertEquals("{\"i\":1}", messages.get(0).getRawBody());
+        assertEquals("{\"i\":3}", messages.get(2).getRawBody());
+        queue.deleteMessages(messages);
+
+        // undelivered messages are shipped by the next outbox
+        server.setErrors(1, 503);
+        outbox.offer(queue, Arrays.asList("{\"i\":4}"), settings).get(1, TimeUnit.SECONDS);
+        outbox.close();
+        server.setErrors(0, 503);
+        try (IronOutbox reopened = new IronOutbox(project, directory)) {
+            assertEquals(1, reopened.getPending());
+            assertTrue(reopened.awaitEmpty(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, queue.getSize());
+    }
+
+    @Test
+    public void test_rejected_offers_are_retried_unless_invalid() throws Exception {
+        IronQueue queue = project.getQueue("outbox-rejected");
+        Path directory = Files.createTempDirectory("iron-mq-outbox");
+        try (IronOutbox outbox = new IronOutbox(project, directory)) {
+            IronSettings settings = project.getSettings().copy().setOutbox(outbox);
+
+            // bad token: kept until fixed
+            server.setErrors(1, 401);
+            queue.offerRaw(Arrays.asList("{\"i\":1}"), settings);
+            assertFalse(outbox.awaitEmpty(300, TimeUnit.MILLISECONDS));
+            assertEquals(1, outbox.getPending());
+            server.setErrors(0, 401);
+            assertTrue(outbox.awaitEmpty(10, TimeUnit.SECONDS));
+            assertEquals(1, queue.getSize());
+
+            // invalid: dropped
+            server.setErrors(1, 400);
+            queue.offerRaw(Arrays.asList("{\"i\":2}"), settings);
+            assertTrue(outbox.awaitEmpty(10, TimeUnit.SECONDS));
+            server.setErrors(0, 400);
+            assertEquals(1, queue.getSize());
+        }
+    }
+
+    @Test
+    public void test_offers_spanning_segments() throws Exception {
+        IronQueue queue = project.getQueue("outbox-segments");
+        Path directory = Files.createTempDirectory("iron-mq-outbox");
+        StringBuilder padding = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            padding.append('x');
+        }
+        List<String> bodies = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            bodies.add("{\"i\":" + i + ",\"p\":\"" + padding + "\"}");
+        }
+        server.setErrors(1, 503);
+        try (IronOutbox outbox = new IronOutbox(project, directory, IronOutbox.MIN_SEGMENT_SIZE, 10, TimeUnit.MILLISECONDS)) {
+            // about 200KB: written across several segments in one append
+            outbox.offer(queue, bodies, project.getSettings()).get(1, TimeUnit.SECONDS);
+            assertEquals(200, outbox.getPending());
+        }
+        server.setErrors(0, 503);
+        try (IronOutbox reopened = new IronOutbox(project, directory, IronOutbox.MIN_SEGMENT_SIZE, 10, TimeUnit.MILLISECONDS)) {
+            assertEquals(200, reopened.getPending());
+            assertTrue(reopened.awaitEmpty(10, TimeUnit.SECONDS));
+        }
+        assertEquals(200, queue.getSize());
+    }
+
+}
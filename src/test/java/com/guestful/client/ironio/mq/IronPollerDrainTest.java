@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Checks the drain lifecycle of {@link IronPoller} against {@link IronMQStandInServer}.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronPollerDrainTest {
+
+    private IronMQStandInServer server;
+    private IronProject project;
+
+    @Before
+    public void setUp() throws Exception {
+        server = new IronMQStandInServer();
+        project = server.createClient().getProject("project", "token");
+        project.getSettings()
+            .setMessageDelay(0, TimeUnit.SECONDS)
+            .setMessageTimeout(30, TimeUnit.SECONDS)
+            .setBackoffInterval(0, TimeUnit.SECONDS);
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void test_poller_drain() throws Exception {
+        IronQueue queue = project.getQueue("drain");
+        queue.offerRaw(IntStream.range(0, 5).mapToObj(i -> "{}").collect(Collectors.toList()));
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        AtomicInteger handled = new AtomicInteger();
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        IronPoller poller = queue.asyncPoll(executor, message -> {
+            handling.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            handled.incrementAndGet();
+        }, IronQueue::logError, project.getSettings().copy().setPollBatchSize(5));
+        try {
+            assertTrue(handling.await(5, TimeUnit.SECONDS));
+            assertEquals(IronPollerState.RUNNING, poller.getState());
+            CompletableFuture<Boolean> drained = poller.drain(Duration.ofSeconds(5));
+            assertEquals(IronPollerState.DRAINING, poller.getState());
+            assertFalse(drained.isDone());
+            proceed.countDown();
+            assertTrue(drained.get(5, TimeUnit.SECONDS));
+            assertEquals(IronPollerState.STOPPED, poller.getState());
+            assertEquals(1, handled.get());
+            // the rest of the batch is visible again without waiting for the message timeout
+            assertEquals(4, queue.pollBatch(5).size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_drain_waits_for_the_long_poll_in_progress() throws Exception {
+        IronQueue queue = project.getQueue("drain-long-poll");
+        // created, and empty
+        queue.offerRaw("{}");
+        queue.poll().delete();
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            assertDrainWaitsForPoll(queue, queue.asyncPoll(executor, message -> fail()));
+            assertDrainWaitsForPoll(queue, queue.prefetchPoll(executor, 2, message -> fail()));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void test_pollers_without_a_lifecycle_are_stopped() throws Exception {
+        AtomicInteger stops = new AtomicInteger();
+        IronPoller poller = new IronPoller() {
+            @Override
+            public IronQueue getQueue() {
+                return project.getQueue("legacy");
+            }
+
+            @Override
+            public void stop() {
+                stops.incrementAndGet();
+            }
+        };
+        assertEquals(IronPollerState.RUNNING, poller.getState());
+        poller.stopAccepting();
+        assertEquals(1, stops.get());
+        assertFalse(poller.drain(Duration.ofSeconds(1)).get(1, TimeUnit.SECONDS));
+        assertEquals(2, stops.get());
+    }
+
+    private void assertDrainWaitsForPoll(IronQueue queue, IronPoller poller) throws Exception {
+        // in its long poll
+        Thread.sleep(300);
+        CompletableFuture<Boolean> drained = poller.drain(Duration.ofSeconds(10));
+        Thread.sleep(100);
+        assertFalse(drained.isDone());
+        assertEquals(IronPollerState.DRAINING, poller.getState());
+        // answers the long poll: released instead of handled
+        queue.offerRaw("{}");
+        assertTrue(drained.get(5, TimeUnit.SECONDS));
+        assertEquals(IronPollerState.STOPPED, poller.getState());
+        IronMessage message = queue.poll();
+        assertNotNull(message);
+        assertEquals(2, message.getReservedCount());
+        message.delete();
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronProducerTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("producer");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_full_batch_is_sent_in_one_request() throws Exception {
+        IronProducer producer = queue.producer(project.getSettings().copy()
+            .setProducerBatchSize(3)
+            .setProducerLinger(1, TimeUnit.MINUTES));
+        CompletableFuture<String> first = producer.send("{\"i\":1}");
+        producer.send("{\"i\":2}");
+        assertFalse(first.isDone());
+        CompletableFuture<String> last = producer.send("{\"i\":3}");
+        assertNotNull(last.get(5, TimeUnit.SECONDS));
+        assertNotEquals(first.get(), last.get());
+
+        IronMetricsRegistry.Stats offer = metrics().get(IronOperation.OFFER, "producer");
+        assertEquals(1, offer.getBatchSize().getCount());
+        assertEquals(3, offer.getBatchSize().getMax());
+        List<IronMessage> messages = queue.pollBatch(10);
+        assertEquals(3, messages.size());
+        assertEquals(first.get(), messages.get(0).getId());
+        assertEquals("{\"i\":3}", messages.get(2).getRawBody());
+    }
+
+    @Test
+    public void test_incomplete_batch_is_sent_after_linger() throws Exception {
+        IronProducer producer = queue.producer(project.getSettings().copy().setProducerLinger(100, TimeUnit.MILLISECONDS));
+        long start = System.nanoTime();
+        CompletableFuture<String> id = producer.send("{}");
+        assertNotNull(id.get(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, engine.getSize("project", "producer"));
+    }
+
+    @Test
+    public void test_batch_is_split_on_bytes() throws Exception {
+        IronProducer producer = queue.producer(project.getSettings().copy()
+            .setProducerBatchBytes(IronSettings.MIN_BATCH_BYTES)
+            .setProducerLinger(1, TimeUnit.MINUTES));
+        char[] chars = new char[600];
+        Arrays.fill(chars, 'a');
+        String body = "\"" + new String(chars) + "\"";
+        CompletableFuture<String> first = producer.send(body);
+        CompletableFuture<String> second = producer.send(body);
+        // the second message does not fit: the first one is sent alone
+        assertNotNull(first.get(5, TimeUnit.SECONDS));
+        assertFalse(second.isDone());
+        producer.close();
+        assertNotNull(second.get());
+        assertEquals(2, metrics().get(IronOperation.OFFER, "producer").getBatchSize().getCount());
+    }
+
+    @Test
+    public void test_close_sends_buffered_messages() throws Exception {
+        IronProducer producer = queue.producer(project.getSettings().copy().setProducerLinger(1, TimeUnit.MINUTES));
+        CompletableFuture<String> id = producer.send("{}");
+        producer.close();
+        assertTrue(id.isDone());
+        assertEquals(1, engine.getSize("project", "producer"));
+        try {
+            producer.send("{}");
+            fail();
+        } catch (IronException ignored) {
+        }
+    }
+
+    @Test
+    public void test_failed_batch_fails_its_futures() throws Exception {
+        IronLoopback down = new IronLoopback();
+        down.close();
+        project.getClient().setLoopback(down);
+        IronProducer producer = queue.producer(project.getSettings().copy().setProducerBatchSize(2));
+        CompletableFuture<String> first = producer.send("{}");
+        CompletableFuture<String> second = producer.send("{}");
+        for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail();
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof IronClientException);
+                assertEquals(503, ((IronClientException) e.getCause()).getStatusCode());
+            }
+        }
+    }
+
+    @Test
+    public void test_producer_with_executor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            IronProducer producer = queue.producer(executor, project.getSettings().copy().setProducerBatchSize(2));
+            CompletableFuture<String> first = producer.send("{}");
+            CompletableFuture<String> second = producer.send("{}");
+            assertNotNull(first.get(5, TimeUnit.SECONDS));
+            assertNotNull(second.get(5, TimeUnit.SECONDS));
+            assertEquals(2, engine.getSize("project", "producer"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private IronMetricsRegistry metrics() {
+        return (IronMetricsRegistry) project.getClient().getMetrics();
+    }
+
+}
@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronQueueAsyncTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("async");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_offer_and_poll() throws Exception {
+        JsonObject data = Json.createObjectBuilder().add("mykey", "myvalue").build();
+        List<String> ids = queue.offerAsync(Arrays.asList(data, data)).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(2, ids.size());
+        assertEquals(2L, (long) queue.getSizeAsync().toCompletableFuture().get(5, TimeUnit.SECONDS));
+
+        IronMessage message = queue.pollAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(ids.get(0), message.getId());
+        assertEquals(data, message.getBody());
+        List<IronMessage> rest = queue.pollBatchAsync(10, project.getSettings()).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(1, rest.size());
+        assertNull(queue.pollAsync().toCompletableFuture().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void test_long_poll_completes_when_a_message_arrives() throws Exception {
+        IronSettings settings = project.getSettings().copy().setPollWait(10, TimeUnit.SECONDS);
+        // the queue exists before the long poll
+        queue.offerRaw("{\"i\":0}");
+        queue.poll().delete();
+        CompletableFuture<List<IronMessage>> poll = queue.pollBatchAsync(5, settings).toCompletableFuture();
+        Thread.sleep(100);
+        assertFalse(poll.isDone());
+        long start = System.nanoTime();
+        queue.offerRaw("{\"i\":1}");
+        List<IronMessage> messages = poll.get(5, TimeUnit.SECONDS);
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, messages.size());
+        assertEquals(1, messages.get(0).getBody().getInt("i"));
+    }
+
+    @Test
+    public void test_long_poll_times_out_empty() throws Exception {
+        queue.offerRaw("{}");
+        queue.poll().delete();
+        IronSettings settings = project.getSettings().copy().setPollWait(1, TimeUnit.SECONDS);
+        long start = System.nanoTime();
+        assertTrue(queue.pollBatchAsync(5, settings).toCompletableFuture().get(5, TimeUnit.SECONDS).isEmpty());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(900));
+    }
+
+    @Test
+    public void test_release_touch_and_delete() throws Exception {
+        queue.offerRaw(Arrays.asList("{}", "{}"));
+        List<IronMessage> messages = queue.pollBatch(2);
+        IronMessage first = messages.get(0);
+        IronMessage second = messages.get(1);
+
+        first.touchAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        first.releaseAsync(0, TimeUnit.SECONDS).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertTrue(first.isReleased());
+        IronMessage again = queue.poll();
+        assertEquals(first.getId(), again.getId());
+        assertEquals(2, again.getReservedCount());
+
+        second.deleteAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertTrue(second.isDeleted());
+        queue.deleteMessagesAsync(Arrays.asList(again)).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertTrue(again.isDeleted());
+        assertEquals(0, engine.getSize("project", "async"));
+
+        try {
+            second.touchAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IronException);
+        }
+    }
+
+    @Test
+    public void test_failed_request_fails_the_stage() throws Exception {
+        IronLoopback down = new IronLoopback();
+        down.close();
+        project.getClient().setLoopback(down);
+        try {
+            queue.offerAsync(Json.createObjectBuilder().build()).toCompletableFuture().get(5, TimeUnit.SECONDS);
+            fail();
+        } catch (ExecutionException e) {
+            assertEquals(503, ((IronClientException) e.getCause()).getStatusCode());
+        }
+    }
+
+    @Test
+    public void test_failed_delete_does_not_abandon_the_batch() throws Exception {
+        queue.offerRaw(Arrays.asList("{\"i\":1}", "{\"i\":2}", "{\"i\":3}"));
+        IronLoopback down = new IronLoopback();
+        down.close();
+        List<String> handled = new CopyOnWriteArrayList<>();
+        List<String> failed = new CopyOnWriteArrayList<>();
+        CountDownLatch done = new CountDownLatch(3);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        IronPoller poller = queue.asyncPoll(executor, message -> {
+            handled.add(message.getRawBody());
+            if (handled.size() == 1) {
+                // the delete of the first message fails
+                project.getClient().setLoopback(down);
+            }
+            done.countDown();
+        }, (message, e) -> {
+            project.getClient().setLoopback(engine);
+            failed.add(message.getRawBody() + " " + ((IronClientException) e).getStatusCode());
+        }, project.getSettings().copy().setPollBatchSize(3));
+        try {
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            assertEquals(Arrays.asList("{\"i\":1}", "{\"i\":2}", "{\"i\":3}"), handled);
+            assertEquals(Arrays.asList("{\"i\":1} 503"), failed);
+            while (poller.getInFlight() > 0) {
+                Thread.sleep(10);
+            }
+            // only the first one is still reserved
+            assertEquals(1, engine.getSize("project", "async"));
+        } finally {
+            poller.stop();
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.Json;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronQueueInfoTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("info");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_info_of_a_queue() throws Exception {
+        queue.offerRaw("{}");
+        queue.offerRaw("{}");
+        queue.poll().delete();
+        IronQueueInfo info = queue.getInfo();
+        assertTrue(info.exists());
+        assertEquals("info", info.getName());
+        assertEquals(1, info.getSize());
+        assertEquals(2, info.getTotalMessages());
+        assertEquals(IronQueueType.PULL, info.getType());
+        assertTrue(info.getSubscribers().isEmpty());
+        assertEquals(1, queue.getSize());
+        assertEquals(2, queue.getCount());
+    }
+
+    @Test
+    public void test_info_of_a_missing_queue() throws Exception {
+        IronQueueInfo info = queue.getInfoAsync().toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertFalse(info.exists());
+        assertEquals(0, info.getSize());
+        assertEquals(0, queue.getSize());
+    }
+
+    @Test
+    public void test_info_is_read_every_time_without_ttl() throws Exception {
+        queue.offerRaw("{}");
+        assertEquals(1, queue.getSize());
+        queue.offerRaw("{}");
+        assertEquals(2, queue.getSize());
+        assertEquals(2, infoRequests());
+    }
+
+    @Test
+    public void test_info_is_reused_within_ttl() throws Exception {
+        project.getSettings().setInfoCacheTtl(1, TimeUnit.MINUTES);
+        queue.offerRaw("{}");
+        assertEquals(1, queue.getSize());
+        queue.offerRaw("{}");
+        assertEquals(1, queue.getSize());
+        assertEquals(1, queue.getSizeAsync().toCompletableFuture().get(5, TimeUnit.SECONDS).longValue());
+        assertEquals(1, infoRequests());
+        // deleting the queue forgets its info
+        queue.delete();
+        assertFalse(queue.getInfo().exists());
+        assertEquals(2, infoRequests());
+    }
+
+    @Test
+    public void test_failed_loads_are_not_cached() throws Exception {
+        project.getSettings().setInfoCacheTtl(1, TimeUnit.MINUTES);
+        queue.offerRaw("{}");
+        IronLoopback down = new IronLoopback();
+        down.close();
+        project.getClient().setLoopback(down);
+        try {
+            queue.getInfo();
+            fail();
+        } catch (IronClientException e) {
+            assertEquals(503, e.getStatusCode());
+        }
+        project.getClient().setLoopback(engine);
+        assertEquals(1, queue.getSize());
+    }
+
+    @Test
+    public void test_concurrent_callers_share_one_request() throws Exception {
+        AtomicInteger requests = new AtomicInteger();
+        CountDownLatch proceed = new CountDownLatch(1);
+        IronProject remote = new IronClient(RestClientStub.client((method, args) -> {
+            requests.incrementAndGet();
+            proceed.await(5, TimeUnit.SECONDS);
+            return LoopbackResponse.of(200, Json.createObjectBuilder().add("size", 7).add("total_messages", 9).build());
+        })).getProject("project", "token");
+        IronQueue remoteQueue = remote.getQueue("info");
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<IronQueueInfo>> infos = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                infos.add(executor.submit(remoteQueue::getInfo));
+            }
+            CompletableFuture<IronQueueInfo> async = remoteQueue.getInfoAsync().toCompletableFuture();
+            Thread.sleep(200);
+            proceed.countDown();
+            for (Future<IronQueueInfo> info : infos) {
+                assertEquals(7, info.get(5, TimeUnit.SECONDS).getSize());
+            }
+            assertEquals(9, async.get(5, TimeUnit.SECONDS).getTotalMessages());
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, requests.get());
+    }
+
+    private long infoRequests() {
+        return ((IronMetricsRegistry) project.getClient().getMetrics()).get(IronOperation.INFO, "info").getLatency().getCount();
+    }
+
+}
@@ -0,0 +1,100 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronQueuePollBatchTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_poll_batch_reserves_up_to_max() {
+        IronQueue queue = project.getQueue("batch");
+        queue.offerRaw(Arrays.asList("{\"i\":1}", "{\"i\":2}", "{\"i\":3}", "{\"i\":4}", "{\"i\":5}"));
+
+        List<IronMessage> first = queue.pollBatch(3);
+        assertEquals(3, first.size());
+        assertEquals(1, first.get(0).getBody().getInt("i"));
+        assertEquals(3, first.get(2).getBody().getInt("i"));
+        assertEquals(1, first.get(0).getReservedCount());
+
+        List<IronMessage> rest = queue.pollBatch(10);
+        assertEquals(2, rest.size());
+        assertEquals("{\"i\":5}", rest.get(1).getRawBody());
+        assertTrue(queue.pollBatch(10).isEmpty());
+
+        Set<String> ids = new HashSet<>();
+        first.forEach(message -> ids.add(message.getId()));
+        rest.forEach(message -> ids.add(message.getId()));
+        assertEquals(5, ids.size());
+        // reserved, not deleted
+        assertEquals(5, engine.getSize("project", "batch"));
+    }
+
+    @Test
+    public void test_poll_batch_with_delete() {
+        IronQueue queue = project.getQueue("batch-delete");
+        queue.offerRaw(Arrays.asList("{}", "{}"));
+        IronSettings settings = project.getSettings().copy().setPollDelete(true);
+        assertEquals(2, queue.pollBatch(2, settings).size());
+        assertEquals(0, engine.getSize("project", "batch-delete"));
+    }
+
+    @Test
+    public void test_poll_batch_on_missing_queue_is_empty() {
+        assertTrue(project.getQueue("missing").pollBatch(10).isEmpty());
+        assertNull(project.getQueue("missing").poll());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_poll_batch_rejects_zero() {
+        project.getQueue("batch").pollBatch(0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void test_poll_batch_rejects_more_than_100() {
+        project.getQueue("batch").pollBatch(IronSettings.MAX_BATCH + 1);
+    }
+
+}
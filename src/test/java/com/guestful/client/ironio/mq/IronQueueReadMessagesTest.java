@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.JsonException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronQueueReadMessagesTest {
+
+    private IronLoopback engine;
+    private IronQueue queue;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        queue = new IronClient(engine).getProject("project", "token").getQueue("read");
+    }
+
+    @After
+    public void tearDown() {
+        engine.close();
+    }
+
+    @Test
+    public void test_reads_messages_and_skips_unknown_fields() throws Exception {
+        List<IronMessage> messages = read(200, "{" +
+            "\"extra\":{\"messages\":[{\"id\":\"nested\"}],\"list\":[1,[2,{}]]}," +
+            "\"messages\":[" +
+            "{\"id\":\"1\",\"body\":\"{\\\"a\\\":1}\",\"timeout\":60,\"reserved_count\":2,\"reservation_id\":\"r\",\"meta\":{\"x\":[1,2]}}," +
+            "{\"tags\":[\"t\"],\"body\":\"{}\",\"id\":\"2\"}" +
+            "]," +
+            "\"after\":[{\"id\":\"ignored\"}]}");
+        assertEquals(2, messages.size());
+        IronMessage first = messages.get(0);
+        assertEquals("1", first.getId());
+        assertEquals(60, first.getTimeout());
+        assertEquals(2, first.getReservedCount());
+        assertSame(queue, first.getQueue());
+        assertEquals(1, first.getBody().getInt("a"));
+        IronMessage second = messages.get(1);
+        assertEquals("2", second.getId());
+        assertEquals(0, second.getReservedCount());
+        assertEquals("{}", second.getRawBody());
+    }
+
+    @Test
+    public void test_bodies_are_parsed_on_demand() throws Exception {
+        List<IronMessage> messages = read(200, "{\"messages\":[{\"id\":\"1\",\"body\":\"not json\"}]}");
+        assertEquals("not json", messages.get(0).getRawBody());
+        try {
+            messages.get(0).getBody();
+            fail();
+        } catch (JsonException ignored) {
+        }
+    }
+
+    @Test
+    public void test_empty_and_missing_responses_have_no_messages() throws Exception {
+        assertTrue(read(200, "{\"messages\":[]}").isEmpty());
+        assertTrue(read(200, "{}").isEmpty());
+        assertTrue(queue.readMessages(new LoopbackResponse(200, null), queue.getProject().getSettings()).isEmpty());
+        assertTrue(read(404, "{\"msg\":\"Queue not found\"}").isEmpty());
+    }
+
+    @Test
+    public void test_errors_are_thrown() throws Exception {
+        try {
+            read(500, "{\"msg\":\"boom\"}");
+            fail();
+        } catch (IronClientException e) {
+            assertEquals(500, e.getStatusCode());
+        }
+    }
+
+    @Test
+    public void test_batches_are_recorded() throws Exception {
+        read(200, "{\"messages\":[{\"id\":\"1\",\"body\":\"{}\"},{\"id\":\"2\",\"body\":\"{}\"}]}");
+        IronHistogram batches = ((IronMetricsRegistry) queue.getProject().getClient().getMetrics()).get(IronOperation.POLL, "read").getBatchSize();
+        assertEquals(1, batches.getCount());
+        assertEquals(2, batches.getMax());
+    }
+
+    private List<IronMessage> read(int status, String json) {
+        return queue.readMessages(new LoopbackResponse(status, json.getBytes(StandardCharsets.UTF_8)), queue.getProject().getSettings());
+    }
+
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.ws.rs.core.Response;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronRetryPolicyTest {
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @After
+    public void tearDown() throws Exception {
+        scheduler.shutdownNow();
+    }
+
+    @Test
+    public void test_default_policy_is_exponential() throws Exception {
+        IronSettings settings = new IronSettings();
+        assertSame(IronRetryPolicy.EXPONENTIAL, settings.getBackoffPolicy());
+        assertEquals(10_000, settings.getBackoffPolicy().delay(settings, 1, 0));
+        assertEquals(15_000, settings.getBackoffPolicy().delay(settings, 2, 10_000));
+        assertEquals(22_500, settings.getBackoffPolicy().delay(settings, 3, 15_000));
+        assertSame(IronRetryPolicy.EXPONENTIAL, settings.copy().getBackoffPolicy());
+    }
+
+    @Test
+    public void test_jittered_policies_stay_in_their_bounds() throws Exception {
+        IronSettings settings = new IronSettings();
+        for (int i = 0; i < 100; i++) {
+            long full = IronRetryPolicy.FULL_JITTER.delay(settings, 3, 0);
+            assertTrue(full >= 0 && full <= 22_500);
+            long decorrelated = IronRetryPolicy.DECORRELATED_JITTER.delay(settings, 3, 20_000);
+            assertTrue(decorrelated >= 10_000 && decorrelated <= Math.round(10_000 * Math.pow(1.5, 4)));
+        }
+    }
+
+    @Test
+    public void test_server_errors_are_retried_until_success() throws Exception {
+        Response response = new BackoffResponse(fast(5), new IronRetryBudget(), responses(503, 429, 200)).get();
+        assertEquals(200, response.getStatus());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void test_client_errors_are_not_retried() throws Exception {
+        Response response = new BackoffResponse(fast(5), new IronRetryBudget(), responses(404, 200)).get();
+        assertEquals(404, response.getStatus());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void test_exhausted_retries_return_the_last_response() throws Exception {
+        Response response = new BackoffResponse(fast(2), new IronRetryBudget(), responses(503, 503, 502, 200)).get();
+        assertEquals(502, response.getStatus());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void test_exhausted_retries_rethrow_the_last_error() throws Exception {
+        try {
+            new BackoffResponse(fast(2), new IronRetryBudget(), () -> {
+                throw new IronException("down " + calls.incrementAndGet());
+            }).get();
+            fail();
+        } catch (IronException e) {
+            assertEquals("down 3", e.getMessage());
+        }
+    }
+
+    @Test
+    public void test_exhausted_retry_budget_stops_retries() throws Exception {
+        IronRetryBudget budget = new IronRetryBudget(0, 1);
+        assertEquals(503, new BackoffResponse(fast(5), budget, responses(503, 503, 503, 200)).get().getStatus());
+        assertEquals(2, calls.get());
+        assertEquals(0, budget.getAvailable());
+    }
+
+    @Test
+    public void test_retry_after_is_capped_without_deadline() throws Exception {
+        assertEquals(60, new IronSettings().getBackoffMaxRetryAfter());
+        IronSettings settings = fast(5).setBackoffMaxRetryAfter(0, TimeUnit.SECONDS);
+        List<Long> sleeps = new ArrayList<>();
+        Response response = new BackoffResponse(settings, new IronRetryBudget(), (retry, sleep) -> sleeps.add(sleep), () -> calls.incrementAndGet() == 1 ?
+            Response.status(503).header("Retry-After", "3600").build() :
+            new LoopbackResponse(200, null)).get();
+        assertEquals(200, response.getStatus());
+        assertEquals(Arrays.asList(1L), sleeps);
+    }
+
+    @Test
+    public void test_retry_after_beyond_deadline_is_not_attempted() throws Exception {
+        IronSettings settings = fast(5).setBackoffDeadline(1, TimeUnit.MINUTES);
+        Response response = new BackoffResponse(settings, new IronRetryBudget(), () -> calls.incrementAndGet() == 1 ?
+            Response.status(503).header("Retry-After", "3600").build() :
+            new LoopbackResponse(200, null)).get();
+        assertEquals(503, response.getStatus());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    public void test_async_retries_are_scheduled() throws Exception {
+        Supplier<Response> next = responses(503, 500, 200);
+        List<Integer> retries = new ArrayList<>();
+        Response response = BackoffResponse.async(fast(5), new IronRetryBudget(), (retry, sleep) -> retries.add(retry), scheduler,
+            () -> CompletableFuture.completedFuture(next.get())).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(200, response.getStatus());
+        assertEquals(Arrays.asList(1, 2), retries);
+    }
+
+    @Test
+    public void test_async_exhausted_retries_return_the_last_response() throws Exception {
+        Supplier<Response> next = responses(503, 503, 503, 200);
+        Response response = BackoffResponse.async(fast(2), new IronRetryBudget(), null, scheduler,
+            () -> CompletableFuture.completedFuture(next.get())).toCompletableFuture().get(5, TimeUnit.SECONDS);
+        assertEquals(503, response.getStatus());
+        assertEquals(3, calls.get());
+    }
+
+    // 1ms between retries
+    private static IronSettings fast(int retries) {
+        return new IronSettings()
+            .setBackoffRetries(retries)
+            .setBackoffPolicy((settings, retry, previousDelay) -> 1);
+    }
+
+    private Supplier<Response> responses(Integer... statuses) {
+        Iterator<Integer> it = Arrays.asList(statuses).iterator();
+        return () -> {
+            calls.incrementAndGet();
+            return LoopbackResponse.message(it.next(), "status");
+        };
+    }
+
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class IronSettingsTest {
+
+    @Test
+    public void test_snapshot_cannot_be_modified() throws Exception {
+        IronSettings settings = new IronSettings().setPollBatchSize(10);
+        IronSettings snapshot = settings.snapshot();
+        assertTrue(snapshot.isFrozen());
+        assertFalse(settings.isFrozen());
+        assertSame(snapshot, snapshot.snapshot());
+        try {
+            snapshot.setPollBatchSize(20);
+            fail();
+        } catch (IllegalStateException ignored) {
+        }
+        try {
+            snapshot.setMessageTimeout(2, TimeUnit.MINUTES);
+            fail();
+        } catch (IllegalStateException ignored) {
+        }
+        assertEquals(10, snapshot.getPollBatchSize());
+        assertEquals(IronSettings.DEF_TIMEOUT, snapshot.getMessageTimeout());
+    }
+
+    @Test
+    public void test_snapshot_does_not_follow_its_source() throws Exception {
+        IronSettings settings = new IronSettings().setBackoffRetries(2);
+        IronSettings snapshot = settings.snapshot();
+        settings.setBackoffRetries(7);
+        assertEquals(2, snapshot.getBackoffRetries());
+    }
+
+    @Test
+    public void test_copy_of_a_snapshot_can_be_modified() throws Exception {
+        IronSettings snapshot = new IronSettings().setAckBatchSize(50).snapshot();
+        IronSettings copy = snapshot.copy();
+        assertFalse(copy.isFrozen());
+        assertEquals(50, copy.getAckBatchSize());
+        copy.setAckBatchSize(5);
+        assertEquals(5, copy.getAckBatchSize());
+        assertEquals(50, snapshot.getAckBatchSize());
+    }
+
+    @Test
+    public void test_producers_keep_a_snapshot() throws Exception {
+        try (IronLoopback engine = new IronLoopback()) {
+            IronProject project = new IronClient(engine).getProject("project", "token");
+            IronSettings settings = project.getSettings().copy().setProducerBatchSize(10);
+            IronProducer producer = project.getQueue("settings").producer(settings);
+            settings.setProducerBatchSize(20);
+            assertTrue(producer.getSettings().isFrozen());
+            assertEquals(10, producer.getSettings().getProducerBatchSize());
+            producer.close();
+        }
+    }
+
+    @Test
+    public void test_queue_handles_are_reused_until_deleted() throws Exception {
+        try (IronLoopback engine = new IronLoopback()) {
+            IronProject project = new IronClient(engine).getProject("project", "token");
+            IronQueue queue = project.getQueue("settings");
+            assertSame(queue, project.getQueue("settings"));
+            queue.offerRaw("{}");
+            assertTrue(queue.delete());
+            IronQueue recreated = project.getQueue("settings");
+            assertNotSame(queue, recreated);
+            assertSame(recreated, project.getQueue("settings"));
+        }
+    }
+
+}
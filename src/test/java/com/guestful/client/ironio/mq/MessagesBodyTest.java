@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class MessagesBodyTest {
+
+    private static final String SPECIAL = "{\"q\":\"a \\\"quoted\\\" line\\nnext\",\"u\":\"\u00e9\u4e2d\ud83d\ude00\"}";
+
+    @Test
+    public void test_writes_messages_envelope() throws Exception {
+        IronSettings settings = new IronSettings()
+            .setMessageTimeout(2, TimeUnit.MINUTES)
+            .setMessageDelay(5, TimeUnit.SECONDS)
+            .setMessageExpiration(1, TimeUnit.DAYS);
+        MessagesBody body = new MessagesBody(Arrays.asList("{\"a\":1}", "{\"b\":2}".getBytes(StandardCharsets.UTF_8)), settings);
+        assertEquals(2, body.size());
+        assertEquals("2 messages", body.toString());
+
+        JsonArray messages = write(body).getJsonArray("messages");
+        assertEquals(2, messages.size());
+        JsonObject first = messages.getJsonObject(0);
+        assertEquals("{\"a\":1}", first.getString("body"));
+        assertEquals(120, first.getInt("timeout"));
+        assertEquals(5, first.getInt("delay"));
+        assertEquals(86_400, first.getInt("expires_in"));
+        assertEquals("{\"b\":2}", messages.getJsonObject(1).getString("body"));
+    }
+
+    @Test
+    public void test_bodies_are_escaped() throws Exception {
+        MessagesBody body = new MessagesBody(Arrays.asList(SPECIAL, SPECIAL.getBytes(StandardCharsets.UTF_8)), new IronSettings());
+        JsonArray messages = write(body).getJsonArray("messages");
+        assertEquals(SPECIAL, messages.getJsonObject(0).getString("body"));
+        assertEquals(SPECIAL, messages.getJsonObject(1).getString("body"));
+    }
+
+    @Test
+    public void test_payload_bytes_are_the_utf8_size_of_the_bodies() throws Exception {
+        List<?> bodies = Arrays.asList("abc", "\u00e9", "\u4e2d", "\ud83d\ude00", SPECIAL.getBytes(StandardCharsets.UTF_8));
+        long expected = 3 + 2 + 3 + 4 + SPECIAL.getBytes(StandardCharsets.UTF_8).length;
+        assertEquals(expected, new MessagesBody(bodies, new IronSettings()).getPayloadBytes());
+    }
+
+    @Test
+    public void test_offered_bodies_are_polled_unchanged() throws Exception {
+        try (IronLoopback engine = new IronLoopback()) {
+            IronQueue queue = new IronClient(engine).getProject("project", "token").getQueue("body");
+            List<String> bodies = Arrays.asList(SPECIAL, "{}", "{\"n\":[1,2,3]}");
+            queue.offerRaw(bodies);
+            List<String> polled = queue.pollBatch(10).stream().map(IronMessage::getRawBody).collect(Collectors.toList());
+            assertEquals(bodies, polled);
+        }
+    }
+
+    private static JsonObject write(MessagesBody body) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        body.write(out);
+        try (JsonReader reader = Json.createReader(new ByteArrayInputStream(out.toByteArray()))) {
+            return reader.readObject();
+        }
+    }
+
+}
@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+@RunWith(JUnit4.class)
+public class PrefetchingPollerTest {
+
+    private IronLoopback engine;
+    private IronProject project;
+    private IronQueue queue;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        engine = new IronLoopback();
+        project = new IronClient(engine).getProject("project", "token");
+        queue = project.getQueue("prefetch");
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        executor.shutdownNow();
+        engine.close();
+    }
+
+    @Test
+    public void test_workers_handle_and_delete_all_messages() throws Exception {
+        queue.offerRaw(IntStream.range(0, 50).mapToObj(i -> "{\"i\":" + i + "}").collect(Collectors.toList()));
+        Set<Integer> handled = ConcurrentHashMap.newKeySet();
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        CountDownLatch done = new CountDownLatch(50);
+        IronPoller poller = queue.prefetchPoll(executor, 3, message -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            handled.add(message.getBody().getInt("i"));
+            running.decrementAndGet();
+            done.countDown();
+        });
+        try {
+            assertTrue(done.await(10, TimeUnit.SECONDS));
+            awaitEmpty();
+        } finally {
+            poller.stop();
+        }
+        assertEquals(50, handled.size());
+        assertTrue(maxRunning.get() <= 3);
+    }
+
+    @Test
+    public void test_initial_capacity_is_one_message_per_worker() {
+        PrefetchingPoller poller = new PrefetchingPoller(queue, 2, message -> {
+        }, IronQueue::logError, project.getSettings().copy().setPrefetchSize(5));
+        // nothing measured yet: one message per worker
+        assertEquals(2, poller.capacity());
+    }
+
+    @Test
+    public void test_stop_releases_buffered_messages() throws Exception {
+        queue.offerRaw(IntStream.range(0, 5).mapToObj(i -> "{}").collect(Collectors.toList()));
+        CountDownLatch handling = new CountDownLatch(1);
+        CountDownLatch proceed = new CountDownLatch(1);
+        IronPoller poller = queue.prefetchPoll(executor, 1, message -> {
+            handling.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, IronQueue::logError, project.getSettings().copy().setPrefetchSize(5));
+        assertTrue(handling.await(5, TimeUnit.SECONDS));
+        // one message per worker is buffered while the first one is handled
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (poller.getInFlight() < 2 && System.nanoTime() - deadline < 0) {
+            Thread.sleep(10);
+        }
+        assertEquals(2, poller.getInFlight());
+        poller.stop();
+        proceed.countDown();
+        // the buffered message is visible again, with the 3 never fetched
+        assertEquals(4, queue.pollBatch(10).size());
+    }
+
+    @Test
+    public void test_failed_polls_back_off() throws Exception {
+        IronLoopback down = new IronLoopback();
+        down.close();
+        project.getClient().setLoopback(down);
+        IronPoller poller = queue.prefetchPoll(executor, 1, message -> {
+        });
+        Thread.sleep(1000);
+        poller.stop();
+        // 100ms, 200ms, 400ms, ... instead of a busy loop
+        long polls = ((IronMetricsRegistry) project.getClient().getMetrics()).get(IronOperation.POLL, "prefetch").getLatency().getCount();
+        assertTrue("polls: " + polls, polls >= 2 && polls <= 5);
+    }
+
+    private void awaitEmpty() throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (engine.getSize("project", "prefetch") > 0) {
+            assertTrue(System.nanoTime() - deadline < 0);
+            Thread.sleep(10);
+        }
+    }
+
+}
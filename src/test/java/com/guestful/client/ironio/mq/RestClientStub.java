@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2013 Guestful (info@guestful.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.guestful.client.ironio.mq;
+
+import javax.ws.rs.client.Client;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * JAX-RS client without network: the fluent calls (targets, builders, invokers) return stubs
+ * and each <code>method(...)</code> call, synchronous or asynchronous, is answered by the given invoker.
+ *
+ * @author Mathieu Carbou (mathieu.carbou@gmail.com)
+ */
+final class RestClientStub {
+
+    @FunctionalInterface
+    interface Invoker {
+        /**
+         * @param method the invoked <code>method(...)</code>, declared by <code>SyncInvoker</code> or <code>AsyncInvoker</code>
+         */
+        Object invoke(Method method, Object[] args) throws Throwable;
+    }
+
+    private RestClientStub() {
+    }
+
+    static Client client(Invoker invoker) {
+        return proxy(Client.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "method":
+                    return invoker.invoke(method, args);
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "stub";
+                default:
+                    return method.getReturnType().isInterface() ? proxy(method.getReturnType(), Proxy.getInvocationHandler(proxy)) : null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(RestClientStub.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+
+}